@@ -4,6 +4,7 @@ import common.*;
 import comms.CommsClient;
 import comms.Message;
 import comms.MessageType;
+import comms.PushListener;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -11,13 +12,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import static java.lang.Thread.sleep;
 
 /**
  * @author Oscar van Leusen
  */
-public class ClientApplication implements ClientInterface {
+public class ClientApplication implements ClientInterface, PushListener {
 
     //public static boolean ready = false;
     private static int portNumber = 5000;
@@ -27,6 +29,14 @@ public class ClientApplication implements ClientInterface {
     private User connectedUser;
     private List<UpdateListener> listeners = new ArrayList<>();
     private HashMap<Dish, Number> basket = new HashMap<>();
+    //Copies of the menu and the logged in User's Orders (by order number), kept up to date by changes the Server pushes
+    private final Object cacheLock = new Object();
+    private List<Dish> cachedDishes;
+    private TreeMap<Integer, Order> cachedOrders;
+    private String cachedOrdersUser;
+    //Counts pushed changes, so a fetch that overlapped a change isn't kept as the cached copy
+    private int dishChanges = 0;
+    private int orderChanges = 0;
 
     /**
      * Starts the Client Application
@@ -54,7 +64,7 @@ public class ClientApplication implements ClientInterface {
         new Thread(() -> {
             synchronized (app) {
                 System.out.println("Connecting Client to address " + serverAddress.toString() + ":" + portNumber);
-                comms = new CommsClient(app, portNumber, serverAddress);
+                comms = new CommsClient(app, app, portNumber, serverAddress);
             }
         }).start();
 
@@ -117,8 +127,9 @@ public class ClientApplication implements ClientInterface {
             Message receivedMessage = comms.receiveMessage(MessageType.REGISTER_SUCCESS);
             //REGISTER_SUCCESS messages return true or false boolean
             if ((boolean) receivedMessage.getPayload()) {
-                notifyUpdate();
                 this.connectedUser = newUser;
+                forgetOrders();
+                notifyUpdate();
                 return newUser;
             } else {
                 notifyUpdate();
@@ -152,6 +163,7 @@ public class ClientApplication implements ClientInterface {
             } else {
                 //If the contents of the message aren't null (failed to login), returns the User
                 this.connectedUser = (User) receivedMessage.getPayload();
+                forgetOrders();
                 return connectedUser;
             }
         } else {
@@ -184,13 +196,26 @@ public class ClientApplication implements ClientInterface {
      */
     @Override
     public List<Dish> getDishes() {
+        int changes;
+        synchronized (cacheLock) {
+            if (cachedDishes != null) {
+                return new ArrayList<>(cachedDishes);
+            }
+            changes = dishChanges;
+        }
         boolean success = comms.sendMessage(new Message(MessageType.GET_DISHES));
         if (success) {
             Message receivedMessage = comms.receiveMessage(MessageType.DISHES);
             while (receivedMessage == null) {
                 receivedMessage = comms.receiveMessage(MessageType.DISHES);
             }
-            return (List<Dish>) receivedMessage.getPayload();
+            List<Dish> dishes = (List<Dish>) receivedMessage.getPayload();
+            synchronized (cacheLock) {
+                if (changes == dishChanges) {
+                    cachedDishes = new ArrayList<>(dishes);
+                }
+            }
+            return dishes;
         }
         return null;
     }
@@ -288,11 +313,18 @@ public class ClientApplication implements ClientInterface {
         boolean success = comms.sendMessage(new Message(MessageType.SEND_CHECKOUT, order));
         if (success) {
             Message receivedMessage = comms.receiveMessage(MessageType.ORDER);
-            if (receivedMessage == null) {
+            //The Server replies without an Order if it couldn't place it
+            if (receivedMessage == null || receivedMessage.getPayload() == null) {
                 return null;
             } else {
+                Order newOrder = (Order) receivedMessage.getPayload();
+                //The Server picks the order number, so the next checkout counts on from it
+                user.setOrdersMade(newOrder.getUserOrderNum() + 1);
+                synchronized (cacheLock) {
+                    cacheOrder(newOrder);
+                }
                 this.clearBasket(user);
-                return (Order) receivedMessage.getPayload();
+                return newOrder;
             }
         }
         return null;
@@ -315,13 +347,30 @@ public class ClientApplication implements ClientInterface {
      */
     @Override
     public List<Order> getOrders(User user) {
+        int changes;
+        synchronized (cacheLock) {
+            if (cachedOrders != null && user.getName().equals(cachedOrdersUser)) {
+                return new ArrayList<>(cachedOrders.values());
+            }
+            changes = orderChanges;
+        }
         boolean success = comms.sendMessage(new Message(MessageType.GET_ORDERS, user));
         if (success) {
             Message receivedMessage = comms.receiveMessage(MessageType.ORDERS);
             while (receivedMessage == null) {
                 receivedMessage = comms.receiveMessage(MessageType.ORDERS);
             }
-            return (List<Order>) receivedMessage.getPayload();
+            List<Order> orders = (List<Order>) receivedMessage.getPayload();
+            synchronized (cacheLock) {
+                if (changes == orderChanges) {
+                    cachedOrders = new TreeMap<>();
+                    cachedOrdersUser = user.getName();
+                    for (Order order : orders) {
+                        cachedOrders.put(order.getUserOrderNum(), order);
+                    }
+                }
+            }
+            return orders;
         }
         return new ArrayList<>();
     }
@@ -333,17 +382,12 @@ public class ClientApplication implements ClientInterface {
      */
     @Override
     public boolean isOrderComplete(Order order) {
-        boolean success = comms.sendMessage(new Message(MessageType.GET_STATUS, order));
-        if (success) {
-            Message receivedMessage = comms.receiveMessage(MessageType.STATUS);
-            Order receivedOrder = (Order) receivedMessage.getPayload();
-            if (receivedOrder.getOrderState() == Order.OrderState.COMPLETE | receivedOrder.getOrderState() == Order.OrderState.CANCELLED) {
-                return true;
-            } else {
-                return false;
-            }
+        Order cached = cachedOrder(order);
+        if (cached != null) {
+            return cached.getOrderState() == Order.OrderState.COMPLETE || cached.getOrderState() == Order.OrderState.CANCELLED;
         }
-        return false;
+        String status = requestOrderStatus(order);
+        return status.equals(Order.OrderState.COMPLETE.getStatus()) || status.equals(Order.OrderState.CANCELLED.getStatus());
     }
 
     /**
@@ -353,6 +397,19 @@ public class ClientApplication implements ClientInterface {
      */
     @Override
     public String getOrderStatus(Order order) {
+        Order cached = cachedOrder(order);
+        if (cached != null) {
+            return cached.getOrderState().getStatus();
+        }
+        return requestOrderStatus(order);
+    }
+
+    /**
+     * Asks the Server for the Status of an Order that isn't cached
+     * @param order order to lookup
+     * @return String status of Order
+     */
+    private String requestOrderStatus(Order order) {
         boolean success = comms.sendMessage(new Message(MessageType.GET_STATUS, order));
         if (success) {
             Message receivedMessage = comms.receiveMessage(MessageType.STATUS);
@@ -371,6 +428,10 @@ public class ClientApplication implements ClientInterface {
      */
     @Override
     public Number getOrderCost(Order order) {
+        Order cached = cachedOrder(order);
+        if (cached != null) {
+            return cached.orderPrice();
+        }
         boolean success = comms.sendMessage(new Message(MessageType.GET_COST, order));
         if (success) {
             Message receivedMessage = comms.receiveMessage(MessageType.COST);
@@ -408,9 +469,83 @@ public class ClientApplication implements ClientInterface {
      */
     @Override
     public void notifyUpdate() {
-        clientWindow.updated(new UpdateEvent());
+        if (clientWindow != null) {
+            clientWindow.updated(new UpdateEvent());
+        }
         for (UpdateListener listener : listeners) {
             listener.updated(new UpdateEvent());
         }
     }
+
+    /**
+     * Applies a change pushed by the Server to the cached Dishes and Orders. The CommsClient then calls notifyUpdate
+     * so the window redraws from the cache, without fetching anything again.
+     * @param message : Message holding the change
+     */
+    @Override
+    public void pushed(Message message) {
+        synchronized (cacheLock) {
+            switch (message.getType()) {
+                case DISH_CHANGED:
+                case DISH_REMOVED:
+                    Dish dish = (Dish) message.getPayload();
+                    dishChanges++;
+                    if (cachedDishes != null) {
+                        cachedDishes.removeIf(cachedDish -> cachedDish.getID() == dish.getID());
+                        if (message.getType() == MessageType.DISH_CHANGED) {
+                            cachedDishes.add(dish);
+                        }
+                    }
+                    break;
+                case ORDER_CHANGED:
+                    orderChanges++;
+                    cacheOrder((Order) message.getPayload());
+                    break;
+                case ORDER_REMOVED:
+                    orderChanges++;
+                    Order removed = (Order) message.getPayload();
+                    if (cachedOrders != null && removed.getUser().getName().equals(cachedOrdersUser)) {
+                        cachedOrders.remove(removed.getUserOrderNum());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds or replaces an Order in the cache, if the cache holds its User's Orders. Must hold the cacheLock.
+     * @param order : New or changed Order
+     */
+    private void cacheOrder(Order order) {
+        if (cachedOrders != null && order.getUser().getName().equals(cachedOrdersUser)) {
+            cachedOrders.put(order.getUserOrderNum(), order);
+        }
+    }
+
+    /**
+     * Finds the cached copy of an Order
+     * @param order : Order to lookup
+     * @return : Cached Order, or null if it isn't cached
+     */
+    private Order cachedOrder(Order order) {
+        synchronized (cacheLock) {
+            if (cachedOrders != null && order.getUser().getName().equals(cachedOrdersUser)) {
+                return cachedOrders.get(order.getUserOrderNum());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the cached Orders when a different User logs in
+     */
+    private void forgetOrders() {
+        synchronized (cacheLock) {
+            cachedOrders = null;
+            cachedOrdersUser = null;
+            orderChanges++;
+        }
+    }
 }
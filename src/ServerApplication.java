@@ -2,37 +2,67 @@ import common.*;
 import comms.CommsServer;
 import comms.Message;
 import comms.MessageType;
+import comms.UpdatePublisher;
 import exceptions.*;
 import server.ServerInterface;
 import server.ServerWindow;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Oscar van Leusen
  */
-public class ServerApplication extends Thread implements ServerInterface {
+public class ServerApplication implements Runnable, ServerInterface {
 
     private static volatile boolean running = true;
     private static String configFile = "ConfigurationExample.txt";
     private static int portNumber = 5000;
+    //Number of threads processing client messages in parallel
+    private static int dispatcherThreads = Runtime.getRuntime().availableProcessors();
+    //Whether clients are served by a single Selector thread rather than a thread per client
+    private static boolean useSelector = false;
+    //Seconds a completed or cancelled Order stays on the Server before it is moved to the order archive
+    private static long orderRetentionSeconds = 300;
+    //Format full backups are written in: text, binary or compressed
+    private static DataPersistence.Format backupFormat = DataPersistence.Format.TEXT;
+    private ExecutorService dispatchers;
     private Configuration config;
     private DataPersistence backup;
+    private Thread backupThread;
+    //Journal of changes made since the last backup, kept across Configuration loads.
+    private StateJournal journal;
+    private Thread journalThread;
+    //Users, Orders and stock changed since the last backup
+    private volatile ChangeTracker changes;
+    private volatile OrderArchive archive;
+    private Thread archiveThread;
     private static CommsServer communication;
+    //Pushes each change to the Clients it affects
+    private static UpdatePublisher publisher;
 
     private StockManager stockManager = new StockManager();
 
     private ArrayList<UpdateListener> listeners = new ArrayList<>();
-    private ArrayList<Supplier> suppliers = new ArrayList<>();
-    private ArrayList<Ingredient> ingredients = new ArrayList<>();
-    private ArrayList<Dish> dishes = new ArrayList<>();
-    private ArrayList<Postcode> postcodes = new ArrayList<>();
-    private ArrayList<User> users = new ArrayList<>();
-    private ArrayList<Order> orders = new ArrayList<>();
+    //Copy-on-write so that backups and Client requests can iterate these while the ServerWindow or Clients change them.
+    private List<Supplier> suppliers = new CopyOnWriteArrayList<>();
+    private List<Ingredient> ingredients = new CopyOnWriteArrayList<>();
+    private List<Dish> dishes = new CopyOnWriteArrayList<>();
+    //Indexes of Users, Dishes and Orders so Client requests don't have to search through every list
+    private Catalog catalog = new Catalog();
+    private AtomicInteger nextDishID = new AtomicInteger();
+    private List<Postcode> postcodes = new CopyOnWriteArrayList<>();
+    private List<User> users = new CopyOnWriteArrayList<>();
+    private OrderRegistry orders = new OrderRegistry();
     private HashMap<Staff, Thread> staff = new HashMap<>();
     private HashMap<Drone, Thread> drones = new HashMap<>();
 
@@ -40,11 +70,8 @@ public class ServerApplication extends Thread implements ServerInterface {
     public static boolean dishesRestocked = true;
 
     public static void main(String args[]) {
-        if (args.length == 1) {
-            portNumber = Integer.parseInt(args[0]);
-        } else if (args.length == 2) {
-            portNumber = Integer.parseInt(args[0]);
-            configFile = args[1];
+        for (int i=0; i<args.length; i++) {
+            parseArgument(i, args[i]);
         }
         ServerInterface serverInterface = initialise();
         ServerApplication app = (ServerApplication) serverInterface;
@@ -52,17 +79,54 @@ public class ServerApplication extends Thread implements ServerInterface {
     }
 
     /**
-     * Used to constantly receive messages from Clients and process these for the Server response.
+     * Parses one launch argument. Arguments are given in a fixed order, and any left off the end keep their defaults.
+     * @param position : Position of the argument, starting from 0
+     * @param argument : Value of the argument
+     */
+    private static void parseArgument(int position, String argument) {
+        switch (position) {
+            case 0:
+                portNumber = Integer.parseInt(argument);
+                break;
+            case 1:
+                configFile = argument;
+                break;
+            case 2:
+                dispatcherThreads = Math.max(1, Integer.parseInt(argument));
+                break;
+            case 3:
+                useSelector = Boolean.parseBoolean(argument);
+                break;
+            case 4:
+                orderRetentionSeconds = Math.max(0, Long.parseLong(argument));
+                break;
+            case 5:
+                backupFormat = DataPersistence.Format.valueOf(argument.toUpperCase());
+                break;
+            default:
+                System.out.println("Ignoring extra launch argument: " + argument);
+                break;
+        }
+    }
+
+    /**
+     * Run by each dispatcher thread to receive messages from Clients and process these for the Server response.
+     * Blocks while no messages are waiting, so idle dispatchers do not use any CPU.
      */
     @Override
     public void run() {
         while (running) {
-            if (communication.getMessageStatus()) {
-                Message message = communication.receiveMessage();
-                communication.setMessageStatus(false);
-                if (message != null) {
-                    processMessage(message);
-                }
+            Message message;
+            try {
+                message = communication.takeMessage();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                processMessage(message);
+            } catch (RuntimeException e) {
+                //A malformed request from one client shouldn't take down this dispatcher for every other client.
+                e.printStackTrace();
             }
         }
     }
@@ -73,7 +137,20 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     private static ServerInterface initialise() {
         ServerApplication app = new ServerApplication();
-        app.loadConfiguration(configFile);
+        //If the Server has run here before, carry on from where it stopped rather than starting from the Configuration.
+        //A corrupt backup is skipped in favour of the one before it.
+        boolean recovered = false;
+        for (File backup : DataPersistence.backupsNewestFirst(new File(System.getProperty("user.dir")))) {
+            System.out.println("Recovering from backup: " + backup.getName());
+            if (app.loadConfiguration(backup.getPath(), DataPersistence.timestampOf(backup))) {
+                recovered = true;
+                break;
+            }
+            System.out.println("Unable to recover from backup: " + backup.getName());
+        }
+        if (!recovered) {
+            app.loadConfiguration(configFile);
+        }
         return app;
     }
 
@@ -87,15 +164,20 @@ public class ServerApplication extends Thread implements ServerInterface {
     }
 
     /**
-     * Starts the Comms Server and background message receiving thread.
+     * Starts the Comms Server and the pool of dispatcher threads that process received messages.
      */
     private void startComms() {
         try {
-            Thread commsThread = new CommsServer(portNumber);
+            Thread commsThread = new CommsServer(portNumber, useSelector);
             communication = (CommsServer) commsThread;
+            publisher = new UpdatePublisher(communication);
+            communication.setPublisher(publisher);
             commsThread.start();
             running = true;
-            this.start();
+            dispatchers = Executors.newFixedThreadPool(dispatcherThreads);
+            for (int i=0; i<dispatcherThreads; i++) {
+                dispatchers.execute(this);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -108,7 +190,24 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     @Override
     public void loadConfiguration(String filename) {
+        loadConfiguration(filename, null);
+    }
+
+    /**
+     * Loads a configuration file or backup. If a backup is loaded, the journal written since it was taken is replayed.
+     * @param filename configuration file or backup to load
+     * @param backupTimestamp timestamp of the backup being loaded, or null if it is a configuration file
+     * @return True if the file was loaded, False if it couldn't be read or was invalid.
+     */
+    private boolean loadConfiguration(String filename, String backupTimestamp) {
         //Before loading our configuration, close any existing threads and empty any stored values.
+        if (backup != null) {
+            backup.disableBackups();
+            backupThread.interrupt();
+        }
+        orders.setJournal(null);
+        orders.setChangeTracker(null);
+        orders.setPublisher(null);
         for (Staff staffMember : staff.keySet()) {
             staffMember.cancelThread();
             staff.get(staffMember).interrupt();
@@ -117,11 +216,17 @@ public class ServerApplication extends Thread implements ServerInterface {
             drone.cancelThread();
             drones.get(drone).interrupt();
         }
+        if (archive != null) {
+            archive.cancelThread();
+            archiveThread.interrupt();
+            archive = null;
+        }
         stockManager = new StockManager();
         listeners.clear();
         suppliers.clear();
         ingredients.clear();
         dishes.clear();
+        catalog.clear();
         postcodes.clear();
         users.clear();
         orders.clear();
@@ -129,22 +234,57 @@ public class ServerApplication extends Thread implements ServerInterface {
         drones.clear();
         ingredientsRestocked = true;
         dishesRestocked = true;
+        File folder = new File(System.getProperty("user.dir"));
+        //Created before the dispatchers start, as a Client can register or check out while the first Configuration loads.
+        if (journal == null) {
+            journal = new StateJournal(folder);
+            journalThread = new Thread(journal);
+            journalThread.start();
+        }
         if (communication != null) {
             communication.dropConnections();
+            publisher.clear();
         } else {
             startComms();
         }
 
         try {
-            Server server = new Server(this, stockManager, users, orders);
+            Server server = new Server(this, stockManager, catalog, users, orders);
             config = new Configuration(server, filename);
             config.loadConfiguration();
-            backup = new DataPersistence(server, stockManager);
-            Thread backupThread = new Thread(backup);
+            if (backupTimestamp != null) {
+                //Changes made after the last delta backup are only in the journal.
+                String replayFrom = DataPersistence.applyDeltas(folder, backupTimestamp, server, catalog);
+                int replayed = StateJournal.replay(folder, replayFrom, server, catalog);
+                System.out.println("Replayed " + replayed + " journal records since backup.");
+            }
+            server.resumeDeliveries();
+
+            stockManager.setJournal(journal);
+            orders.setJournal(journal);
+            changes = new ChangeTracker(orders);
+            stockManager.setChangeTracker(changes);
+            orders.setChangeTracker(changes);
+            orders.setPublisher(publisher);
+            backup = new DataPersistence(server, stockManager, journal, changes, backupFormat);
+            //Backs up the state just loaded straight away, so the journal only needs to hold changes made from now on.
+            backup.backup();
+            backupThread = new Thread(backup);
             backupThread.start();
+            File archiveFile = new File(OrderArchive.ARCHIVE_FILE);
+            //The archive holds the history of the Users backed up with it, so a new Configuration starts a new archive.
+            //This is only done once the new Configuration has been backed up, so a restart doesn't go back to the old one.
+            if (backupTimestamp == null && !DataPersistence.isBackup(new File(filename))) {
+                OrderArchive.clear(archiveFile);
+            }
+            archive = new OrderArchive(archiveFile, orders, catalog, orderRetentionSeconds * 1000);
+            archiveThread = new Thread(archive);
+            archiveThread.start();
             notifyUpdate();
-        } catch (InvalidSupplierException | InvalidStockItemException | InvalidIngredientException | InvalidPostcodeException | InvalidUserException | InvalidDishException | IOException e) {
+            return true;
+        } catch (InvalidSupplierException | InvalidStockItemException | InvalidIngredientException | InvalidPostcodeException | InvalidUserException | InvalidDishException | InvalidBackupException | IOException e) {
             e.printStackTrace();
+            return false;
         }
     }
 
@@ -218,16 +358,18 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     @Override
     public Dish addDish(String name, String description, Number price, Number restockThreshold, Number restockAmount) {
-        Dish newDish = new Dish(name, description, price, stockManager);
+        Dish newDish = new Dish(nextDishID.getAndIncrement(), name, description, price, stockManager);
         try {
-            StockItem newDishStock = new StockItem(newDish, 0, restockThreshold, restockAmount);
-            stockManager.addDish(newDish, newDishStock);
+            stockManager.addDish(newDish, 0, restockThreshold, restockAmount);
             dishes.add(newDish);
+            catalog.addDish(newDish);
         } catch (InvalidStockItemException e) {
             e.printStackTrace();
         }
         notifyUpdate();
-        notifyClient();
+        if (publisher != null) {
+            publisher.dishChanged(newDish);
+        }
         return newDish;
     }
 
@@ -239,16 +381,19 @@ public class ServerApplication extends Thread implements ServerInterface {
     @Override
     public void removeDish(Dish dish) throws UnableToDeleteException {
         //Checks to see if the Dish is contained in any Orders
-        for (Order order : orders) {
+        for (Order order : orders.getOrders()) {
             if (order.containsDish(dish)) {
                 throw new UnableToDeleteException("Attempted to remove Dish that is contained in an order");
             }
         }
         //No exception was thrown, so dish cannot have been contained in any orders.
         dishes.remove(dish);
+        catalog.removeDish(dish);
         stockManager.removeDish(dish);
         notifyUpdate();
-        notifyClient();
+        if (publisher != null) {
+            publisher.dishRemoved(dish);
+        }
     }
 
     /**
@@ -284,7 +429,9 @@ public class ServerApplication extends Thread implements ServerInterface {
         dish.setRecipe(recipe);
         notifyUpdate();
         //After tracing ServerWindow code, it is at this point the Dish details are finalised
-        notifyClient();
+        if (publisher != null) {
+            publisher.dishChanged(dish);
+        }
     }
 
     /**
@@ -374,13 +521,11 @@ public class ServerApplication extends Thread implements ServerInterface {
     @Override
     public Ingredient addIngredient(String name, String unit, Supplier supplier, Number restockThreshold, Number restockAmount) {
         Ingredient newIngredient  = new Ingredient(name, unit, supplier, stockManager);
-        StockItem newIngredientStock = null;
         try {
-            newIngredientStock = new StockItem(newIngredient, 0, restockThreshold, restockAmount);
+            stockManager.addIngredient(newIngredient, 0, restockThreshold, restockAmount);
         } catch (InvalidStockItemException e) {
             e.printStackTrace();
         }
-        stockManager.addIngredient(newIngredient, newIngredientStock);
         ingredients.add(newIngredient);
         notifyUpdate();
         return newIngredient;
@@ -532,7 +677,7 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     @Override
     public Drone addDrone(Number speed) {
-        Drone newDrone = new Drone(speed, stockManager, orders, drones.size() + 1);
+        Drone newDrone = new Drone(speed, stockManager, drones.size() + 1);
         Thread droneThread = new Thread(newDrone);
         droneThread.start();
         drones.put(newDrone, droneThread);
@@ -548,7 +693,9 @@ public class ServerApplication extends Thread implements ServerInterface {
     @Override
     public void removeDrone(Drone drone) throws UnableToDeleteException {
         if (drone.getJobState() == Drone.DroneState.IDLE) {
-            drones.remove(drone);
+            //Stop the drone's thread, any job it had been given but not started goes to another drone.
+            drone.cancelThread();
+            drones.remove(drone).interrupt();
             notifyUpdate();
         } else {
             throw new UnableToDeleteException("Attempted to Delete Drone while it is busy with a job.");
@@ -631,7 +778,7 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     @Override
     public List<Order> getOrders() {
-        return orders;
+        return orders.getOrders();
     }
 
     /**
@@ -643,6 +790,10 @@ public class ServerApplication extends Thread implements ServerInterface {
     public void removeOrder(Order order) throws UnableToDeleteException {
         if (order.getOrderState() == Order.OrderState.CANCELLED || order.getOrderState() == Order.OrderState.COMPLETE) {
             orders.remove(order);
+            catalog.removeOrder(order);
+            if (publisher != null) {
+                publisher.orderRemoved(order);
+            }
             notifyUpdate();
         } else {
             throw new UnableToDeleteException("Attempted to remove Order when it is not yet complete.");
@@ -680,22 +831,7 @@ public class ServerApplication extends Thread implements ServerInterface {
         if (order == null) {
             return "In Basket";
         }
-        Order.OrderState state = order.getOrderState();
-        if (state == Order.OrderState.BASKET) {
-            return "In Basket";
-        } else if (state == Order.OrderState.PREPARING) {
-            return "Preparing";
-        } else if (state == Order.OrderState.PREPARED) {
-            return "Prepared";
-        } else if (state == Order.OrderState.DELIVERING) {
-            return "Delivering";
-        } else if (state == Order.OrderState.COMPLETE){
-            return "Completed";
-        } else if (state == Order.OrderState.CANCELLED) {
-            return "Cancelled";
-        } else {
-            return "";
-        }
+        return order.getOrderState().getStatus();
     }
 
     /**
@@ -763,11 +899,25 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     public User addUser(String username, String password, String location, Postcode postcode) {
         User newUser = new User(username, password, location, postcode);
-        users.add(newUser);
+        if (catalog.addUser(newUser)) {
+            users.add(newUser);
+            userAdded(newUser);
+        }
         notifyUpdate();
         return newUser;
     }
 
+    /**
+     * Records a newly added User for the next delta backup
+     * @param user : User that was added
+     */
+    private void userAdded(User user) {
+        ChangeTracker currentChanges = changes;
+        if (currentChanges != null) {
+            currentChanges.userAdded(user);
+        }
+    }
+
     /**
      * Removes a user from the restaurant.
      * @param user to remove
@@ -775,12 +925,18 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     @Override
     public void removeUser(User user) throws UnableToDeleteException {
-        for (Order order : orders) {
+        for (Order order : orders.getOrders()) {
             if (order.getUser().equals(user)) {
                 throw new UnableToDeleteException("Attempted to delete User while not safe to delete user.");
             }
         }
         users.remove(user);
+        catalog.removeUser(user);
+        //Delta backups only record Users being added
+        ChangeTracker currentChanges = changes;
+        if (currentChanges != null) {
+            currentChanges.structureChanged();
+        }
         notifyUpdate();
     }
 
@@ -835,18 +991,21 @@ public class ServerApplication extends Thread implements ServerInterface {
         int uid = message.getConnectionUID();
         User newUser = (User) message.getPayload();
 
-        boolean userExists = false;
-        for (User user : users) {
-            if (user.getName().equals(newUser.getName())) {
-                userExists = true;
-            }
-        }
-
         Message reply;
-        if (!userExists) {
-            newUser.setClientUID(uid);
-            users.add(newUser);
-            reply = new Message(MessageType.REGISTER_SUCCESS, true);
+        newUser.setClientUID(uid);
+        //Registrations can be processed in parallel, the catalog only accepts the first User with a given name.
+        if (catalog.addUser(newUser)) {
+            //The Client isn't told it has registered until the registration is safely on disk.
+            if (journal.awaitDurable(journal.userRegistered(newUser))) {
+                users.add(newUser);
+                userAdded(newUser);
+                publisher.loggedIn(newUser.getName(), uid);
+                reply = new Message(MessageType.REGISTER_SUCCESS, true);
+            } else {
+                //Nothing was recorded, so the name is given back rather than leaving a User that would be lost in a crash.
+                catalog.removeUser(newUser);
+                reply = new Message(MessageType.REGISTER_SUCCESS, false);
+            }
         } else {
             reply = new Message(MessageType.REGISTER_SUCCESS, false);
         }
@@ -864,17 +1023,10 @@ public class ServerApplication extends Thread implements ServerInterface {
         int uid = message.getConnectionUID();
         Message reply;
         ArrayList<String> loginDetails = (ArrayList<String>) message.getPayload();
-        boolean loginCorrect = false;
-        User loggedIn = null;
-        for (User user : users) {
-            //If there's a user where both username and password match those entered, it was a correct login!
-            if (user.getName().equals(loginDetails.get(0)) && user.passwordMatches(loginDetails.get(1))) {
-                loggedIn = user;
-                loginCorrect = true;
-                break;
-            }
-        }
-        if (loginCorrect) {
+        User loggedIn = catalog.getUser(loginDetails.get(0));
+        //If there's a user where both username and password match those entered, it was a correct login!
+        if (loggedIn != null && loggedIn.passwordMatches(loginDetails.get(1))) {
+            publisher.loggedIn(loggedIn.getName(), uid);
             reply = new Message(MessageType.LOGIN_SUCCESS, loggedIn);
         } else {
             reply = new Message(MessageType.LOGIN_SUCCESS, null);
@@ -893,7 +1045,7 @@ public class ServerApplication extends Thread implements ServerInterface {
         if (this.getPostcodes() == null) {
             reply = new Message(MessageType.POSTCODES, new ArrayList<Postcode>());
         } else {
-            reply = new Message(MessageType.POSTCODES, (ArrayList<Postcode>) this.getPostcodes());
+            reply = new Message(MessageType.POSTCODES, new ArrayList<>(this.getPostcodes()));
         }
 
         communication.sendMessage(uid, reply);
@@ -905,7 +1057,8 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     private void processGetDishes(Message message) {
         int uid = message.getConnectionUID();
-        Message reply = new Message(MessageType.DISHES, (ArrayList<Dish>) this.getDishes());
+        //Copied so that the menu can't change while the reply is being encoded
+        Message reply = new Message(MessageType.DISHES, new ArrayList<>(this.getDishes()));
         communication.sendMessage(uid, reply);
     }
 
@@ -915,16 +1068,8 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     private void processGetDishDesc(Message message) {
         int uid = message.getConnectionUID();
-        //The client Dish is considered inconsistent with the Server dish (which may have changed)
-        //So we have to find the server's instance of the Dish (Names match).
-        Dish clientDish = (Dish) message.getPayload();
-        Dish serverDish = null;
-
-        for (Dish dish : dishes) {
-            if (dish.getName().equals(clientDish.getName())) {
-                serverDish = dish;
-            }
-        }
+        //The client Dish is only a menu entry, so we have to find the server's instance of the Dish.
+        Dish serverDish = findServerDish((Dish) message.getPayload());
 
         Message reply;
         if (serverDish != null) {
@@ -941,16 +1086,8 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     private void processGetDishPrice(Message message) {
         int uid = message.getConnectionUID();
-        //The client Dish is considered inconsistent with the Server dish (which may have changed)
-        //So we have to find the server's instance of the Dish (Names match).
-        Dish clientDish = (Dish) message.getPayload();
-        Dish serverDish = null;
-
-        for (Dish dish : dishes) {
-            if (dish.getName().equals(clientDish.getName())) {
-                serverDish = dish;
-            }
-        }
+        //The client Dish is only a menu entry, so we have to find the server's instance of the Dish.
+        Dish serverDish = findServerDish((Dish) message.getPayload());
 
         Message reply;
         if (serverDish != null) {
@@ -971,21 +1108,12 @@ public class ServerApplication extends Thread implements ServerInterface {
 
         Message reply = new Message(MessageType.BASKET, null);
 
-        //If no User was passed with message, return an empty basket.
+        //If the User has no Order still in their basket, return an empty basket.
         User clientUser = (User) message.getPayload();
-        User serverUser = null;
-
-        for (User user: users) {
-            if (user.getName().equals(clientUser.getName())) {
-                serverUser = user;
-            }
-        }
-
-        for (Order order : orders) {
-            //If any Order object that is still in basket and for the requested user, this is the correct Order.
-            if (order.getUser().equals(serverUser) && order.getOrderState() == Order.OrderState.BASKET) {
-                reply = new Message(MessageType.BASKET, order.getBasket());
-            }
+        Order basket = catalog.getBasket(clientUser.getName());
+        //A copy is sent, as the basket can be changed by another dispatcher thread while the reply is encoded.
+        if (basket != null) {
+            reply = new Message(MessageType.BASKET, basket.copyBasket());
         }
 
         communication.sendMessage(uid, reply);
@@ -998,19 +1126,13 @@ public class ServerApplication extends Thread implements ServerInterface {
     private void processGetBasketCost(Message message) {
         int uid = message.getConnectionUID();
         User clientUser = (User) message.getPayload();
-        User serverUser = null;
-
-        for (User user: users) {
-            if (user.getName().equals(clientUser.getName())) {
-                serverUser = user;
-            }
-        }
 
         Message reply = new Message(MessageType.BASKET_COST, null);
-        for (Order order : orders) {
-            if (order.getUser().equals(serverUser) && order.getOrderState() == Order.OrderState.BASKET) {
-                reply = new Message(MessageType.BASKET_COST, order.orderPrice());
-            }
+        Order basket = catalog.getBasket(clientUser.getName());
+        if (basket != null) {
+            //A Dish may have changed price since it was put in the basket, so the running total is checked first.
+            basket.reconcilePrice();
+            reply = new Message(MessageType.BASKET_COST, basket.orderPrice());
         }
         communication.sendMessage(uid, reply);
     }
@@ -1023,19 +1145,23 @@ public class ServerApplication extends Thread implements ServerInterface {
         int uid = message.getConnectionUID();
         User clientUser = (User) message.getPayload();
 
-        Message reply = new Message(MessageType.ORDERS, orders);
+        Message reply = new Message(MessageType.ORDERS, new ArrayList<>(orders.getOrders()));
 
         if (clientUser != null) {
-            ArrayList<Order> userOrders = new ArrayList<>();
-
-            for (Order order : orders) {
-                if (order.getUser().getName().equals(clientUser.getName()) && order.getOrderState() != Order.OrderState.BASKET) {
-                    userOrders.add(order);
+            //Older Orders come from the archive. An Order being archived right now may be in both, so it is only sent once.
+            TreeMap<Integer, Order> userOrders = new TreeMap<>();
+            OrderArchive currentArchive = archive;
+            if (currentArchive != null) {
+                for (Order order : currentArchive.getOrders(clientUser)) {
+                    userOrders.put(order.getUserOrderNum(), order);
                 }
             }
-            if (userOrders.size() > 0) {
-                reply = new Message(MessageType.ORDERS, userOrders);
+            for (Order order : catalog.getOrders(clientUser.getName())) {
+                if (order.getOrderState() != Order.OrderState.BASKET) {
+                    userOrders.put(order.getUserOrderNum(), order);
+                }
             }
+            reply = new Message(MessageType.ORDERS, new ArrayList<>(userOrders.values()));
         }
 
         communication.sendMessage(uid, reply);
@@ -1049,13 +1175,9 @@ public class ServerApplication extends Thread implements ServerInterface {
         int uid = message.getConnectionUID();
         Order clientOrder = (Order) message.getPayload();
 
-        Message reply = new Message(MessageType.STATUS, "In Basket");
-
-        for (Order order : orders) {
-            if (order.getUser().getName().equals(clientOrder.getUser().getName()) && order.getUserOrderNum() == clientOrder.getUserOrderNum()) {
-                reply = new Message(MessageType.STATUS, getOrderStatus(order));
-            }
-        }
+        //If the Server doesn't have the Order yet, it hasn't been checked out.
+        Order serverOrder = findOrder(clientOrder);
+        Message reply = new Message(MessageType.STATUS, getOrderStatus(serverOrder));
 
         communication.sendMessage(uid, reply);
     }
@@ -1067,15 +1189,14 @@ public class ServerApplication extends Thread implements ServerInterface {
     private void processGetOrderCost(Message message) {
         int uid = message.getConnectionUID();
         Order clientOrder = (Order) message.getPayload();
-        Order serverOrder = null;
+        Order serverOrder = findOrder(clientOrder);
 
-        for (Order order : orders) {
-            if (order.getUser().getName().equals(clientOrder.getUser().getName()) && clientOrder.getUserOrderNum() == order.getUserOrderNum()) {
-                serverOrder = order;
-            }
+        Message reply;
+        if (serverOrder != null) {
+            reply = new Message(MessageType.COST, serverOrder.orderPrice());
+        } else {
+            reply = new Message(MessageType.COST, clientOrder.orderPrice());
         }
-
-        Message reply = new Message(MessageType.COST, serverOrder.orderPrice());
         communication.sendMessage(uid, reply);
     }
 
@@ -1090,29 +1211,13 @@ public class ServerApplication extends Thread implements ServerInterface {
         User clientUser = (User) dishData.get(0);
         Dish clientDish = (Dish) dishData.get(1);
 
-        //We find instances of User and Dish that the server has (up to date)
-        User serverUser = null;
-        Dish serverDish = null;
-
-        for (User user : users) {
-            if (user.getName().equals(clientUser.getName())) {
-                serverUser = user;
-                break;
-            }
-        }
-
-        for (Dish dish : dishes) {
-            if (dish.getName().equals(clientDish.getName())) {
-                serverDish = dish;
-                break;
-            }
-        }
+        //We find the instance of the Dish that the server has (up to date)
+        Dish serverDish = findServerDish(clientDish);
 
-        //Finally, looks for the order belonging to the User and updates its quantity.
-        for (Order order : orders) {
-            if (order.getUser().equals(serverUser)) {
-                order.addDish(serverDish, (int) dishData.get(2));
-            }
+        //Finally, looks for the order belonging to the User that is still in their basket and updates its quantity.
+        Order basket = catalog.getBasket(clientUser.getName());
+        if (basket != null && serverDish != null) {
+            basket.addDish(serverDish, (int) dishData.get(2));
         }
 
         notifyUpdate();
@@ -1130,28 +1235,12 @@ public class ServerApplication extends Thread implements ServerInterface {
         User clientUser = (User) dishData.get(0);
         Dish clientDish = (Dish) dishData.get(1);
 
-        //We find instances of User and Dish that the server has (up to date)
-        User serverUser = null;
-        Dish serverDish = null;
-
-        for (User user : users) {
-            if (user.getName().equals(clientUser.getName())) {
-                serverUser = user;
-                break;
-            }
-        }
-
-        for (Dish dish : dishes) {
-            if (dish.getName().equals(clientDish.getName())) {
-                serverDish = dish;
-                break;
-            }
-        }
+        //We find the instance of the Dish that the server has (up to date)
+        Dish serverDish = findServerDish(clientDish);
 
-        for (Order order : orders) {
-            if (order.getUser().equals(serverUser)) {
-                order.updateDishQuantity(serverDish, (int) dishData.get(2));
-            }
+        Order basket = catalog.getBasket(clientUser.getName());
+        if (basket != null && serverDish != null) {
+            basket.updateDishQuantity(serverDish, (int) dishData.get(2));
         }
 
         notifyUpdate();
@@ -1163,34 +1252,55 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     private void processUserCheckout(Message message) {
         int uid = message.getConnectionUID();
-        Order order = (Order) message.getPayload();
-        Dish clientDish;
-        Dish serverDish = null;
+        Order clientOrder = (Order) message.getPayload();
+        User serverUser = catalog.getUser(clientOrder.getUser().getName());
+        if (serverUser == null) {
+            communication.sendMessage(uid, new Message(MessageType.ORDER, null));
+            return;
+        }
         HashMap<Dish, Number> serverOrderData = new HashMap<>();
 
         //Gets all items in the basket and replaces the Dish with the server-side instance of the dish.
-        for (Map.Entry<Dish, Number> orderData : order.getBasket().entrySet()) {
-            clientDish = orderData.getKey();
-            for (Dish dish : dishes) {
-                if (clientDish.getName().equals(dish.getName())) {
-                    serverDish = dish;
-                }
-            }
+        for (Map.Entry<Dish, Number> orderData : clientOrder.copyBasket().entrySet()) {
+            Dish serverDish = findServerDish(orderData.getKey());
             if (serverDish != null) {
                 serverOrderData.put(serverDish, orderData.getValue());
             }
         }
 
-        order.clear();
+        //The Server numbers the Order itself rather than trusting the Client's number, which could be one of the
+        //User's live Orders. Numbers are reserved under the User's lock so two checkouts can't be given the same one.
+        int orderNumber;
+        synchronized (serverUser) {
+            orderNumber = serverUser.getOrdersMade();
+            serverUser.setOrdersMade(orderNumber + 1);
+        }
+        Order order = new Order(serverUser, orderNumber);
         order.setBasket(serverOrderData);
 
+        //The order isn't shared with any other thread yet.
         order.setOrderState(Order.OrderState.PREPARING);
+        //Journaled before the order is shared, so its checkout comes before any of its changes of state. The order is
+        //only shared once the checkout is safely on disk, so if it can't be recorded nothing has to be undone.
+        if (!journal.awaitDurable(journal.orderCheckedOut(order))) {
+            communication.sendMessage(uid, new Message(MessageType.ORDER, null));
+            return;
+        }
+        //An Order's listeners can't be added once other threads may change it, so the catalog listens before the
+        //registry makes the Order visible to Staff and Drones.
+        if (!catalog.addOrder(order)) {
+            //The User already has an Order with this number, which must not be replaced
+            communication.sendMessage(uid, new Message(MessageType.ORDER, null));
+            return;
+        }
         orders.add(order);
-
+        //Let the kitchen know straight away, rather than waiting for Staff to next look through the orders.
+        stockManager.getKitchen().orderPlaced(order);
 
         Message reply = new Message(MessageType.ORDER, order);
         communication.sendMessage(uid, reply);
-        notifyClient();
+        //Only the Clients logged in as this User are affected by the new Order
+        publisher.orderChanged(order);
         notifyUpdate();
     }
 
@@ -1200,19 +1310,11 @@ public class ServerApplication extends Thread implements ServerInterface {
      */
     private void processBasketClear(Message message) {
         User clientUser = (User) message.getPayload();
-        User serverUser = null;
 
-        for (User user : users) {
-            if (user.getName().equals(clientUser.getName())) {
-                serverUser = user;
-            }
-        }
         //Look for the order belonging to this User that is still in the basket
-        for (Order order : orders) {
-            if (order.getUser().equals(serverUser) && order.getOrderState() == Order.OrderState.BASKET) {
-                order.clear();
-                break;
-            }
+        Order basket = catalog.getBasket(clientUser.getName());
+        if (basket != null) {
+            basket.clear();
         }
 
         notifyUpdate();
@@ -1225,12 +1327,42 @@ public class ServerApplication extends Thread implements ServerInterface {
     private void processOrderCancel(Message message) {
         Order clientOrder = (Order) message.getPayload();
 
-        for (Order order : orders) {
-            if (order.getUser().getName().equals(clientOrder.getUser().getName())) {
-                order.cancelOrder();
-                notifyUpdate();
-            }
+        Order serverOrder = catalog.getOrder(clientOrder.getUser().getName(), clientOrder.getUserOrderNum());
+        //Orders already out for delivery can't be cancelled.
+        if (serverOrder != null && serverOrder.cancelOrder()) {
+            notifyUpdate();
+        }
+    }
+
+    /**
+     * Finds the Server's copy of an Order sent by a Client, looking in the order archive if it is no longer on the Server.
+     * @param clientOrder : Order received from the Client
+     * @return Server's Order with the same User and order number, or null if the Order hasn't been checked out.
+     */
+    private Order findOrder(Order clientOrder) {
+        Order serverOrder = catalog.getOrder(clientOrder.getUser().getName(), clientOrder.getUserOrderNum());
+        OrderArchive currentArchive = archive;
+        if (serverOrder == null && currentArchive != null) {
+            serverOrder = currentArchive.getOrder(clientOrder.getUser(), clientOrder.getUserOrderNum());
         }
+        return serverOrder;
+    }
+
+    /**
+     * Finds the Server's instance of a Dish sent by a Client, which only contains the Dish's menu details.
+     * @param clientDish : Dish received from the Client
+     * @return Server's Dish with the same identifier, or null if the Dish no longer exists.
+     */
+    private Dish findServerDish(Dish clientDish) {
+        if (clientDish == null) {
+            return null;
+        }
+        Dish serverDish = catalog.getDish(clientDish.getID());
+        //Identifiers are reused after a new configuration is loaded, so make sure it's still the same Dish
+        if (serverDish != null && serverDish.getName().equals(clientDish.getName())) {
+            return serverDish;
+        }
+        return null;
     }
 
     /**
@@ -1251,14 +1383,4 @@ public class ServerApplication extends Thread implements ServerInterface {
             listener.updated(new UpdateEvent());
         }
     }
-
-    /**
-     * Sends a server message telling the Client to update. Called after a change on the server is made such as
-     * adding a new Dish to the restaurant.
-     */
-    private void notifyClient() {
-        if (communication != null) {
-            communication.sendMessage(new Message(MessageType.UPDATE));
-        }
-    }
 }
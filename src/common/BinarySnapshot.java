@@ -0,0 +1,414 @@
+package common;
+
+import exceptions.InvalidBackupException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary format for full backups, which is much faster to load than the text format and copes with names containing
+ * ':' or ','.
+ * Structure: [int]Magic, [byte]Version, [byte]Flags, then (GZIP compressed if the flag is set) a series of sections,
+ * each [byte]Type:[int]Length:[int]CRC32:[Length bytes]Contents, ending with an END section.
+ * Every section is read and its checksum checked before any of the backup is loaded, so a corrupt or cut off backup
+ * is rejected rather than half loaded.
+ * @author Oscar van Leusen
+ */
+public class BinarySnapshot {
+
+    //"SUSH" in ASCII, which a text Configuration file can't start with.
+    private static final int MAGIC = 0x53555348;
+    private static final byte VERSION = 1;
+    private static final byte FLAG_COMPRESSED = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //Bytes before the first section: magic, version and flags
+    private static final int HEADER_SIZE = 6;
+    //Bytes before each section's contents: type, length and CRC32
+    private static final int SECTION_HEADER_SIZE = 9;
+
+    private static final byte END = 0;
+    private static final byte SUPPLIERS = 1;
+    private static final byte INGREDIENTS = 2;
+    private static final byte DISHES = 3;
+    private static final byte POSTCODES = 4;
+    private static final byte USERS = 5;
+    private static final byte ORDERS = 6;
+    private static final byte STOCK = 7;
+    private static final byte STAFF = 8;
+    private static final byte DRONES = 9;
+
+    /**
+     * Checks whether a file is a binary backup, from its first bytes
+     * @param file : File to check
+     * @return : True if the file starts with the binary backup header
+     * @throws IOException : Thrown if the file can't be read
+     */
+    public static boolean isBinary(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a full snapshot in the binary format
+     * @param snapshot : Snapshot of the Server's whole state
+     * @param fileOut : Stream to write to
+     * @param compress : True to compress the sections
+     * @throws IOException : Thrown if the snapshot can't be written
+     */
+    public static void write(StateSnapshot snapshot, OutputStream fileOut, boolean compress) throws IOException {
+        DataOutputStream header = new DataOutputStream(fileOut);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? FLAG_COMPRESSED : 0);
+        header.flush();
+
+        GZIPOutputStream compressed = compress ? new GZIPOutputStream(fileOut, BUFFER_SIZE) : null;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(compress ? compressed : fileOut, BUFFER_SIZE));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream section = new DataOutputStream(bytes);
+
+        section.writeInt(snapshot.getSuppliers().size());
+        for (Supplier supplier : snapshot.getSuppliers()) {
+            section.writeUTF(supplier.getName());
+            section.writeInt(supplier.getDistance());
+        }
+        writeSection(out, SUPPLIERS, bytes);
+
+        section.writeInt(snapshot.getIngredients().size());
+        for (Ingredient ingredient : snapshot.getIngredients()) {
+            section.writeUTF(ingredient.getName());
+            section.writeUTF(ingredient.getUnit());
+            section.writeUTF(ingredient.getSupplier().getName());
+            section.writeLong(ingredient.getRestockThreshold());
+            section.writeLong(ingredient.getRestockAmount());
+        }
+        writeSection(out, INGREDIENTS, bytes);
+
+        section.writeInt(snapshot.getDishes().size());
+        for (Dish dish : snapshot.getDishes()) {
+            section.writeUTF(dish.getName());
+            section.writeUTF(dish.getDishDescription());
+            section.writeDouble(dish.dishPrice());
+            section.writeLong(dish.getRestockThreshold());
+            section.writeLong(dish.getRestockAmount());
+            Map<Ingredient, Number> recipe = dish.getRecipe();
+            section.writeInt(recipe.size());
+            for (Map.Entry<Ingredient, Number> dishIngredient : recipe.entrySet()) {
+                section.writeUTF(dishIngredient.getKey().getName());
+                section.writeLong(dishIngredient.getValue().longValue());
+            }
+        }
+        writeSection(out, DISHES, bytes);
+
+        section.writeInt(snapshot.getPostcodes().size());
+        for (Postcode postcode : snapshot.getPostcodes()) {
+            section.writeUTF(postcode.getName());
+            section.writeLong(postcode.getDistance());
+        }
+        writeSection(out, POSTCODES, bytes);
+
+        section.writeInt(snapshot.getUsers().size());
+        for (User user : snapshot.getUsers()) {
+            section.writeUTF(user.getName());
+            section.writeUTF(user.getPassword());
+            section.writeUTF(user.getAddress());
+            section.writeUTF(user.getPostcode().getName());
+        }
+        writeSection(out, USERS, bytes);
+
+        section.writeInt(snapshot.getOrders().size());
+        for (StateSnapshot.OrderRecord order : snapshot.getOrders()) {
+            section.writeUTF(order.getUser().getName());
+            section.writeInt(order.getOrderNumber());
+            section.writeByte(order.getState().ordinal());
+            section.writeInt(order.getBasket().size());
+            for (Map.Entry<Dish, Number> dishQuantity : order.getBasket().entrySet()) {
+                section.writeUTF(dishQuantity.getKey().getName());
+                section.writeInt(dishQuantity.getValue().intValue());
+            }
+        }
+        writeSection(out, ORDERS, bytes);
+
+        section.writeInt(snapshot.getStock().size());
+        for (StateSnapshot.StockRecord stock : snapshot.getStock()) {
+            section.writeUTF(stock.getName());
+            section.writeLong(stock.getStock());
+        }
+        writeSection(out, STOCK, bytes);
+
+        section.writeInt(snapshot.getStaff().size());
+        for (Staff staff : snapshot.getStaff()) {
+            section.writeUTF(staff.getName());
+        }
+        writeSection(out, STAFF, bytes);
+
+        section.writeInt(snapshot.getDrones().size());
+        for (Drone drone : snapshot.getDrones()) {
+            section.writeInt(drone.getSpeed());
+        }
+        writeSection(out, DRONES, bytes);
+
+        writeSection(out, END, bytes);
+        out.flush();
+        //Writes the end of the compressed data, leaving the file open for the caller to sync.
+        if (compressed != null) {
+            compressed.finish();
+        }
+    }
+
+    /**
+     * Writes a section, with its length and checksum, then empties the buffer it was built in.
+     * @param out : Stream to write to
+     * @param type : Type of section
+     * @param bytes : Contents of the section
+     * @throws IOException : Thrown if the section can't be written
+     */
+    private static void writeSection(DataOutputStream out, byte type, ByteArrayOutputStream bytes) throws IOException {
+        byte[] contents = bytes.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(contents, 0, contents.length);
+        out.writeByte(type);
+        out.writeInt(contents.length);
+        out.writeInt((int) checksum.getValue());
+        out.write(contents);
+        bytes.reset();
+    }
+
+    /**
+     * Loads a binary backup on to the Server. The whole backup is read and checked first, so nothing is loaded from a
+     * backup that turns out to be corrupt.
+     * @param file : Binary backup
+     * @param server : Server to load the backup on to
+     * @throws IOException : Thrown if the backup can't be read
+     * @throws InvalidBackupException : Thrown if the backup is corrupt, cut off or refers to something that isn't in it
+     */
+    public static void load(File file, Server server) throws IOException, InvalidBackupException {
+        Map<Byte, byte[]> sections = readSections(file);
+
+        //Everything is looked up by name as it is loaded, rather than searching the Server's lists each time.
+        Map<String, Supplier> suppliers = new HashMap<>();
+        Map<String, Ingredient> ingredients = new HashMap<>();
+        Map<String, Dish> dishes = new HashMap<>();
+        Map<String, Postcode> postcodes = new HashMap<>();
+        Map<String, User> users = new HashMap<>();
+
+        DataInputStream in = section(sections, SUPPLIERS);
+        for (int i = in.readInt(); i > 0; i--) {
+            Supplier supplier = server.addSupplier(in.readUTF(), in.readInt());
+            suppliers.put(supplier.getName(), supplier);
+        }
+
+        in = section(sections, INGREDIENTS);
+        for (int i = in.readInt(); i > 0; i--) {
+            String name = in.readUTF();
+            String unit = in.readUTF();
+            Supplier supplier = lookUp(suppliers, in.readUTF(), "supplier");
+            Ingredient ingredient = server.addIngredient(name, unit, supplier, in.readLong(), in.readLong());
+            ingredients.put(ingredient.getName(), ingredient);
+        }
+
+        in = section(sections, DISHES);
+        for (int i = in.readInt(); i > 0; i--) {
+            Dish dish = server.addDish(in.readUTF(), in.readUTF(), in.readDouble(), in.readLong(), in.readLong());
+            for (int j = in.readInt(); j > 0; j--) {
+                server.addIngredientToDish(dish, lookUp(ingredients, in.readUTF(), "ingredient"), in.readLong());
+            }
+            dishes.put(dish.getName(), dish);
+        }
+
+        in = section(sections, POSTCODES);
+        for (int i = in.readInt(); i > 0; i--) {
+            server.addPostcode(in.readUTF(), in.readLong());
+        }
+        for (Postcode postcode : server.getPostcodes()) {
+            postcodes.put(postcode.getName(), postcode);
+        }
+
+        in = section(sections, USERS);
+        List<User> newUsers = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            String name = in.readUTF();
+            String password = in.readUTF();
+            String address = in.readUTF();
+            newUsers.add(new User(name, password, address, lookUp(postcodes, in.readUTF(), "postcode")));
+        }
+        for (User user : server.addUsers(newUsers)) {
+            users.put(user.getName(), user);
+        }
+
+        in = section(sections, ORDERS);
+        Order.OrderState[] states = Order.OrderState.values();
+        List<Order> orders = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            User user = lookUp(users, in.readUTF(), "user");
+            int orderNumber = in.readInt();
+            int state = in.readUnsignedByte();
+            if (state >= states.length) {
+                throw new InvalidBackupException("Unknown order state " + state + " in backup " + file.getName());
+            }
+            HashMap<Dish, Number> basket = new HashMap<>();
+            for (int j = in.readInt(); j > 0; j--) {
+                Dish dish = dishes.get(in.readUTF());
+                int quantity = in.readInt();
+                //Dishes removed from the menu while the backup was being taken are left out.
+                if (dish != null) {
+                    basket.put(dish, quantity);
+                }
+            }
+            Order order = new Order(user, orderNumber);
+            order.setBasket(basket);
+            order.setOrderState(states[state]);
+            if (user.getOrdersMade() <= orderNumber) {
+                user.setOrdersMade(orderNumber + 1);
+            }
+            orders.add(order);
+        }
+        server.addOrders(orders);
+
+        in = section(sections, STOCK);
+        Map<String, StockItem> stock = new HashMap<>();
+        for (StockItem item : server.getStock()) {
+            stock.put(item.getStockedItem().getName(), item);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            StockItem item = stock.get(in.readUTF());
+            long level = in.readLong();
+            if (item != null) {
+                item.setStock(level);
+            }
+        }
+
+        in = section(sections, STAFF);
+        for (int i = in.readInt(); i > 0; i--) {
+            server.addStaff(in.readUTF());
+        }
+
+        in = section(sections, DRONES);
+        for (int i = in.readInt(); i > 0; i--) {
+            server.addDrone(in.readInt());
+        }
+    }
+
+    /**
+     * Reads every section of a binary backup, checking each one's checksum
+     * @param file : Binary backup
+     * @return : Contents of each section, by type
+     * @throws IOException : Thrown if the backup can't be read
+     * @throws InvalidBackupException : Thrown if the header is wrong, a checksum doesn't match or the backup is cut off
+     */
+    private static Map<Byte, byte[]> readSections(File file) throws IOException, InvalidBackupException {
+        Map<Byte, byte[]> sections = new HashMap<>();
+        try (InputStream fileIn = new FileInputStream(file)) {
+            DataInputStream header = new DataInputStream(fileIn);
+            if (header.readInt() != MAGIC || header.readByte() != VERSION) {
+                throw new InvalidBackupException("Not a binary backup, or written by a newer version: " + file.getName());
+            }
+            boolean compressed = (header.readByte() & FLAG_COMPRESSED) != 0;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(compressed ? new GZIPInputStream(fileIn, BUFFER_SIZE) : fileIn, BUFFER_SIZE));
+            CRC32 checksum = new CRC32();
+            long remaining = file.length() - HEADER_SIZE;
+            while (true) {
+                byte type = in.readByte();
+                int length = in.readInt();
+                int expectedCrc = in.readInt();
+                remaining -= SECTION_HEADER_SIZE;
+                //The length can't be checked by the checksum, so it is checked against what is left of the file before
+                //anything is allocated for it.
+                if (length < 0 || (!compressed && length > remaining)) {
+                    throw new InvalidBackupException("Corrupt section length in backup " + file.getName());
+                }
+                byte[] contents = readContents(in, length);
+                remaining -= length;
+                checksum.reset();
+                checksum.update(contents, 0, length);
+                if ((int) checksum.getValue() != expectedCrc) {
+                    throw new InvalidBackupException("Checksum of section " + type + " doesn't match in backup " + file.getName());
+                }
+                if (type == END) {
+                    //Reading to the end also checks the GZIP trailer of a compressed backup.
+                    if (in.read() != -1) {
+                        throw new InvalidBackupException("Unexpected data after the end of backup " + file.getName());
+                    }
+                    return sections;
+                }
+                sections.put(type, contents);
+            }
+        } catch (EOFException e) {
+            throw new InvalidBackupException("Backup " + file.getName() + " is cut off part way through");
+        }
+    }
+
+    /**
+     * Reads a section's contents a buffer at a time. The size of a compressed backup says little about how much it holds,
+     * so a corrupt length runs into the end of the data rather than being allocated all at once.
+     * @param in : Stream positioned at the section's contents
+     * @param length : Length of the contents from the section header
+     * @return : Contents of the section
+     * @throws IOException : Thrown if the backup ends before the contents do
+     */
+    private static byte[] readContents(DataInputStream in, int length) throws IOException {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream(Math.min(length, BUFFER_SIZE));
+        byte[] buffer = new byte[Math.min(length, BUFFER_SIZE)];
+        int left = length;
+        while (left > 0) {
+            int read = in.read(buffer, 0, Math.min(left, buffer.length));
+            if (read == -1) {
+                throw new EOFException();
+            }
+            contents.write(buffer, 0, read);
+            left -= read;
+        }
+        return contents.toByteArray();
+    }
+
+    /**
+     * Gets a section to read from
+     * @param sections : Sections of the backup
+     * @param type : Type of section
+     * @return : Stream of the section's contents
+     * @throws InvalidBackupException : Thrown if the backup doesn't have the section
+     */
+    private static DataInputStream section(Map<Byte, byte[]> sections, byte type) throws InvalidBackupException {
+        byte[] contents = sections.get(type);
+        if (contents == null) {
+            throw new InvalidBackupException("Backup is missing section " + type);
+        }
+        return new DataInputStream(new ByteArrayInputStream(contents));
+    }
+
+    /**
+     * Finds something the backup refers to by name
+     * @param loaded : Objects loaded so far, by name
+     * @param name : Name to look up
+     * @param kind : What is being looked up, for the error message
+     * @return : Object with that name
+     * @throws InvalidBackupException : Thrown if nothing with that name has been loaded
+     */
+    private static <T> T lookUp(Map<String, T> loaded, String name, String kind) throws InvalidBackupException {
+        T found = loaded.get(name);
+        if (found == null) {
+            throw new InvalidBackupException("Backup refers to " + kind + " " + name + " which it doesn't contain");
+        }
+        return found;
+    }
+}
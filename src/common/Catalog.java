@@ -0,0 +1,173 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Indexes of the Server's Users, Dishes and Orders, so that requests from Clients can find the Server's instance of
+ * an object with a hash lookup rather than scanning every list. Must be updated on every add and remove.
+ * Listens to each Order it holds so that the index of open baskets follows the Order's state.
+ * @author Oscar van Leusen
+ */
+public class Catalog implements UpdateListener {
+
+    private final ConcurrentHashMap<String, User> usersByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Dish> dishesByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Dish> dishesByID = new ConcurrentHashMap<>();
+    //Each user's orders, keyed by the user's order number (sorted so orders are returned in the order they were made)
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, Order>> ordersByUser = new ConcurrentHashMap<>();
+    //The order still in the BASKET state for each user, if they have one
+    private final ConcurrentHashMap<String, Order> basketsByUser = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a User to the index, unless a User with the same name already exists.
+     * @param user : User to add
+     * @return True if the User was added, False if the username is already taken.
+     */
+    public boolean addUser(User user) {
+        return usersByName.putIfAbsent(user.getName(), user) == null;
+    }
+
+    /**
+     * Removes a User from the index
+     * @param user : User to remove
+     */
+    public void removeUser(User user) {
+        usersByName.remove(user.getName(), user);
+    }
+
+    /**
+     * Finds a User by username
+     * @param username : Username to look up
+     * @return User with this name, or null if there is none.
+     */
+    public User getUser(String username) {
+        return usersByName.get(username);
+    }
+
+    /**
+     * Adds a Dish to the index
+     * @param dish : Dish to add
+     */
+    public void addDish(Dish dish) {
+        dishesByName.put(dish.getName(), dish);
+        dishesByID.put(dish.getID(), dish);
+    }
+
+    /**
+     * Removes a Dish from the index
+     * @param dish : Dish to remove
+     */
+    public void removeDish(Dish dish) {
+        dishesByName.remove(dish.getName(), dish);
+        dishesByID.remove(dish.getID(), dish);
+    }
+
+    /**
+     * Finds a Dish by name
+     * @param name : Name of the Dish
+     * @return Dish with this name, or null if there is none.
+     */
+    public Dish getDish(String name) {
+        return dishesByName.get(name);
+    }
+
+    /**
+     * Finds a Dish by the identifier the Server gave it
+     * @param dishID : Identifier of the Dish
+     * @return Dish with this identifier, or null if there is none.
+     */
+    public Dish getDish(int dishID) {
+        return dishesByID.get(dishID);
+    }
+
+    /**
+     * Adds an Order to the index, and starts following its state in case it is a basket.
+     * @param order : Order to add
+     * @return : True if the Order was added, False if its User already has an Order with the same number.
+     */
+    public boolean addOrder(Order order) {
+        String username = order.getUser().getName();
+        if (ordersByUser.computeIfAbsent(username, name -> new ConcurrentSkipListMap<>()).putIfAbsent(order.getUserOrderNum(), order) != null) {
+            return false;
+        }
+        if (order.getOrderState() == Order.OrderState.BASKET) {
+            basketsByUser.put(username, order);
+        }
+        order.addUpdateListener(this);
+        return true;
+    }
+
+    /**
+     * Removes an Order from the index
+     * @param order : Order to remove
+     */
+    public void removeOrder(Order order) {
+        String username = order.getUser().getName();
+        ConcurrentSkipListMap<Integer, Order> userOrders = ordersByUser.get(username);
+        if (userOrders != null) {
+            userOrders.remove(order.getUserOrderNum(), order);
+        }
+        basketsByUser.remove(username, order);
+    }
+
+    /**
+     * Finds an Order by the user who made it and their order number
+     * @param username : Name of the User who made the order
+     * @param userOrderNum : The User's order number
+     * @return Order, or null if there is none.
+     */
+    public Order getOrder(String username, int userOrderNum) {
+        ConcurrentSkipListMap<Integer, Order> userOrders = ordersByUser.get(username);
+        return userOrders == null ? null : userOrders.get(userOrderNum);
+    }
+
+    /**
+     * Gets every Order made by a User, in the order they were made.
+     * @param username : Name of the User
+     * @return List of the User's Orders (empty if they have none)
+     */
+    public List<Order> getOrders(String username) {
+        ConcurrentSkipListMap<Integer, Order> userOrders = ordersByUser.get(username);
+        return userOrders == null ? new ArrayList<>() : new ArrayList<>(userOrders.values());
+    }
+
+    /**
+     * Finds the Order a User has that is still in their basket
+     * @param username : Name of the User
+     * @return Order in the BASKET state, or null if the User has no open basket.
+     */
+    public Order getBasket(String username) {
+        return basketsByUser.get(username);
+    }
+
+    /**
+     * Empties every index, used when a new Configuration is loaded.
+     */
+    public void clear() {
+        usersByName.clear();
+        dishesByName.clear();
+        dishesByID.clear();
+        ordersByUser.clear();
+        basketsByUser.clear();
+    }
+
+    /**
+     * Keeps the basket index up to date when an Order moves in to or out of the BASKET state.
+     * @param updateEvent information on the update
+     */
+    @Override
+    public void updated(UpdateEvent updateEvent) {
+        if (updateEvent.model instanceof Order && "state".equals(updateEvent.property)) {
+            Order order = (Order) updateEvent.model;
+            String username = order.getUser().getName();
+            if (updateEvent.newValue == Order.OrderState.BASKET) {
+                basketsByUser.put(username, order);
+            } else {
+                basketsByUser.remove(username, order);
+            }
+        }
+    }
+}
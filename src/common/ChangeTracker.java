@@ -0,0 +1,149 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which Users, Orders and stock levels have changed since the last backup, so DataPersistence can write
+ * only those rather than the whole restaurant each time.
+ * Orders are marked from their update notifications (passed on by the OrderRegistry), stock from the StockManager and
+ * Users as they register. Anything else that changes the restaurant's structure, such as removing a User, means only a
+ * full backup will do.
+ * @author Oscar van Leusen
+ */
+public class ChangeTracker implements UpdateListener {
+
+    private final OrderRegistry orders;
+    private final Set<User> addedUsers = ConcurrentHashMap.newKeySet();
+    private final Set<Order> changedOrders = ConcurrentHashMap.newKeySet();
+    private final Set<Order> removedOrders = ConcurrentHashMap.newKeySet();
+    private final Set<StockItem> changedStock = ConcurrentHashMap.newKeySet();
+    private volatile boolean structureChanged = false;
+
+    public ChangeTracker(OrderRegistry orders) {
+        this.orders = orders;
+    }
+
+    /**
+     * Marks a User as added
+     * @param user : New User
+     */
+    public void userAdded(User user) {
+        addedUsers.add(user);
+    }
+
+    /**
+     * Marks an Order as added or changed
+     * @param order : Order that changed
+     */
+    public void orderChanged(Order order) {
+        changedOrders.add(order);
+    }
+
+    /**
+     * Marks an Order as removed from the Server
+     * @param order : Order that was removed
+     */
+    public void orderRemoved(Order order) {
+        removedOrders.add(order);
+    }
+
+    /**
+     * Marks a StockItem's stock as changed
+     * @param item : StockItem that changed
+     */
+    public void stockChanged(StockItem item) {
+        changedStock.add(item);
+    }
+
+    /**
+     * Marks that something has changed which a partial backup can't record, so the next backup must be a full one.
+     */
+    public void structureChanged() {
+        structureChanged = true;
+    }
+
+    /**
+     * Returns whether the next backup must be a full one
+     * @return : True if something has changed that only a full backup records
+     */
+    public boolean isStructureChanged() {
+        return structureChanged;
+    }
+
+    /**
+     * Forgets every change, called once everything has been written to a full backup.
+     */
+    void clear() {
+        structureChanged = false;
+        addedUsers.clear();
+        changedOrders.clear();
+        removedOrders.clear();
+        changedStock.clear();
+    }
+
+    /**
+     * Takes the Users added since the changes were last taken.
+     * Each is removed before it is returned, so one marked again while the backup is being taken is kept for the next.
+     * @return : List of added Users
+     */
+    List<User> takeAddedUsers() {
+        return take(addedUsers);
+    }
+
+    /**
+     * Takes the Orders changed since the changes were last taken. Orders that have since been removed are left out, so
+     * a late update can't bring back an Order that a backup has already recorded as removed.
+     * @return : List of changed Orders
+     */
+    List<Order> takeChangedOrders() {
+        List<Order> changed = take(changedOrders);
+        changed.removeIf(order -> !orders.contains(order));
+        return changed;
+    }
+
+    /**
+     * Takes the Orders removed since the changes were last taken
+     * @return : List of removed Orders
+     */
+    List<Order> takeRemovedOrders() {
+        return take(removedOrders);
+    }
+
+    /**
+     * Takes the StockItems changed since the changes were last taken
+     * @return : List of changed StockItems
+     */
+    List<StockItem> takeChangedStock() {
+        return take(changedStock);
+    }
+
+    /**
+     * Empties a set of changes into a list
+     * @param changes : Set of changed objects
+     * @return : List of the objects that were in the set
+     */
+    private static <T> List<T> take(Set<T> changes) {
+        List<T> taken = new ArrayList<>();
+        Iterator<T> iterator = changes.iterator();
+        while (iterator.hasNext()) {
+            taken.add(iterator.next());
+            iterator.remove();
+        }
+        return taken;
+    }
+
+    /**
+     * Marks an Order as changed whenever it notifies an update.
+     * @param updateEvent information on the update
+     */
+    @Override
+    public void updated(UpdateEvent updateEvent) {
+        if (updateEvent.model instanceof Order) {
+            orderChanged((Order) updateEvent.model);
+        }
+    }
+}
@@ -2,26 +2,68 @@ package common;
 
 import exceptions.*;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
+ * Loads a Configuration file, or a backup, on to the Server.
+ * The file is read once, sorting each line by its record type, and everything a line refers to by name is looked up
+ * in the objects loaded so far rather than by searching the Server's lists.
+ * Record types are loaded in stages, each only referring to those loaded before it (Suppliers, Ingredients, Dishes,
+ * Postcodes, Users, Orders, then stock). Within a stage the lines don't depend on each other, so large stages are
+ * parsed in parallel and only then added to the Server, in file order.
+ * Large files are memory-mapped rather than read into memory, see MappedConfigurationFile.
  * @author Oscar van Leusen
  */
 public class Configuration {
+    //Separates the quantity from the name in "Quantity * Item"
+    private static final Pattern QUANTITY_SEPARATOR = Pattern.compile("\\s\\*\\s");
+    //Stages with fewer lines than this are parsed on the loading thread, as splitting them up would cost more than it saves
+    private static final int PARALLEL_THRESHOLD = 1000;
+    //Most lines parsed at once, so only this many lines' fields are held in memory at a time
+    private static final int CHUNK_SIZE = 64 * 1024;
+    //Files at least this large are memory-mapped rather than read into memory
+    private static final long MAPPED_THRESHOLD = 64L * 1024 * 1024;
+
     private Server server;
     private String fileName;
+    private boolean memoryMapped = false;
+    private final Map<String, Supplier> suppliersByName = new HashMap<>();
+    private final Map<String, Ingredient> ingredientsByName = new HashMap<>();
+    private final Map<String, Dish> dishesByName = new HashMap<>();
+    private final Map<String, Postcode> postcodesByName = new HashMap<>();
+    private final Map<String, User> usersByName = new HashMap<>();
 
     public Configuration(Server server, String fileName) {
         this.fileName = fileName;
         this.server = server;
     }
 
+    /**
+     * Sets whether the file is memory-mapped however small it is. Files over 64MB are always memory-mapped.
+     * @param memoryMapped : True to memory-map the file
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
     /**
      * Parses contents of the configuration file and calls relevant methods to instantiate objects.
      * @throws FileNotFoundException One of the exceptions that can be thrown when loading from Config.
@@ -31,127 +73,196 @@ public class Configuration {
      * @throws InvalidPostcodeException One of the exceptions that can be thrown when loading from Config.
      * @throws InvalidUserException One of the exceptions that can be thrown when loading from Config.
      * @throws InvalidDishException One of the exceptions that can be thrown when loading from Config.
+     * @throws InvalidBackupException Thrown if the file is a binary backup that is corrupt.
      */
-    public void loadConfiguration() throws FileNotFoundException, InvalidSupplierException, InvalidStockItemException, InvalidIngredientException, InvalidPostcodeException, InvalidUserException, InvalidDishException {
-        List<String> allLines;
-        List<String> supplierLines;
-        List<String> ingredientLines;
-        List<String> dishLines;
-        List<String> postcodeLines;
-        List<String> userLines;
-        List<String> orderLines;
-        List<String> stockLines;
-        List<String> staffLines;
-        List<String> droneLines;
-        try (Stream<String> fileStream = Files.lines(Paths.get(this.fileName))) {
-            allLines = fileStream.collect(Collectors.toList());
-            supplierLines = allLines.stream()
-                    .filter(line -> line.startsWith("SUPPLIER:"))
-                    .collect(Collectors.toList());
-            ingredientLines = allLines.stream()
-                    .filter(line -> line.startsWith("INGREDIENT:"))
-                    .collect(Collectors.toList());
-            dishLines = allLines.stream()
-                    .filter(line -> line.startsWith("DISH:"))
-                    .collect(Collectors.toList());
-            postcodeLines = allLines.stream()
-                    .filter(line -> line.startsWith("POSTCODE:"))
-                    .collect(Collectors.toList());
-            userLines = allLines.stream()
-                    .filter(line -> line.startsWith("USER:"))
-                    .collect(Collectors.toList());
-            orderLines = allLines.stream()
-                    .filter(line -> line.startsWith("ORDER:"))
-                    .collect(Collectors.toList());
-            stockLines = allLines.stream()
-                    .filter(line -> line.startsWith("STOCK:"))
-                    .collect(Collectors.toList());
-            staffLines = allLines.stream()
-                    .filter(line -> line.startsWith("STAFF:"))
-                    .collect(Collectors.toList());
-            droneLines = allLines.stream()
-                    .filter(line -> line.startsWith("DRONE:"))
-                    .collect(Collectors.toList());
+    public void loadConfiguration() throws FileNotFoundException, InvalidSupplierException, InvalidStockItemException, InvalidIngredientException, InvalidPostcodeException, InvalidUserException, InvalidDishException, InvalidBackupException {
+        File file = new File(this.fileName);
+        RecordSource records;
+        try {
+            //Binary backups are recognised by their header, anything else is read as text.
+            if (BinarySnapshot.isBinary(file)) {
+                BinarySnapshot.load(file, server);
+                return;
+            }
+            if (memoryMapped || file.length() >= MAPPED_THRESHOLD) {
+                records = MappedConfigurationFile.open(file);
+            } else {
+                records = readLines(file);
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(this.fileName);
         } catch (IOException e) {
             e.printStackTrace();
             throw new FileNotFoundException();
         }
 
-        loadSuppliers(supplierLines);
-        loadIngredients(ingredientLines);
-        loadDishes(dishLines);
-        loadPostcodes(postcodeLines);
-        loadUsers(userLines);
-        loadOrders(orderLines);
-        loadStock(stockLines);
-        loadStaff(staffLines);
-        loadDrones(droneLines);
+        loadSuppliers(records);
+        loadIngredients(records);
+        loadDishes(records);
+        loadPostcodes(records);
+        loadUsers(records);
+        loadOrders(records);
+        loadStock(records);
+        loadStaff(records);
+        loadDrones(records);
+    }
+
+    /**
+     * Reads the file into memory, sorting every line by its record type in one pass through the file
+     * @param file : Configuration file
+     * @return : Lines of the file, by record type
+     * @throws IOException : Thrown if the file can't be read
+     */
+    private static RecordSource readLines(File file) throws IOException {
+        Map<RecordType, List<String>> lines = new EnumMap<>(RecordType.class);
+        for (RecordType type : RecordType.values()) {
+            lines.put(type, new ArrayList<>());
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(':');
+                if (separator < 0) {
+                    continue;
+                }
+                RecordType type = RecordType.of(line.substring(0, separator));
+                if (type != null) {
+                    lines.get(type).add(line);
+                }
+            }
+        }
+        return new RecordSource() {
+            @Override
+            public int count(RecordType type) {
+                return lines.get(type).size();
+            }
+
+            @Override
+            public Line line(RecordType type, int index) {
+                return new SplitLine(lines.get(type).get(index).split(":", -1));
+            }
+        };
+    }
+
+    /**
+     * Runs a task on every item of a list, on the common fork/join pool if the list is long enough to be worth splitting
+     * up. The results are in the same order as the items, so whatever is done with them afterwards happens in file order.
+     * Tasks may only read what earlier stages have loaded, never change the Server.
+     * @param items : Lines, or partly parsed lines, to work on
+     * @param task : Task to run on each item
+     * @return : List of the results, in the same order as the items
+     */
+    private static <S, T> List<T> inParallel(List<S> items, Function<S, T> task) {
+        Stream<S> stream = items.size() < PARALLEL_THRESHOLD ? items.stream() : items.parallelStream();
+        return stream.map(task).collect(Collectors.toList());
+    }
+
+    /**
+     * Gets every record of a type, split into its fields
+     * @param records : Lines of the file
+     * @param type : Type of record
+     * @return : Each record's line, in file order
+     */
+    private static Iterable<Line> records(RecordSource records, RecordType type) {
+        return records(records, type, line -> line);
+    }
+
+    /**
+     * Gets every record of a type, parsed by the given parser. Records are split and parsed a chunk at a time (in
+     * parallel, if the chunk is large enough), so only one chunk's fields are held in memory at once.
+     * @param records : Lines of the file
+     * @param type : Type of record
+     * @param parser : Parser run on each record's fields, which may only read what earlier stages have loaded
+     * @return : Parsed records, in file order
+     */
+    private static <T> Iterable<T> records(RecordSource records, RecordType type, Function<Line, T> parser) {
+        int count = records.count(type);
+        return () -> new Iterator<T>() {
+            private int parsed = 0;
+            private List<T> chunk = Collections.emptyList();
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < chunk.size() || parsed < count;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (position == chunk.size()) {
+                    int start = parsed;
+                    int end = Math.min(start + CHUNK_SIZE, count);
+                    IntStream indexes = IntStream.range(start, end);
+                    if (end - start >= PARALLEL_THRESHOLD) {
+                        indexes = indexes.parallel();
+                    }
+                    chunk = indexes.mapToObj(index -> parser.apply(records.line(type, index))).collect(Collectors.toList());
+                    parsed = end;
+                    position = 0;
+                }
+                return chunk.get(position++);
+            }
+        };
     }
 
     /**
      * Instantiates all Suppliers from the text representation of suppliers from the config file.
-     * @param supplierLines : List containing non-parsed lines of supplier information.
+     * @param records : Lines of the config file.
      */
-    private void loadSuppliers(List<String> supplierLines) {
+    private void loadSuppliers(RecordSource records) {
         //Adds all suppliers in the Configuration structure to our Suppliers List
-        for (String line : supplierLines) {
+        for (Line lineParse : records(records, RecordType.SUPPLIER)) {
             //Structure: [0]SUPPLIER:[1]Name:[2]Distance
-            String[] lineParse = line.split(":");
-            server.addSupplier(lineParse[1], Integer.parseInt(lineParse[2]));
+            Supplier supplier = server.addSupplier(lineParse.field(1), lineParse.intNumber(2));
+            suppliersByName.put(supplier.getName(), supplier);
         }
     }
 
     /**
      * Instantiates all Ingredients and their Stock data from the text representation of Ingredients from the Config file
-     * @param ingredientLines : List containing non-parsed lines of Ingredient information.
+     * @param records : Lines of the config file.
      */
-    private void loadIngredients(List<String> ingredientLines) throws InvalidSupplierException {
+    private void loadIngredients(RecordSource records) throws InvalidSupplierException {
         //Adds all ingredients in the Configuration structure to our Suppliers array
-        for (String line : ingredientLines) {
+        for (Line lineParse : records(records, RecordType.INGREDIENT)) {
             //Structure: [0]INGREDIENT:[1]Name:[2]Unit:[3]Supplier:[4]Restock Threshold:[5]Restock Amount
-            String[] lineParse = line.split(":");
-            Supplier ingredientSupplier = null;
-            //Finds supplier matching given name
-            for (Supplier supplier : server.getSuppliers()) {
-                if (supplier.getName().equals(lineParse[3])) {
-                    ingredientSupplier = supplier;
-                }
-            }
+            Supplier ingredientSupplier = suppliersByName.get(lineParse.field(3));
             if (ingredientSupplier == null) {
                 throw new InvalidSupplierException("Non-valid supplier entered for ingredient when reading Configuration file");
             }
-            server.addIngredient(lineParse[1], lineParse[2], ingredientSupplier, Long.parseLong(lineParse[4]), Long.parseLong(lineParse[5]));
+            Ingredient ingredient = server.addIngredient(lineParse.field(1), lineParse.field(2), ingredientSupplier, lineParse.number(4), lineParse.number(5));
+            ingredientsByName.put(ingredient.getName(), ingredient);
         }
     }
 
     /**
      * Instantiates all Dishes from the text representation of Dishes in the config file.
-     * @param dishLines : List containing non-parsed lines of dish information.
+     * @param records : Lines of the config file.
      */
-    private void loadDishes(List<String> dishLines) throws InvalidIngredientException {
+    private void loadDishes(RecordSource records) throws InvalidIngredientException {
 
-        for (String line : dishLines) {
+        for (Line lineParse : records(records, RecordType.DISH)) {
             //Structure: [0]DISH:[1]Name:[2]Description:[3]Price:[4]Restock Threshold:[5]Restock Amount:[6]Quantity * Item,Quantity * Item...
-            String[] lineParse = line.split(":");
             //First creates the dish with no ingredients
-            Dish newDish = server.addDish(lineParse[1], lineParse[2], Long.parseLong(lineParse[3]), Integer.parseInt(lineParse[4]), Integer.parseInt(lineParse[5]));
+            Dish newDish = server.addDish(lineParse.field(1), lineParse.field(2), lineParse.number(3), lineParse.intNumber(4), lineParse.intNumber(5));
+            dishesByName.put(newDish.getName(), newDish);
 
             //Parse each Ingredient (separated by a comma and a space). [0]ingredient 1, [1]ingredient 2, ...
-            String[] ingredientParse = lineParse[6].split(",");
+            String[] ingredientParse = lineParse.field(6).split(",");
 
             //Iterates through each ingredient in the dish to add it.
             for (String ingredientData : ingredientParse) {
                 //Parses Ingredients into structure: [0]Quantity,[1]Name
-                String[] currentIngredient = ingredientData.split("\\s\\*\\s");
+                String[] currentIngredient = QUANTITY_SEPARATOR.split(ingredientData);
                 //Looks for an existing ingredient matching the name of the ingredient to add
-                Ingredient dishIngredient = null;
-                for (Ingredient ingredient : server.getIngredients()) {
-                    if (ingredient.getName().equals(currentIngredient[1])) {
-                        dishIngredient = ingredient;
-                    }
-                }
+                Ingredient dishIngredient = ingredientsByName.get(currentIngredient[1]);
                 if (dishIngredient == null) {
-                    throw new InvalidIngredientException("Non-valid ingredient: " + currentIngredient[1] + " entered for dish: " + lineParse[1] + " when reading Configuration file.");
+                    throw new InvalidIngredientException("Non-valid ingredient: " + currentIngredient[1] + " entered for dish: " + lineParse.field(1) + " when reading Configuration file.");
                 }
                 server.addIngredientToDish(newDish, dishIngredient, Float.parseFloat(currentIngredient[0]));
             }
@@ -160,147 +271,160 @@ public class Configuration {
 
     /**
      * Instantiates all valid Postcodes from the text representation of Postcode in the config file.
-     * @param postcodeLines : List containing non-parsed lines of postcode information.
+     * @param records : Lines of the config file.
      */
-    private void loadPostcodes(List<String> postcodeLines) {
-        for (String line : postcodeLines) {
+    private void loadPostcodes(RecordSource records) {
+        for (Line lineParse : records(records, RecordType.POSTCODE)) {
             //Structure: [1]POSTCODE:[1]Postcode:[2]Distance
-            String[] lineParse = line.split(":");
-            server.addPostcode(lineParse[1], Long.parseLong(lineParse[2]));
+            server.addPostcode(lineParse.field(1), lineParse.number(2));
+        }
+        //Where two Postcodes share a name, Users are given the first
+        for (Postcode postcode : server.getPostcodes()) {
+            postcodesByName.putIfAbsent(postcode.getName(), postcode);
         }
     }
 
     /**
      * Instantiates all Users from the text representation of Users in the config file.
-     * @param userLines : List containing non-parsed lines of User information.
+     * Users are created in parallel, then added to the Server together in file order.
+     * @param records : Lines of the config file.
      */
-    private void loadUsers(List<String> userLines) throws InvalidPostcodeException {
-        //Adds all Users in the configuration structure to our Users List.
-        for (String line : userLines) {
+    private void loadUsers(RecordSource records) throws InvalidPostcodeException {
+        //Adds all Users in the configuration structure to our Users List. Users with an unknown postcode are left null.
+        List<User> users = new ArrayList<>(records.count(RecordType.USER));
+        for (User user : records(records, RecordType.USER, lineParse -> {
             //Structure: [0]USER:[1]Name:[2]Password:[3]Location:[4]Postcode
-            String[] lineParse = line.split(":");
-            Postcode userPostcode = null;
-            for (Postcode postcode : server.getPostcodes()) {
-                if (postcode.getName().equals(lineParse[4])) {
-                    userPostcode = postcode;
-                    break;
-                }
+            Postcode userPostcode = postcodesByName.get(lineParse.field(4));
+            return userPostcode == null ? null : new User(lineParse.field(1), lineParse.field(2), lineParse.field(3), userPostcode);
+        })) {
+            if (user == null) {
+                throw new InvalidPostcodeException("Non-valid postcode entered for user: " + records.line(RecordType.USER, users.size()).field(1) + " when reading Configuration file.");
             }
-            if (userPostcode == null) {
-                throw new InvalidPostcodeException("Non-valid postcode entered for user: " + lineParse[1] + " when reading Configuration file.");
-            }
-            User user = new User(lineParse[1], lineParse[2], lineParse[3], userPostcode);
-            server.addUser(user);
+            users.add(user);
+        }
+        //Only the first User with each name is added, so those are the ones Orders are given
+        for (User user : server.addUsers(users)) {
+            usersByName.put(user.getName(), user);
         }
     }
 
-
-
     /**
      * Instantiates all Orders from the text representation of Orders in the config file.
-     * @param orderLines : List containing the non-parsed lines of Order information.
+     * Lines are parsed in parallel, then checked and given their order numbers in file order (as a User's order numbers
+     * depend on their earlier Orders), then the Orders are built in parallel and added to the Server together.
+     * @param records : Lines of the config file.
      */
-    private void loadOrders(List<String> orderLines) throws InvalidUserException, InvalidDishException {
-        //Adds all Orders in the configuration structure to our Orders List.
-        for (String line : orderLines) {
-            //Structure: [0]ORDER:[1]User:[2]Quantity * Dish,Quantity * Dish ...
-            String[] lineParse = line.split(":");
-            User orderUser = null;
-            Order order = null;
-            for (User user : server.getUsers()) {
-                if (user.getName().equals(lineParse[1])) {
-                    orderUser = user;
-                    order = new Order(user, user.getOrdersMade());
-                    user.incrementOrdersMade();
+    private void loadOrders(RecordSource records) throws InvalidUserException, InvalidDishException {
+        List<OrderLine> parsed = new ArrayList<>(records.count(RecordType.ORDER));
+        for (OrderLine line : records(records, RecordType.ORDER, this::parseOrder)) {
+            if (line.user == null) {
+                throw new InvalidUserException("Non-valid user: " + line.username + " entered for order when reading Configuration file.");
+            }
+            if (line.unknownDish) {
+                throw new InvalidDishException("Non-valid dish entered for " + line.user.getName() + "'s order when reading configuration file.");
+            }
+            if (line.state != null) {
+                if (line.user.getOrdersMade() <= line.orderNumber) {
+                    line.user.setOrdersMade(line.orderNumber + 1);
                 }
+            } else {
+                line.orderNumber = line.user.getOrdersMade();
+                line.user.incrementOrdersMade();
             }
-            if (orderUser == null) {
-                throw new InvalidUserException("Non-valid user: " + lineParse[1] + " entered for order when reading Configuration file.");
+            parsed.add(line);
+        }
+
+        //Adds all Orders in the configuration structure to our Orders List.
+        server.addOrders(inParallel(parsed, line -> {
+            Order order = new Order(line.user, line.orderNumber);
+            for (int i=0; i<line.dishes.length; i++) {
+                //Finally, adds the dish and quantity to the order.
+                order.addDish(line.dishes[i], line.quantities[i]);
+                order.moveTo(Order.OrderState.PREPARING);
+            }
+            if (line.state != null) {
+                order.setOrderState(line.state);
             }
+            return order;
+        }));
+    }
 
+    /**
+     * Parses an ORDER line, looking up its User and Dishes
+     * @param lineParse : Line of Order information
+     * @return : OrderLine holding what was parsed
+     */
+    private OrderLine parseOrder(Line lineParse) {
+        //Structure: [0]ORDER:[1]User:[2]Quantity * Dish,Quantity * Dish ...
+        //Backups also have: [3]Order Number:[4]Order State
+        String username = lineParse.field(1);
+        OrderLine parsed = new OrderLine(username, usersByName.get(username));
+        if (lineParse.size() >= 5) {
+            parsed.orderNumber = lineParse.intNumber(3);
+            parsed.state = Order.OrderState.valueOf(lineParse.field(4));
+        }
 
-            //Parse each ordered dish (separated by a comma), Structure: [0]Quantity * Dish, [1]Quantity * Dish, ...
-            String[] orderContents = lineParse[2].split(",");
-            for (String orderContent : orderContents) {
-                //Structure: [0]Quantity, [1]Dish
-                String[] orderInfo = orderContent.split("\\s\\*\\s");
-                Dish orderDish = null;
-                for (Dish dish : server.getDishes()) {
-                    if (dish.getName().equals(orderInfo[1])) {
-                        orderDish = dish;
-                    }
-                }
-                if (orderDish == null) {
-                    throw new InvalidDishException("Non-valid dish entered for " + orderUser.getName() + "'s order when reading configuration file.");
-                }
-                //Finally, adds the dish and quantity to the order.
-                order.addDish(orderDish, Integer.parseInt(orderInfo[0]));
-                order.setOrderState(Order.OrderState.PREPARING);
-                server.notifyUpdate();
+        //Parse each ordered dish (separated by a comma), Structure: [0]Quantity * Dish, [1]Quantity * Dish, ...
+        String contents = lineParse.field(2);
+        String[] orderContents = contents.isEmpty() ? new String[0] : contents.split(",");
+        parsed.dishes = new Dish[orderContents.length];
+        parsed.quantities = new int[orderContents.length];
+        for (int i=0; i<orderContents.length; i++) {
+            //Structure: [0]Quantity, [1]Dish
+            String[] orderInfo = QUANTITY_SEPARATOR.split(orderContents[i]);
+            parsed.dishes[i] = dishesByName.get(orderInfo[1]);
+            parsed.quantities[i] = Integer.parseInt(orderInfo[0]);
+            if (parsed.dishes[i] == null) {
+                parsed.unknownDish = true;
             }
-            server.addOrder(order);
         }
+        return parsed;
     }
 
     /**
      * Instantiates all StockItem elements with their respective quantities from the Config file
      * The StockItems will have been created already when the Dishes and Ingredients were loaded previously.
      * Either Dish or Ingredient can be stocked, so both must be checked.
-     * @param stockLines : List containing non-parsed lines of Stock information.
+     * @param records : Lines of the config file.
      */
-    private void loadStock(List<String> stockLines) throws InvalidStockItemException {
+    private void loadStock(RecordSource records) throws InvalidStockItemException {
+        //Dishes are listed before Ingredients, so an Ingredient is picked over a Dish with the same name.
+        Map<String, StockItem> stockByName = new HashMap<>();
+        for (StockItem item : server.getStock()) {
+            stockByName.put(item.getStockedItem().getName(), item);
+        }
+
         //Adds all quantities of StockItems from the Configuration file to our StockItems.
-        for (String line : stockLines) {
+        for (Line parseLine : records(records, RecordType.STOCK)) {
             //Structure: [0]STOCK:[1]Dish|Ingredient:[2]Quantity
-            String[] parseLine = line.split(":");
-            Model stockedItem = null;
-
-            //First finds whatever Dish or Ingredient is being referenced.
-            for (Dish dish : server.getDishes()) {
-                if (dish.getName().equals(parseLine[1])) {
-                    stockedItem = dish;
-                }
-            }
-            for (Ingredient ingredient : server.getIngredients()) {
-                if (ingredient.getName().equals(parseLine[1])) {
-                    stockedItem = ingredient;
-                }
-            }
-            if (stockedItem == null) {
+            StockItem item = stockByName.get(parseLine.field(1));
+            if (item == null) {
                 throw new InvalidStockItemException("Non-valid Dish or Ingredient entered for stock in Configuration file");
             }
-
-            //Then finds whatever StockItem this dish/ingredient is contained in
-            for (StockItem item : server.getStock()) {
-                if (item.getStockedItem().equals(stockedItem)) {
-                    item.setStock(Long.parseLong(parseLine[2]));
-                }
-            }
+            item.setStock(parseLine.number(2));
         }
     }
 
     /**
      * Instantiates all Staff elements with their respective names from the Config file
-     * @param staffLines : List containing non-parsed lines of Staff details.
+     * @param records : Lines of the config file.
      */
-    private void loadStaff(List<String> staffLines) {
-        for (String line : staffLines) {
+    private void loadStaff(RecordSource records) {
+        for (Line lineParse : records(records, RecordType.STAFF)) {
             //Structure: [0]STAFF:[1]Name
-            String[] lineParse = line.split(":");
-            server.addStaff(lineParse[1]);
+            server.addStaff(lineParse.field(1));
         }
     }
 
 
     /**
      * Instantiates all Drone elements with their respective speed from the Config file
-     * @param droneLines : List containing non-parsed lines of Drone speeds.
+     * @param records : Lines of the config file.
      */
-    private void loadDrones(List<String> droneLines) {
-        for (String line : droneLines) {
+    private void loadDrones(RecordSource records) {
+        for (Line lineParse : records(records, RecordType.DRONE)) {
             //Structure: [0]DRONE:[1]Speed
-            String[] lineParse = line.split(":");
-            int speed = Integer.parseInt(lineParse[1]);
+            int speed = lineParse.intNumber(1);
             if (speed > 0) {
                 server.addDrone(speed);
             } else {
@@ -309,4 +433,136 @@ public class Configuration {
         }
     }
 
+    /**
+     * The types of record in a Configuration file, named as they are written at the start of each line.
+     */
+    enum RecordType {
+        SUPPLIER, INGREDIENT, DISH, POSTCODE, USER, ORDER, STOCK, STAFF, DRONE;
+
+        private static final Map<String, RecordType> BY_NAME = new HashMap<>();
+
+        static {
+            for (RecordType type : values()) {
+                BY_NAME.put(type.name(), type);
+            }
+        }
+
+        /**
+         * Finds the record type written at the start of a line
+         * @param name : Text before the first ':' of the line
+         * @return : RecordType, or null if it isn't one
+         */
+        static RecordType of(String name) {
+            return BY_NAME.get(name);
+        }
+    }
+
+    /**
+     * The lines of a Configuration file, sorted by their record type.
+     * Fields may be asked for from several threads at once.
+     */
+    interface RecordSource {
+        /**
+         * Gets the number of lines of a record type
+         * @param type : Type of record
+         * @return : Number of lines
+         */
+        int count(RecordType type);
+
+        /**
+         * Gets a line, split into its fields, keeping any empty fields at the end
+         * @param type : Type of record
+         * @param index : Index of the line among the lines of its type
+         * @return : Line
+         */
+        Line line(RecordType type, int index);
+    }
+
+    /**
+     * A line of a Configuration file split into its fields. Names are read as Strings, and numbers are read as numbers
+     * without a String being made for them first.
+     */
+    interface Line {
+        /**
+         * Gets the number of fields in the line, including the record type
+         * @return : Number of fields
+         */
+        int size();
+
+        /**
+         * Gets a field as text
+         * @param field : Index of the field, 0 being the record type
+         * @return : Text of the field
+         */
+        String field(int field);
+
+        /**
+         * Reads a field holding a whole number, as Long.parseLong would
+         * @param field : Index of the field, 0 being the record type
+         * @return : Number in the field
+         * @throws NumberFormatException : Thrown if the field isn't a whole number that fits in a long
+         */
+        long number(int field);
+
+        /**
+         * Reads a field holding a whole number that must fit in an int, as Integer.parseInt would
+         * @param field : Index of the field, 0 being the record type
+         * @return : Number in the field
+         * @throws NumberFormatException : Thrown if the field isn't a whole number that fits in an int
+         */
+        default int intNumber(int field) {
+            long number = number(field);
+            if ((int) number != number) {
+                throw new NumberFormatException("Value out of range for an int: " + field(field));
+            }
+            return (int) number;
+        }
+    }
+
+    /**
+     * A Line that was read into memory as a String and split
+     */
+    private static class SplitLine implements Line {
+        private final String[] fields;
+
+        SplitLine(String[] fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public int size() {
+            return fields.length;
+        }
+
+        @Override
+        public String field(int field) {
+            return fields[field];
+        }
+
+        @Override
+        public long number(int field) {
+            return Long.parseLong(fields[field]);
+        }
+    }
+
+    /**
+     * An ORDER line once it has been parsed, before its Order is built.
+     */
+    private static class OrderLine {
+        private final String username;
+        //Null if there is no User with this name
+        private final User user;
+        private Dish[] dishes;
+        private int[] quantities;
+        //True if any of the Dishes isn't on the Server
+        private boolean unknownDish = false;
+        private int orderNumber;
+        //Only given in backups, null for Orders in a Configuration file
+        private Order.OrderState state;
+
+        OrderLine(String username, User user) {
+            this.username = username;
+            this.user = user;
+        }
+    }
 }
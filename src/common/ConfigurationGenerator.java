@@ -0,0 +1,114 @@
+package common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes a large, made up Configuration file, for timing how long the Server takes to load one.
+ * Usage: ConfigurationGenerator [output file] [users] [orders] [dishes]
+ * The same arguments always produce the same file.
+ * @author Oscar van Leusen
+ */
+public class ConfigurationGenerator {
+
+    private static final int SUPPLIERS = 20;
+    private static final int INGREDIENTS = 200;
+    private static final int POSTCODES = 500;
+    private static final int STAFF = 10;
+    private static final int DRONES = 10;
+    //Most Dishes and Ingredients written to each recipe and Order
+    private static final int MAX_RECIPE_SIZE = 5;
+    private static final int MAX_ORDER_SIZE = 5;
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: ConfigurationGenerator [output file] [users] [orders] [dishes]");
+            return;
+        }
+        int users = Integer.parseInt(args[1]);
+        int orders = Integer.parseInt(args[2]);
+        int dishes = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        long start = System.currentTimeMillis();
+        try {
+            generate(args[0], users, orders, dishes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        System.out.println("Wrote " + args[0] + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Writes a Configuration file with the given number of Users, Orders and Dishes
+     * @param fileName : File to write to
+     * @param users : Number of Users
+     * @param orders : Number of Orders, shared between the Users
+     * @param dishes : Number of Dishes
+     * @throws IOException : Thrown if the file can't be written
+     */
+    public static void generate(String fileName, int users, int orders, int dishes) throws IOException {
+        Random random = new Random(1206);
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            for (int i=0; i<SUPPLIERS; i++) {
+                writer.write("SUPPLIER:Supplier " + i + ":" + (1 + random.nextInt(50)));
+                writer.newLine();
+            }
+            for (int i=0; i<INGREDIENTS; i++) {
+                writer.write("INGREDIENT:Ingredient " + i + ":Grams:Supplier " + random.nextInt(SUPPLIERS) + ":100:1000");
+                writer.newLine();
+            }
+            for (int i=0; i<dishes; i++) {
+                StringBuilder line = new StringBuilder("DISH:Dish " + i + ":Generated dish:" + (1 + random.nextInt(20)) + ":1:10:");
+                int recipeSize = 1 + random.nextInt(MAX_RECIPE_SIZE);
+                for (int j=0; j<recipeSize; j++) {
+                    if (j > 0) {
+                        line.append(',');
+                    }
+                    line.append(1 + random.nextInt(100)).append(" * Ingredient ").append(random.nextInt(INGREDIENTS));
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+            for (int i=0; i<POSTCODES; i++) {
+                writer.write("POSTCODE:PC" + i + ":" + (1 + random.nextInt(10)));
+                writer.newLine();
+            }
+            for (int i=0; i<users; i++) {
+                writer.write("USER:User" + i + ":password:Address " + i + ":PC" + random.nextInt(POSTCODES));
+                writer.newLine();
+            }
+            for (int i=0; i<orders && users > 0 && dishes > 0; i++) {
+                StringBuilder line = new StringBuilder("ORDER:User" + random.nextInt(users) + ":");
+                int orderSize = 1 + random.nextInt(MAX_ORDER_SIZE);
+                for (int j=0; j<orderSize; j++) {
+                    if (j > 0) {
+                        line.append(',');
+                    }
+                    line.append(1 + random.nextInt(5)).append(" * Dish ").append(random.nextInt(dishes));
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+            for (int i=0; i<dishes; i++) {
+                writer.write("STOCK:Dish " + i + ":" + random.nextInt(100));
+                writer.newLine();
+            }
+            for (int i=0; i<INGREDIENTS; i++) {
+                writer.write("STOCK:Ingredient " + i + ":" + random.nextInt(10000));
+                writer.newLine();
+            }
+            for (int i=0; i<STAFF; i++) {
+                writer.write("STAFF:Staff " + i);
+                writer.newLine();
+            }
+            for (int i=0; i<DRONES; i++) {
+                writer.write("DRONE:" + (10 + random.nextInt(20)));
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -1,34 +1,78 @@
 package common;
 
+import server.ServerInterface.UnableToDeleteException;
+
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 /**
+ * Backs up the Server's state every 60 seconds. A full backup is followed by delta backups, which only hold the Users,
+ * Orders and stock levels that have changed since the one before, so each backup writes as much as has changed rather
+ * than the whole restaurant. A new full backup is taken every few deltas, or when the Suppliers, Ingredients, Dishes,
+ * Postcodes, Staff or Drones change, and the deltas of the previous full backup are then deleted.
  * @author Oscar van Leusen
  */
 public class DataPersistence extends Thread {
+    private static final String BACKUP_PREFIX = "Sushi-Backup-";
+    private static final String DELTA_PREFIX = "Sushi-Delta-";
+    //Number of delta backups taken before the chain is compacted into a new full backup
+    private static final int FULL_BACKUP_EVERY = 10;
+    private static final String BACKUP_SUFFIX = ".txt";
+    private static final String BINARY_SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+    //Backups and journal segments are named by when they were taken, to the millisecond
+    private static final String TIMESTAMP_FORMAT = "yyyy.MM.dd.HH.mm.ss.SSS";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
     private File folder = new File(System.getProperty("user.dir"));
+    private final Format format;
     private volatile boolean backupsRunning = true;
     private Server server;
     private StockManager stockManager;
-    private List<Supplier> suppliers;
-    private List<Ingredient> ingredients;
-    private List<Dish> dishes;
-    private List<Postcode> postcodes;
-    private List<User> users;
-    private List<Order> orders;
-    private List<Staff> staff;
-    private List<Drone> drones;
-
-    public DataPersistence(Server server, StockManager stockManager) {
+    private StateJournal journal;
+    private ChangeTracker changes;
+    //Timestamp of the full backup that deltas are currently being written against, null until one is taken
+    private String baseTimestamp;
+    //Checksum of the parts of the full backup that deltas don't record, used to spot when they have changed
+    private long baseChecksum;
+    private int deltasSinceBase = 0;
+    //Time the last backup was named after, so two backups in the same millisecond still get different names
+    private long lastBackupMillis = 0;
+
+    /**
+     * Formats full backups can be written in. Delta backups are always text, as they are small.
+     */
+    public enum Format {
+        //Colon separated lines, the same as a Configuration file
+        TEXT,
+        //Sections with checksums, see BinarySnapshot
+        BINARY,
+        //Binary, GZIP compressed
+        COMPRESSED
+    }
+
+    public DataPersistence(Server server, StockManager stockManager, StateJournal journal, ChangeTracker changes, Format format) {
         this.server = server;
         this.stockManager = stockManager;
+        this.journal = journal;
+        this.changes = changes;
+        this.format = format;
     }
 
     /**
@@ -37,41 +81,254 @@ public class DataPersistence extends Thread {
     @Override
     public void run() {
         while (backupsRunning) {
-            //Ensures there are only 5 backups at a time. If there are more than 5 then existing backups are removed.
-            if (countBackups() > 5) removeExcessBackup();
             //Makes a backup every 60 seconds.
             try {
                 sleep(60000);
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                break;
+            }
+            if (backupsRunning) {
+                backup();
             }
-            this.suppliers = server.getSuppliers();
-            this.ingredients = server.getIngredients();
-            this.dishes = server.getDishes();
-            this.postcodes = server.getPostcodes();
-            this.users = server.getUsers();
-            this.orders = server.getOrders();
-            this.staff = server.getStaff();
-            this.drones = server.getDrones();
-
-            List<String> restaurantState = parseToStrings();
-            String filePath = "Sushi-Backup-" + new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new Date()) + ".txt";
-            System.out.println("Backing up current Configuration to: " + filePath);
+        }
+    }
 
+    /**
+     * Makes a backup straight away, a delta if possible, otherwise a full backup. The journal is moved on to a new
+     * segment first, so that any change made while the backup is being taken is in the journal, and the older segments
+     * are deleted once the backup has been written.
+     */
+    public synchronized void backup() {
+        lastBackupMillis = Math.max(System.currentTimeMillis(), lastBackupMillis + 1);
+        String timestamp = new SimpleDateFormat(TIMESTAMP_FORMAT).format(new Date(lastBackupMillis));
+        if (journal != null) {
             try {
-                FileWriter writer = new FileWriter(new File(filePath));
-                for (String line : restaurantState) {
-                    writer.write(line);
-                    writer.flush();
-                }
-                writer.close();
+                journal.rotate(timestamp);
             } catch (IOException e) {
-                this.backupsRunning = false;
                 e.printStackTrace();
-                System.out.println("IOException thrown when writing backup. Disabling further backup creation");
             }
+        }
+
+        //Everything is copied at one moment, then written out while the Server carries on.
+        StateSnapshot snapshot = null;
+        long checksum = 0;
+        if (changes != null && baseTimestamp != null && deltasSinceBase < FULL_BACKUP_EVERY && !changes.isStructureChanged()) {
+            snapshot = StateSnapshot.captureChanges(server, stockManager, changes);
+            checksum = checksumOf(snapshot);
+            if (checksum != baseChecksum) {
+                //The menu, suppliers or staff have changed, which only a full backup records.
+                snapshot = null;
+            }
+        }
+        if (snapshot == null) {
+            //Ensures there are only 5 full backups at a time. If there are more than 5 then existing backups are removed.
+            if (countBackups() > 5) removeExcessBackup();
+            snapshot = StateSnapshot.capture(server, stockManager, changes);
+            checksum = checksumOf(snapshot);
+        }
+
+        boolean binary = !snapshot.isChangesOnly() && format != Format.TEXT;
+        String filePath = snapshot.isChangesOnly()
+                ? DELTA_PREFIX + baseTimestamp + "-" + timestamp + BACKUP_SUFFIX
+                : BACKUP_PREFIX + timestamp + (binary ? BINARY_SUFFIX : BACKUP_SUFFIX);
+        System.out.println("Backing up current Configuration to: " + filePath + " (snapshot took "
+                + (snapshot.getCaptureNanos() / 1000) + " microseconds)");
+
+        //Written to a temporary file then renamed, so a backup is never seen part written, even after a crash.
+        File backupFile = new File(folder, filePath);
+        File tempFile = new File(folder, filePath + TEMP_SUFFIX);
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+                if (binary) {
+                    BinarySnapshot.write(snapshot, fileOut, format == Format.COMPRESSED);
+                } else {
+                    Writer out = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+                    if (snapshot.isChangesOnly()) {
+                        writeDelta(out, snapshot);
+                    } else {
+                        writeAll(out, snapshot);
+                    }
+                    out.flush();
+                }
+                fileOut.getFD().sync();
+            }
+            //An atomic rename replaces an existing file on most systems, so it is checked for first. Backups are never
+            //replaced, as a delta's changes have already been taken from the tracker and would be lost.
+            if (backupFile.exists()) {
+                throw new FileAlreadyExistsException(backupFile.getName());
+            }
+            Files.move(tempFile.toPath(), backupFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            if (snapshot.isChangesOnly()) {
+                deltasSinceBase++;
+            } else {
+                baseTimestamp = timestamp;
+                baseChecksum = checksum;
+                deltasSinceBase = 0;
+                removeDeltasExcept(timestamp);
+            }
+            if (journal != null) {
+                journal.deleteSegmentsBefore(timestamp);
+            }
+        } catch (IOException e) {
+            this.backupsRunning = false;
+            //The changes taken for this backup are lost, so only a full backup can follow it.
+            baseTimestamp = null;
+            e.printStackTrace();
+            System.out.println("IOException thrown when writing backup. Disabling further backup creation");
+            if (tempFile.exists() && !tempFile.delete()) {
+                System.out.println("Unable to delete part written backup: " + tempFile.getName());
+            }
+        }
+    }
+
+    /**
+     * Applies the delta backups taken against a full backup, oldest first, on to the state loaded from that backup.
+     * @param folder : Folder the backups are in
+     * @param baseTimestamp : Timestamp of the full backup that was loaded
+     * @param server : Server to apply the deltas to
+     * @param catalog : Catalog of the Server's Users, Dishes and Orders
+     * @return : Timestamp of the last delta applied (or of the full backup if there were none), which the journal
+     * must be replayed from.
+     */
+    public static String applyDeltas(File folder, String baseTimestamp, Server server, Catalog catalog) {
+        String appliedTo = baseTimestamp;
+        List<File> deltas = new ArrayList<>();
+        File[] filesInFolder = folder.listFiles();
+        if (filesInFolder != null) {
+            for (File file : filesInFolder) {
+                if (file.isFile() && file.getName().startsWith(DELTA_PREFIX + baseTimestamp + "-") && file.getName().endsWith(BACKUP_SUFFIX)) {
+                    deltas.add(file);
+                }
+            }
+        }
+        //Timestamps are written largest unit first, so they sort by name.
+        deltas.sort(Comparator.comparing(File::getName));
+
+        for (File delta : deltas) {
+            try (Stream<String> lines = Files.lines(delta.toPath(), StandardCharsets.UTF_8)) {
+                lines.forEach(line -> applyDeltaLine(line, server, catalog));
+            } catch (IOException | RuntimeException e) {
+                //Later deltas build on this one, so they can't be applied without it.
+                e.printStackTrace();
+                break;
+            }
+            String name = delta.getName();
+            appliedTo = name.substring(DELTA_PREFIX.length() + baseTimestamp.length() + 1, name.length() - BACKUP_SUFFIX.length());
+            System.out.println("Applied delta backup: " + name);
+        }
+        return appliedTo;
+    }
+
+    /**
+     * Applies one line of a delta backup to the Server
+     * @param line : Line of the delta backup
+     * @param server : Server to apply the line to
+     * @param catalog : Catalog of the Server's Users, Dishes and Orders
+     */
+    private static void applyDeltaLine(String line, Server server, Catalog catalog) {
+        String[] lineParse = line.split(":", -1);
+        if (line.startsWith("USER:")) {
+            //Structure: [0]USER:[1]Name:[2]Password:[3]Location:[4]Postcode
+            if (catalog.getUser(lineParse[1]) == null) {
+                for (Postcode postcode : server.getPostcodes()) {
+                    if (postcode.getName().equals(lineParse[4])) {
+                        server.addUser(new User(lineParse[1], lineParse[2], lineParse[3], postcode));
+                    }
+                }
+            }
+        } else if (line.startsWith("ORDER:")) {
+            //Structure: [0]ORDER:[1]User:[2]Quantity * Dish,Quantity * Dish ...:[3]Order Number:[4]Order State
+            User user = catalog.getUser(lineParse[1]);
+            if (user == null) {
+                return;
+            }
+            int orderNumber = Integer.parseInt(lineParse[3]);
+            HashMap<Dish, Number> basket = new HashMap<>();
+            if (!lineParse[2].isEmpty()) {
+                for (String orderContent : lineParse[2].split(",")) {
+                    String[] orderInfo = orderContent.split("\\s\\*\\s");
+                    Dish dish = catalog.getDish(orderInfo[1]);
+                    if (dish != null) {
+                        basket.put(dish, Integer.parseInt(orderInfo[0]));
+                    }
+                }
+            }
+            Order order = catalog.getOrder(user.getName(), orderNumber);
+            if (order == null) {
+                order = new Order(user, orderNumber);
+                order.setBasket(basket);
+                order.setOrderState(Order.OrderState.valueOf(lineParse[4]));
+                if (user.getOrdersMade() <= orderNumber) {
+                    user.setOrdersMade(orderNumber + 1);
+                }
+                server.addOrder(order);
+            } else {
+                order.setBasket(basket);
+                order.setOrderState(Order.OrderState.valueOf(lineParse[4]));
+            }
+        } else if (line.startsWith("REMOVED:ORDER:")) {
+            //Structure: [0]REMOVED:[1]ORDER:[2]User:[3]Order Number
+            Order order = catalog.getOrder(lineParse[2], Integer.parseInt(lineParse[3]));
+            if (order != null) {
+                try {
+                    server.removeOrder(order);
+                } catch (UnableToDeleteException e) {
+                    e.printStackTrace();
+                }
+            }
+        } else if (line.startsWith("STOCK:")) {
+            //Structure: [0]STOCK:[1]Dish|Ingredient:[2]Quantity
+            long stock = Long.parseLong(lineParse[2]);
+            Dish dish = catalog.getDish(lineParse[1]);
+            if (dish != null) {
+                server.setStock(dish, stock);
+            }
+            for (Ingredient ingredient : server.getIngredients()) {
+                if (ingredient.getName().equals(lineParse[1])) {
+                    server.setStock(ingredient, stock);
+                }
+            }
+        }
+    }
 
+    /**
+     * Finds the full backups in a folder, used to recover the Server's state on start-up.
+     * @param folder : Folder to look in
+     * @return : List of backup files, latest first.
+     */
+    public static List<File> backupsNewestFirst(File folder) {
+        List<File> backups = new ArrayList<>();
+        File[] filesInFolder = folder.listFiles();
+        if (filesInFolder != null) {
+            for (File backup : filesInFolder) {
+                if (backup.isFile() && isBackup(backup)) {
+                    backups.add(backup);
+                }
+            }
         }
+        //Timestamps are written largest unit first, so the latest backup has the greatest name.
+        backups.sort(Comparator.comparing(File::getName, Comparator.reverseOrder()));
+        return backups;
+    }
+
+    /**
+     * Checks whether a file is a complete backup, rather than another file or a backup still being written
+     * @param file : File to check
+     * @return : True if the file is a backup
+     */
+    public static boolean isBackup(File file) {
+        return file.getName().startsWith(BACKUP_PREFIX) && (file.getName().endsWith(BACKUP_SUFFIX) || file.getName().endsWith(BINARY_SUFFIX));
+    }
+
+    /**
+     * Gets the timestamp a backup was taken at from its file name
+     * @param backup : Backup file
+     * @return : Timestamp of the backup
+     */
+    public static String timestampOf(File backup) {
+        String name = backup.getName();
+        String suffix = name.endsWith(BINARY_SUFFIX) ? BINARY_SUFFIX : BACKUP_SUFFIX;
+        return name.substring(BACKUP_PREFIX.length(), name.length() - suffix.length());
     }
 
     /**
@@ -83,7 +340,7 @@ public class DataPersistence extends Thread {
         int numBackups = 0;
         if (filesInFolder != null) {
             for (File aFilesInFolder : filesInFolder)
-                if (aFilesInFolder.isFile() && aFilesInFolder.getName().contains("Sushi-Backup")) {
+                if (aFilesInFolder.isFile() && isBackup(aFilesInFolder)) {
                     numBackups++;
                 }
         }
@@ -101,7 +358,7 @@ public class DataPersistence extends Thread {
         long lastModified = Long.MAX_VALUE;
         if (filesInFolder != null) {
             for (File backup : filesInFolder) {
-                if (backup.getName().startsWith("Sushi-Backup")) {
+                if (isBackup(backup)) {
                     if (backup.lastModified() < lastModified) {
                         oldest = backup;
                         lastModified = backup.lastModified();
@@ -119,228 +376,269 @@ public class DataPersistence extends Thread {
     }
 
     /**
-     * Used to control the conversion of the object-states into a text representation, then adds all of these to
-     * a single List<String> to later be added to the backup file.
-     * @return : List<String> containing all lines of the backup file.
+     * Deletes the delta backups of every full backup except one. Once a new full backup is written, the deltas taken
+     * against older ones are no longer needed.
+     * @param timestamp : Timestamp of the full backup whose deltas are kept
      */
-    private List<String> parseToStrings() {
-        List<String> finalOutput = new ArrayList<>();
-        finalOutput.addAll(parseSuppliers());
-        finalOutput.addAll(parseIngredients());
-        finalOutput.addAll(parseDishes());
-        finalOutput.addAll(parsePostcodes());
-        finalOutput.addAll(parseUsers());
-        finalOutput.addAll(parseStaff());
-        finalOutput.addAll(parseDrones());
-        finalOutput.addAll(parseOrders());
-        finalOutput.addAll(parseStock());
-        return finalOutput;
+    private void removeDeltasExcept(String timestamp) {
+        File[] filesInFolder = folder.listFiles();
+        if (filesInFolder != null) {
+            for (File file : filesInFolder) {
+                if (file.getName().startsWith(DELTA_PREFIX) && !file.getName().startsWith(DELTA_PREFIX + timestamp + "-")
+                        && !file.delete()) {
+                    System.out.println("Unable to delete old delta backup: " + file.getName());
+                }
+            }
+        }
     }
 
     /**
-     * Converts the list of suppliers into a string representation
-     * @return : List<String> containing all lines of the supplier backups
+     * Calculates a checksum of the Suppliers, Ingredients, Dishes, Postcodes, Staff and Drones in a snapshot, written
+     * the same way as in a backup but without writing anything to disk.
+     * @param snapshot : Snapshot to check
+     * @return : Checksum of the parts of a full backup that deltas don't record
      */
-    private List<String> parseSuppliers() {
-        List<String> supplierOutput = new ArrayList<>();
-        StringBuilder sb;
+    private long checksumOf(StateSnapshot snapshot) {
+        ChecksumWriter out = new ChecksumWriter();
+        try {
+            writeSuppliers(out, snapshot.getSuppliers());
+            writeIngredients(out, snapshot.getIngredients());
+            writeDishes(out, snapshot.getDishes());
+            writePostcodes(out, snapshot.getPostcodes());
+            writeStaff(out, snapshot.getStaff());
+            writeDrones(out, snapshot.getDrones());
+        } catch (IOException e) {
+            //ChecksumWriter never throws
+            e.printStackTrace();
+        }
+        return out.getChecksum();
+    }
+
+    /**
+     * Writes the Users, Orders and stock levels that changed since the last backup, and the Orders that were removed.
+     * Lines are in the same format as a full backup, apart from removed Orders:
+     * REMOVED:ORDER:User:OrderNumber
+     * @param out : Writer for the delta backup file
+     * @param snapshot : Snapshot holding only what changed
+     * @throws IOException : Thrown if the backup can't be written
+     */
+    private void writeDelta(Writer out, StateSnapshot snapshot) throws IOException {
+        writeUsers(out, snapshot.getUsers());
+        writeOrders(out, snapshot.getOrders());
+        for (StateSnapshot.OrderRecord order : snapshot.getRemovedOrders()) {
+            out.write("REMOVED:ORDER:");
+            out.write(order.getUser().getName());
+            out.write(":");
+            out.write(String.valueOf(order.getOrderNumber()));
+            out.write("\n");
+        }
+        writeStock(out, snapshot.getStock());
+    }
+
+    /**
+     * Writes the text representation of every object straight to the backup, rather than building every line in memory first.
+     * @param out : Writer for the backup file
+     * @param snapshot : State of the Server to write
+     * @throws IOException : Thrown if the backup can't be written
+     */
+    private void writeAll(Writer out, StateSnapshot snapshot) throws IOException {
+        writeSuppliers(out, snapshot.getSuppliers());
+        writeIngredients(out, snapshot.getIngredients());
+        writeDishes(out, snapshot.getDishes());
+        writePostcodes(out, snapshot.getPostcodes());
+        writeUsers(out, snapshot.getUsers());
+        writeStaff(out, snapshot.getStaff());
+        writeDrones(out, snapshot.getDrones());
+        writeOrders(out, snapshot.getOrders());
+        writeStock(out, snapshot.getStock());
+    }
+
+    /**
+     * Writes the list of suppliers in their text representation
+     * @param out : Writer for the backup file
+     * @param suppliers : Suppliers to write
+     * @throws IOException : Thrown if the backup can't be written
+     */
+    private void writeSuppliers(Writer out, List<Supplier> suppliers) throws IOException {
         for (Supplier supplier : suppliers) {
-            sb = new StringBuilder();
-            sb.append("SUPPLIER:");
-            sb.append(supplier.getName());
-            sb.append(":");
-            sb.append(supplier.getDistance());
-            sb.append("\n");
-            supplierOutput.add(sb.toString());
+            out.write("SUPPLIER:");
+            out.write(supplier.getName());
+            out.write(":");
+            out.write(String.valueOf(supplier.getDistance()));
+            out.write("\n");
         }
-        return supplierOutput;
     }
 
     /**
-     * Converts the list of ingredients into a string representation
-     * @return : List<String> containing all lines of the ingredient backups
+     * Writes the list of ingredients in their text representation
+     * @param out : Writer for the backup file
+     * @param ingredients : Ingredients to write
+     * @throws IOException : Thrown if the backup can't be written
      */
-    private List<String> parseIngredients() {
-        List<String> ingredientsOutput = new ArrayList<>();
-        StringBuilder sb;
+    private void writeIngredients(Writer out, List<Ingredient> ingredients) throws IOException {
         for (Ingredient ingredient : ingredients) {
-            sb = new StringBuilder();
-            sb.append("INGREDIENT:");
-            sb.append(ingredient.getName());
-            sb.append(":");
-            sb.append(ingredient.getUnit());
-            sb.append(":");
-            sb.append(ingredient.getSupplier().getName());
-            sb.append(":");
-            sb.append(ingredient.getRestockThreshold());
-            sb.append(":");
-            sb.append(ingredient.getRestockAmount());
-            sb.append("\n");
-            ingredientsOutput.add(sb.toString());
+            out.write("INGREDIENT:");
+            out.write(ingredient.getName());
+            out.write(":");
+            out.write(ingredient.getUnit());
+            out.write(":");
+            out.write(ingredient.getSupplier().getName());
+            out.write(":");
+            out.write(String.valueOf(ingredient.getRestockThreshold()));
+            out.write(":");
+            out.write(String.valueOf(ingredient.getRestockAmount()));
+            out.write("\n");
         }
-        return ingredientsOutput;
     }
 
     /**
-     * Converts the list of dishes into a string representation
-     * @return : List<String> containing all lines of the dish backups
+     * Writes the list of dishes in their text representation
+     * @param out : Writer for the backup file
+     * @param dishes : Dishes to write
+     * @throws IOException : Thrown if the backup can't be written
      */
-    private List<String> parseDishes() {
-        List<String> dishesOutput = new ArrayList<>();
-        StringBuilder sb;
+    private void writeDishes(Writer out, List<Dish> dishes) throws IOException {
         for (Dish dish : dishes) {
-            sb = new StringBuilder();
-            sb.append("DISH:");
-            sb.append(dish.getName());
-            sb.append(":");
-            sb.append(dish.getDishDescription());
-            sb.append(":");
-            sb.append(dish.dishPrice().intValue());
-            sb.append(":");
-            sb.append(dish.getRestockThreshold());
-            sb.append(":");
-            sb.append(dish.getRestockAmount());
-            sb.append(":");
-            //Parses ingredients and quantities for the dish.
-            Map<Ingredient, Number> recipe = dish.getRecipe();
-            for (Map.Entry<Ingredient, Number> dishIngredient : recipe.entrySet()) {
-                Ingredient ingredient = dishIngredient.getKey();
-                Long quantity = dishIngredient.getValue().longValue();
-                sb.append(quantity).append(" * ").append(ingredient.getName()).append(",");
+            out.write("DISH:");
+            out.write(dish.getName());
+            out.write(":");
+            out.write(dish.getDishDescription());
+            out.write(":");
+            out.write(String.valueOf(dish.dishPrice().intValue()));
+            out.write(":");
+            out.write(String.valueOf(dish.getRestockThreshold()));
+            out.write(":");
+            out.write(String.valueOf(dish.getRestockAmount()));
+            out.write(":");
+            //Writes ingredients and quantities for the dish, separated by commas.
+            boolean firstIngredient = true;
+            for (Map.Entry<Ingredient, Number> dishIngredient : dish.getRecipe().entrySet()) {
+                if (!firstIngredient) {
+                    out.write(",");
+                }
+                out.write(String.valueOf(dishIngredient.getValue().longValue()));
+                out.write(" * ");
+                out.write(dishIngredient.getKey().getName());
+                firstIngredient = false;
             }
-            //Removes the last extra comma separating ingredients (as there is no following ingredient)
-            sb.setLength(sb.length() - 1);
-            sb.append("\n");
-            dishesOutput.add(sb.toString());
+            out.write("\n");
         }
-        return dishesOutput;
     }
 
     /**
-     * Converts the list of postcodes into a string representation
-     * @return : List<String> containing all lines of the postcode backups
+     * Writes the list of postcodes in their text representation
+     * @param out : Writer for the backup file
+     * @param postcodes : Postcodes to write
+     * @throws IOException : Thrown if the backup can't be written
      */
-    private List<String> parsePostcodes() {
-        List<String> postcodesOutput = new ArrayList<>();
-        StringBuilder sb;
+    private void writePostcodes(Writer out, List<Postcode> postcodes) throws IOException {
         for (Postcode postcode : postcodes) {
-            sb = new StringBuilder();
-            sb.append("POSTCODE:");
-            sb.append(postcode.getName());
-            sb.append(":");
-            sb.append(postcode.getDistance());
-            sb.append("\n");
-            postcodesOutput.add(sb.toString());
+            out.write("POSTCODE:");
+            out.write(postcode.getName());
+            out.write(":");
+            out.write(String.valueOf(postcode.getDistance()));
+            out.write("\n");
         }
-        return postcodesOutput;
     }
 
     /**
-     * Converts the list of user accounts into a string representation
-     * @return : List<String> containing all lines of the user backups
+     * Writes the list of user accounts in their text representation
+     * @param out : Writer for the backup file
+     * @param users : Users to write
+     * @throws IOException : Thrown if the backup can't be written
      */
-    private List<String> parseUsers() {
-        List<String> usersOutput = new ArrayList<>();
-        StringBuilder sb;
+    private void writeUsers(Writer out, List<User> users) throws IOException {
         for (User user : users) {
-            sb = new StringBuilder();
-            sb.append("USER:");
-            sb.append(user.getName());
-            sb.append(":");
-            sb.append(user.getPassword());
-            sb.append(":");
-            sb.append(user.getAddress());
-            sb.append(":");
-            sb.append(user.getPostcode().getName());
-            sb.append("\n");
-            usersOutput.add(sb.toString());
+            out.write("USER:");
+            out.write(user.getName());
+            out.write(":");
+            out.write(user.getPassword());
+            out.write(":");
+            out.write(user.getAddress());
+            out.write(":");
+            out.write(user.getPostcode().getName());
+            out.write("\n");
         }
-        return usersOutput;
     }
 
     /**
-     * Converts the list of staff into a string representation
-     * @return : List<String> containing all lines of the staff backups
+     * Writes the list of staff in their text representation
+     * @param out : Writer for the backup file
+     * @param staff : Staff to write
+     * @throws IOException : Thrown if the backup can't be written
      */
-    private List<String> parseStaff() {
-        List<String> staffOutput = new ArrayList<>();
-        StringBuilder sb;
-        for (Staff staff : staff) {
-            sb = new StringBuilder();
-            sb.append("STAFF:");
-            sb.append(staff.getName());
-            sb.append("\n");
-            staffOutput.add(sb.toString());
+    private void writeStaff(Writer out, List<Staff> staff) throws IOException {
+        for (Staff member : staff) {
+            out.write("STAFF:");
+            out.write(member.getName());
+            out.write("\n");
         }
-        return staffOutput;
     }
 
     /**
-     * Converts the list of drones into a string representation
-     * @return : List<String> containing all lines of the drone backups
+     * Writes the list of drones in their text representation
+     * @param out : Writer for the backup file
+     * @param drones : Drones to write
+     * @throws IOException : Thrown if the backup can't be written
      */
-    private List<String> parseDrones() {
-        List<String> droneOutput = new ArrayList<>();
-        StringBuilder sb;
+    private void writeDrones(Writer out, List<Drone> drones) throws IOException {
         for (Drone drone : drones) {
-            sb = new StringBuilder();
-            sb.append("DRONE:");
-            sb.append(drone.getSpeed());
-            sb.append("\n");
-            droneOutput.add(sb.toString());
+            out.write("DRONE:");
+            out.write(String.valueOf(drone.getSpeed()));
+            out.write("\n");
         }
-        return droneOutput;
     }
 
     /**
-     * Converts the list of Orders into a string representation
-     * @return : List<String> containing all lines of the order backups
+     * Writes the list of Orders in their text representation
+     * @param out : Writer for the backup file
+     * @param orders : Orders to write, as they were when the snapshot was taken
+     * @throws IOException : Thrown if the backup can't be written
      */
-    private List<String> parseOrders() {
-        List<String> orderOutput = new ArrayList<>();
-        StringBuilder sb;
-        for (Order order : orders) {
-            sb = new StringBuilder();
-            sb.append("ORDER:");
-            sb.append(order.getUser().getName());
-            sb.append(":");
-            Map<Dish, Number> orderQuantities = order.getBasket();
-            for (Map.Entry<Dish, Number> dishQuantity : orderQuantities.entrySet()) {
-                Dish dish = dishQuantity.getKey();
-                Integer amount = dishQuantity.getValue().intValue();
-                sb.append(amount).append(" * ").append(dish.getName()).append(",");
+    private void writeOrders(Writer out, List<StateSnapshot.OrderRecord> orders) throws IOException {
+        for (StateSnapshot.OrderRecord order : orders) {
+            out.write("ORDER:");
+            out.write(order.getUser().getName());
+            out.write(":");
+            boolean firstDish = true;
+            for (Map.Entry<Dish, Number> dishQuantity : order.getBasket().entrySet()) {
+                if (!firstDish) {
+                    out.write(",");
+                }
+                out.write(String.valueOf(dishQuantity.getValue().intValue()));
+                out.write(" * ");
+                out.write(dishQuantity.getKey().getName());
+                firstDish = false;
             }
-            //Used to remove the excess comma at the end of the list of dishes and quantities.
-            sb.setLength(sb.length() - 1);
-            sb.append("\n");
-            orderOutput.add(sb.toString());
+            //The order number and state let journaled changes to the order be found when the backup is loaded.
+            out.write(":");
+            out.write(String.valueOf(order.getOrderNumber()));
+            out.write(":");
+            out.write(order.getState().name());
+            out.write("\n");
         }
-        return orderOutput;
     }
 
     /**
-     * Converts the list of stock into a string representation
-     * @return : List<String> containing all lines of the stock backups
+     * Writes the stock levels in their text representation
+     * @param out : Writer for the backup file
+     * @param stock : Stock levels when the snapshot was taken
+     * @throws IOException : Thrown if the backup can't be written
      */
-    private List<String> parseStock() {
-        List<String> stockOutput = new ArrayList<>();
-        StringBuilder sb;
-        for (StockItem stock : stockManager.getStock()) {
-            sb = new StringBuilder();
-            sb.append("STOCK:");
-            sb.append(stock.getStockedItem().getName());
-            sb.append(":");
-            sb.append(stock.getStock());
-            sb.append("\n");
-            stockOutput.add(sb.toString());
+    private void writeStock(Writer out, List<StateSnapshot.StockRecord> stock) throws IOException {
+        for (StateSnapshot.StockRecord level : stock) {
+            out.write("STOCK:");
+            out.write(level.getName());
+            out.write(":");
+            out.write(String.valueOf(level.getStock()));
+            out.write("\n");
         }
-        return stockOutput;
     }
 
     /**
-     * Disables server backups from taking place
+     * Disables server backups from taking place, used when the Server loads a new Configuration.
      */
-    private void disableBackups() {
+    public void disableBackups() {
         this.backupsRunning = false;
     }
 
@@ -359,5 +657,30 @@ public class DataPersistence extends Thread {
         return this.backupsRunning;
     }
 
+    /**
+     * Writer that only keeps a CRC32 of what is written to it.
+     */
+    private static class ChecksumWriter extends Writer {
+        private final CRC32 checksum = new CRC32();
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            for (int i=offset; i<offset+length; i++) {
+                checksum.update(chars[i] >>> 8);
+                checksum.update(chars[i]);
+            }
+        }
 
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        long getChecksum() {
+            return checksum.getValue();
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Prepared Orders waiting to be delivered, grouped by Postcode so that a Drone can deliver several Orders on one trip.
+ * Each trip is built around the Postcode that has been waiting longest, and filled up to the Drone's capacity with
+ * other Orders to that Postcode and then to Postcodes a similar distance away.
+ * @author Oscar van Leusen
+ */
+public class DeliveryPlanner implements Serializable {
+
+    //Postcodes within this distance of each other can be delivered to on the same trip
+    private static final long NEARBY_DISTANCE = 1;
+
+    //Waiting Orders for each Postcode, in the order the Postcodes started waiting.
+    private final LinkedHashMap<String, ArrayDeque<Order>> ordersByPostcode = new LinkedHashMap<>();
+
+    /**
+     * Adds an Order that has been prepared and is ready for delivery.
+     * @param order : Prepared Order
+     */
+    public synchronized void orderPrepared(Order order) {
+        String postcode = order.getUser().getPostcode().getName();
+        ordersByPostcode.computeIfAbsent(postcode, code -> new ArrayDeque<>()).add(order);
+    }
+
+    /**
+     * Plans the next trip and takes its Orders out of the planner.
+     * @param capacity : Maximum number of Orders the Drone can carry
+     * @return : Trip to fly, or null if there are no Orders waiting.
+     */
+    public synchronized DeliveryTrip nextTrip(int capacity) {
+        List<Order> tripOrders = new ArrayList<>();
+        Iterator<ArrayDeque<Order>> postcodes = ordersByPostcode.values().iterator();
+        long anchorDistance = -1;
+
+        //Start with the Postcode that has been waiting longest.
+        while (postcodes.hasNext() && tripOrders.isEmpty()) {
+            ArrayDeque<Order> waiting = postcodes.next();
+            addOrders(waiting, tripOrders, capacity);
+            if (waiting.isEmpty()) {
+                postcodes.remove();
+            }
+            if (!tripOrders.isEmpty()) {
+                anchorDistance = DeliveryTrip.distanceOf(tripOrders.get(0));
+            }
+        }
+
+        //Fill any remaining space with Orders for Postcodes a similar distance away.
+        while (postcodes.hasNext() && tripOrders.size() < capacity) {
+            ArrayDeque<Order> waiting = postcodes.next();
+            Order head = waiting.peek();
+            if (head != null && Math.abs(DeliveryTrip.distanceOf(head) - anchorDistance) <= NEARBY_DISTANCE) {
+                addOrders(waiting, tripOrders, capacity);
+            }
+            if (waiting.isEmpty()) {
+                postcodes.remove();
+            }
+        }
+
+        return tripOrders.isEmpty() ? null : new DeliveryTrip(tripOrders);
+    }
+
+    /**
+     * Adds Orders from a Postcode's queue to a trip until the trip is full, skipping any that were cancelled while waiting.
+     * @param waiting : Orders waiting for a Postcode
+     * @param tripOrders : Orders on the trip so far
+     * @param capacity : Maximum number of Orders on the trip
+     */
+    private void addOrders(ArrayDeque<Order> waiting, List<Order> tripOrders, int capacity) {
+        Iterator<Order> orders = waiting.iterator();
+        while (orders.hasNext() && tripOrders.size() < capacity) {
+            Order order = orders.next();
+            if (order.getOrderState() == Order.OrderState.PREPARED) {
+                tripOrders.add(order);
+                orders.remove();
+            } else {
+                //Cancelled while waiting, so it will never be delivered.
+                orders.remove();
+            }
+        }
+    }
+}
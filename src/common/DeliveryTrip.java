@@ -0,0 +1,74 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A single Drone flight delivering one or more Orders. As a Postcode is only described by its distance from the
+ * restaurant, the route flies out to the furthest Postcode, dropping off nearer Orders on the way, then flies back.
+ * @author Oscar van Leusen
+ */
+public class DeliveryTrip {
+
+    //Milliseconds to fly one unit of distance at a speed of 1, so an Order at distance d with a drone of speed s takes d*200/s seconds there and back.
+    private static final long MILLIS_PER_DISTANCE = 100000;
+
+    private final List<Order> orders;
+    private final long maxDistance;
+
+    /**
+     * Creates a trip for a group of Orders
+     * @param orders : Orders to deliver on this trip
+     */
+    public DeliveryTrip(List<Order> orders) {
+        this.orders = new ArrayList<>(orders);
+        //Drop-offs are made in order of distance
+        this.orders.sort(Comparator.comparingLong(DeliveryTrip::distanceOf));
+        this.maxDistance = this.orders.isEmpty() ? 0 : distanceOf(this.orders.get(this.orders.size() - 1));
+    }
+
+    /**
+     * Gets the Orders on this trip in the order they are dropped off
+     * @return : List of Orders
+     */
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    /**
+     * Gets the distance to the furthest drop-off
+     * @return : Distance of the furthest Postcode on the trip
+     */
+    public long getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Gets the time taken to fly from the restaurant to an Order's Postcode
+     * @param order : Order on this trip
+     * @param flyingSpeed : Speed of the Drone
+     * @return : Milliseconds after take-off that the Order is delivered
+     */
+    public long arrivalMillis(Order order, int flyingSpeed) {
+        return distanceOf(order) * MILLIS_PER_DISTANCE / flyingSpeed;
+    }
+
+    /**
+     * Gets the time taken for the whole trip, out to the furthest Postcode and back.
+     * @param flyingSpeed : Speed of the Drone
+     * @return : Milliseconds for the whole trip
+     */
+    public long durationMillis(int flyingSpeed) {
+        return 2 * maxDistance * MILLIS_PER_DISTANCE / flyingSpeed;
+    }
+
+    /**
+     * Gets the distance an Order is to be delivered
+     * @param order : Order to check
+     * @return : Distance of the Order's Postcode from the restaurant
+     */
+    static long distanceOf(Order order) {
+        return order.getUser().getPostcode().getDistance();
+    }
+}
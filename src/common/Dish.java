@@ -12,13 +12,17 @@ import java.util.Set;
  */
 public class Dish extends Model implements Serializable {
 
+    //Identifier given to the Dish by the Server, which Clients use to refer to it.
+    private int dishID;
     private String dishName;
     private String dishDescription;
     private Double price;
-    private StockManager stockManager;
+    //Server-only state, Clients only ever receive the name, description, price and identifier.
+    private transient StockManager stockManager;
     private HashMap<Ingredient, Long> ingredientAmounts = new HashMap<>();
 
-    public Dish(String dishName, String dishDescription, Number price, StockManager manager) {
+    public Dish(int dishID, String dishName, String dishDescription, Number price, StockManager manager) {
+        this.dishID = dishID;
         this.dishName = dishName;
         this.dishDescription = dishDescription;
         this.price = price.doubleValue();
@@ -68,6 +72,14 @@ public class Dish extends Model implements Serializable {
         return this.price;
     }
 
+    /**
+     * Gets the price of one of this dish in pence, so that totals can be added up exactly.
+     * @return long : Price of one of this dish in pence
+     */
+    public long pricePence() {
+        return Math.round(this.price * 100);
+    }
+
     /**
      * Assigns the price of the Dish
      * @param price : Price of the dish as a float.
@@ -161,6 +173,14 @@ public class Dish extends Model implements Serializable {
         return null;
     }
 
+    /**
+     * Returns the identifier the Server gave this dish
+     * @return : Integer dish identifier
+     */
+    public int getID() {
+        return this.dishID;
+    }
+
     /**
      * Returns the dish's name
      * @return : String representation of dish's name.
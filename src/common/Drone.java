@@ -1,6 +1,8 @@
 package common;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
 
 
 /**
@@ -10,61 +12,140 @@ public class Drone extends Model implements Runnable {
     public enum DroneState {
         IDLE, FETCHING, DELIVERING
     }
+    //Maximum number of Orders a Drone carries on one trip
+    public static final int DEFAULT_CAPACITY = 5;
     private volatile boolean threadRunning = true;
     private String droneName;
     private DroneState jobState;
     private StockManager stockManager;
-    private ArrayList<Order> orders;
     private int flyingSpeed;
+    private int capacity = DEFAULT_CAPACITY;
     private String currentlyRestocking = "";
+    //Jobs given to this drone by the FleetDispatcher: Ingredients to restock or DeliveryTrips to fly
+    private final LinkedBlockingQueue<Object> jobs = new LinkedBlockingQueue<>();
 
-    public Drone(Number flyingSpeed, StockManager stockManager, ArrayList<Order> orders, int droneID) {
+    public Drone(Number flyingSpeed, StockManager stockManager, int droneID) {
         notifyUpdate("instantiation", null, this);
         this.droneName = "Drone " + droneID;
         this.jobState = DroneState.IDLE;
         this.stockManager = stockManager;
-        this.flyingSpeed = (int) flyingSpeed;
-        this.orders = orders;
+        this.flyingSpeed = flyingSpeed.intValue();
     }
 
+    /**
+     * Restocks ingredients and delivers orders. The drone waits until the FleetDispatcher gives it a job, so an idle
+     * drone uses no CPU.
+     */
     @Override
     public void run() {
-        Ingredient toRestock;
-        //Restocks ingredients and delivers orders.
+        FleetDispatcher fleet = stockManager.getFleetDispatcher();
+        fleet.addDrone(this);
         while(threadRunning) {
-            //Finds any ingredients that need to be restocked (returns null if there are none).
-            toRestock = stockManager.findIngredientToRestock();
-
-            if (toRestock != null) {
-                setDroneState(DroneState.FETCHING);
-                notifyUpdate();
-                currentlyRestocking = toRestock.getName();
-                try {
-                    stockManager.restockIngredient(toRestock, flyingSpeed);
-                } catch (InterruptedException e) {
-                    break;
+            Object job;
+            try {
+                job = jobs.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            try {
+                if (job instanceof Ingredient) {
+                    fetch((Ingredient) job);
+                } else if (job instanceof DeliveryTrip) {
+                    //Delivers prepared orders, several at a time where they're going to the same area.
+                    deliver((DeliveryTrip) job);
                 }
-                currentlyRestocking = "";
-                setDroneState(DroneState.IDLE);
+            } catch (InterruptedException e) {
+                break;
             }
+            fleet.jobFinished(this);
+        }
+
+        //Any job this drone was given but never started is handed to another drone.
+        List<Object> unstarted = new ArrayList<>();
+        jobs.drainTo(unstarted);
+        fleet.removeDrone(this, unstarted);
+    }
+
+    /**
+     * Gives the drone its next job. Called by the FleetDispatcher once the drone is free.
+     * @param job : Ingredient to restock or DeliveryTrip to fly
+     */
+    void assignJob(Object job) {
+        jobs.add(job);
+    }
+
+    /**
+     * Gets the jobs given to the drone that it hasn't started yet
+     * @return : Ingredients to restock and DeliveryTrips to fly, in the order they were given
+     */
+    List<Object> getUnstartedJobs() {
+        return new ArrayList<>(jobs);
+    }
 
+    /**
+     * Flies to an ingredient's supplier and back to restock it.
+     * @param toRestock : Ingredient to restock
+     * @throws InterruptedException : Thrown if the drone's trip is interrupted
+     */
+    private void fetch(Ingredient toRestock) throws InterruptedException {
+        setDroneState(DroneState.FETCHING);
+        notifyUpdate();
+        currentlyRestocking = toRestock.getName();
+        stockManager.restockIngredient(toRestock, flyingSpeed);
+        currentlyRestocking = "";
+        setDroneState(DroneState.IDLE);
+    }
+
+    /**
+     * Flies a delivery trip, dropping off each Order in turn as the Drone reaches its Postcode, then returns to the restaurant.
+     * If the trip is interrupted, the Orders not yet dropped off are put back to PREPARED and queued as an unstarted job,
+     * which run() hands back to the FleetDispatcher as the drone stops.
+     * @param trip : Trip to fly
+     * @throws InterruptedException : Thrown if the drone's trip is interrupted
+     */
+    private void deliver(DeliveryTrip trip) throws InterruptedException {
+        setDroneState(DroneState.DELIVERING);
+        //Only take orders that are still waiting, any cancelled since the trip was planned are left behind.
+        List<Order> onBoard = new ArrayList<>();
+        for (Order order : trip.getOrders()) {
+            if (order.compareAndSetOrderState(Order.OrderState.PREPARED, Order.OrderState.DELIVERING)) {
+                onBoard.add(order);
+            }
+        }
+        notifyUpdate();
 
-            //Finds any orders that need to be delivered
-            for (Order order : orders) {
-                if (order.getOrderState() == Order.OrderState.PREPARED) {
-                    setDroneState(DroneState.DELIVERING);
-                    order.setOrderState(Order.OrderState.DELIVERING);
-                    notifyUpdate();
-                    try {
-                        order.deliverOrder(this.flyingSpeed);
-                        setDroneState(DroneState.IDLE);
-                        notifyUpdate();
-                    } catch (InterruptedException e) {
-                        break;
-                    }
+        long flown = 0;
+        int delivered = 0;
+        try {
+            for (Order order : onBoard) {
+                long arrival = trip.arrivalMillis(order, flyingSpeed);
+                Thread.sleep(arrival - flown);
+                flown = arrival;
+                order.compareAndSetOrderState(Order.OrderState.DELIVERING, Order.OrderState.COMPLETE);
+                delivered++;
+                System.out.println(droneName + " delivered " + order.getUser().getName() + "'s order in " + (arrival / 1000f) + " seconds.");
+            }
+        } catch (InterruptedException e) {
+            //The drone is being stopped mid-trip, so the Orders still on board go back to waiting for another drone.
+            List<Order> undelivered = new ArrayList<>();
+            for (Order order : onBoard.subList(delivered, onBoard.size())) {
+                if (order.compareAndSetOrderState(Order.OrderState.DELIVERING, Order.OrderState.PREPARED)) {
+                    undelivered.add(order);
                 }
             }
+            if (!undelivered.isEmpty()) {
+                jobs.add(new DeliveryTrip(undelivered));
+            }
+            setDroneState(DroneState.IDLE);
+            notifyUpdate();
+            throw e;
         }
+        //Fly back to the restaurant
+        Thread.sleep(trip.durationMillis(flyingSpeed) - flown);
+
+        setDroneState(DroneState.IDLE);
+        notifyUpdate();
     }
 
     /**
@@ -108,6 +189,14 @@ public class Drone extends Model implements Runnable {
         return this.flyingSpeed;
     }
 
+    /**
+     * Gets the number of Orders the drone can carry on one trip
+     * @return : Maximum Orders per trip
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
     /**
      * Gets the drone's job as a string
      * @return String : Drone's current job summary
@@ -0,0 +1,202 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hands restocking and delivery jobs to the Drones. Whenever Drones are free, as many waiting jobs as there are free
+ * Drones are taken and paired with them so the last of them finishes as soon as possible: the longest job goes to the
+ * Drone that would finish it soonest, then the next longest to the best Drone left, and so on. A far Postcode goes to
+ * a fast Drone and a near one can go to a slow Drone.
+ * No job waits for a busy Drone while another Drone is idle. When there are fewer free Drones than jobs, restocks and
+ * deliveries take turns, so neither is starved by the other.
+ * @author Oscar van Leusen
+ */
+public class FleetDispatcher implements Serializable {
+
+    private final StockManager stockManager;
+    private final Set<Drone> drones = new HashSet<>();
+    //Drones doing (or about to start) a job
+    private final Set<Drone> busy = new HashSet<>();
+    //Whether a restock is taken before a delivery next time both are waiting
+    private boolean restockFirst = true;
+
+    public FleetDispatcher(StockManager stockManager) {
+        this.stockManager = stockManager;
+    }
+
+    /**
+     * Adds a Drone to the fleet, ready to be given jobs.
+     * @param drone : Drone to add
+     */
+    public synchronized void addDrone(Drone drone) {
+        drones.add(drone);
+        dispatch();
+    }
+
+    /**
+     * Removes a Drone from the fleet, handing any job it hadn't started yet to another Drone.
+     * @param drone : Drone to remove
+     * @param unstarted : Jobs given to the Drone that it never started
+     */
+    synchronized void removeDrone(Drone drone, List<Object> unstarted) {
+        drones.remove(drone);
+        busy.remove(drone);
+        for (Object job : unstarted) {
+            giveBack(job);
+        }
+        dispatch();
+    }
+
+    /**
+     * Called by a Drone when it finishes a job, so it can be given another.
+     * @param drone : Drone that finished a job
+     */
+    synchronized void jobFinished(Drone drone) {
+        busy.remove(drone);
+        dispatch();
+    }
+
+    /**
+     * Hands out waiting jobs to the free Drones. Drones are only ever given a job when they are free, so nothing here
+     * waits on a Drone.
+     */
+    public synchronized void dispatch() {
+        List<Drone> free = new ArrayList<>();
+        int capacity = 0;
+        for (Drone drone : drones) {
+            if (!busy.contains(drone)) {
+                free.add(drone);
+                capacity = Math.max(capacity, drone.getCapacity());
+            }
+        }
+        if (free.isEmpty()) {
+            return;
+        }
+
+        List<Job> jobs = takeJobs(free.size(), capacity);
+        List<Job> unassigned = new ArrayList<>();
+        while (!jobs.isEmpty()) {
+            //Max-Min: of the jobs left, the one that takes longest even on its best Drone is given that Drone first.
+            Job longest = null;
+            Drone longestBest = null;
+            long longestMillis = -1;
+            Iterator<Job> waiting = jobs.iterator();
+            while (waiting.hasNext()) {
+                Job job = waiting.next();
+                Drone best = null;
+                long bestMillis = Long.MAX_VALUE;
+                for (Drone drone : free) {
+                    long millis = job.distanceMillis / drone.getSpeed();
+                    if (drone.getCapacity() >= job.size && millis < bestMillis) {
+                        best = drone;
+                        bestMillis = millis;
+                    }
+                }
+                if (best == null) {
+                    waiting.remove();
+                    unassigned.add(job);
+                } else if (bestMillis > longestMillis) {
+                    longest = job;
+                    longestBest = best;
+                    longestMillis = bestMillis;
+                }
+            }
+            if (longest != null) {
+                jobs.remove(longest);
+                free.remove(longestBest);
+                busy.add(longestBest);
+                longestBest.assignJob(longest.job);
+            }
+        }
+        //Only possible if Drones carry different numbers of Orders. Given back once every Drone here has its job, as
+        //giving a job back dispatches again.
+        for (Job job : unassigned) {
+            giveBack(job.job);
+        }
+    }
+
+    /**
+     * Takes up to one waiting job for each free Drone, restocks and deliveries in turn.
+     * @param count : Number of free Drones
+     * @param capacity : Largest number of Orders a free Drone can carry, so a trip is planned as large as it could be
+     * @return : Jobs taken
+     */
+    private List<Job> takeJobs(int count, int capacity) {
+        DeliveryPlanner planner = stockManager.getDeliveryPlanner();
+        List<Job> jobs = new ArrayList<>();
+        boolean restocksLeft = true;
+        boolean tripsLeft = true;
+        boolean restockTurn = restockFirst;
+        while (jobs.size() < count && (restocksLeft || tripsLeft)) {
+            if (restockTurn && restocksLeft) {
+                Ingredient ingredient = stockManager.findIngredientToRestock();
+                if (ingredient == null) {
+                    restocksLeft = false;
+                } else {
+                    jobs.add(new Job(ingredient, 1, restockMillis(ingredient)));
+                    restockFirst = false;
+                }
+            } else if (!restockTurn && tripsLeft) {
+                DeliveryTrip trip = planner.nextTrip(capacity);
+                if (trip == null) {
+                    tripsLeft = false;
+                } else {
+                    jobs.add(new Job(trip, trip.getOrders().size(), trip.durationMillis(1)));
+                    restockFirst = true;
+                }
+            }
+            restockTurn = !restockTurn;
+        }
+        return jobs;
+    }
+
+    /**
+     * Puts a job that no Drone has started back where it came from, so it is handed out again.
+     * @param job : Ingredient to restock or DeliveryTrip to fly
+     */
+    private void giveBack(Object job) {
+        if (job instanceof Ingredient) {
+            StockItem stock = stockManager.getStockItem((Ingredient) job);
+            if (stock != null) {
+                stock.setBeingRestocked(false);
+                stockManager.stockChanged(stock, false);
+            }
+        } else if (job instanceof DeliveryTrip) {
+            for (Order order : ((DeliveryTrip) job).getOrders()) {
+                stockManager.getDeliveryPlanner().orderPrepared(order);
+            }
+        }
+    }
+
+    /**
+     * Gets the time to fetch an Ingredient at a speed of 1
+     * @param ingredient : Ingredient to restock
+     * @return : Milliseconds there and back
+     */
+    private static long restockMillis(Ingredient ingredient) {
+        return 2 * ingredient.getSupplier().getDistance() * 1000L;
+    }
+
+    /**
+     * A job taken to be handed to a Drone
+     */
+    private static class Job {
+        //Ingredient to restock or DeliveryTrip to fly
+        private final Object job;
+        //Number of Orders carried
+        private final int size;
+        //Time the job takes a Drone of speed 1
+        private final long distanceMillis;
+
+        Job(Object job, int size, long distanceMillis) {
+            this.job = job;
+            this.size = size;
+            this.distanceMillis = distanceMillis;
+        }
+    }
+}
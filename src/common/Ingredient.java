@@ -11,7 +11,7 @@ public class Ingredient extends Model implements Serializable {
 
     private String measurementUnit;
     private Supplier supplier;
-    private StockManager stockManager;
+    private transient StockManager stockManager;
 
     public Ingredient(String name, String unit, Supplier supplier, StockManager stockManager) {
         notifyUpdate("instantiation",null, this);
@@ -0,0 +1,117 @@
+package common;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work for the kitchen Staff: Orders to prepare and Dishes to cook.
+ * New orders, Dish stock falling to its restock threshold and Ingredients arriving all add work here, so Staff can wait
+ * on the queue and start as soon as there is something to do rather than checking every few seconds.
+ * Orders and Dishes that can't be done yet are held back until the stock they're waiting on arrives.
+ * @author Oscar van Leusen
+ */
+public class KitchenQueue implements Serializable {
+
+    //Each job is either an Order to prepare or a Dish to cook
+    private final LinkedBlockingQueue<Model> jobs = new LinkedBlockingQueue<>();
+    //Jobs currently in the queue, so that the same job isn't queued more than once
+    private final Set<Model> queued = ConcurrentHashMap.newKeySet();
+    //Orders waiting for Dishes to be cooked
+    private final Set<Order> ordersWaiting = ConcurrentHashMap.newKeySet();
+    //Dishes waiting for Ingredients to be delivered
+    private final Set<Dish> dishesWaiting = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Adds an Order that needs preparing, called when an Order is checked out.
+     * @param order : Order to prepare
+     */
+    public void orderPlaced(Order order) {
+        add(order);
+    }
+
+    /**
+     * Adds a Dish that needs cooking, called when its stock falls to its restock threshold.
+     * @param dish : Dish to cook
+     */
+    public void dishLow(Dish dish) {
+        add(dish);
+    }
+
+    /**
+     * Called when Dishes have been added to stock, so any Orders waiting on Dishes are tried again.
+     */
+    public void dishesMade() {
+        requeue(ordersWaiting);
+    }
+
+    /**
+     * Called when Ingredients have been added to stock, so any Dishes waiting on Ingredients are tried again.
+     */
+    public void ingredientsArrived() {
+        requeue(dishesWaiting);
+    }
+
+    /**
+     * Holds back an Order until more Dishes are made
+     * @param order : Order that couldn't be prepared
+     */
+    public void waitForDishes(Order order) {
+        ordersWaiting.add(order);
+    }
+
+    /**
+     * Stops holding back an Order, called when it was prepared after being held back
+     * @param order : Order no longer waiting for Dishes
+     */
+    public void stopWaiting(Order order) {
+        ordersWaiting.remove(order);
+    }
+
+    /**
+     * Holds back a Dish until more Ingredients arrive
+     * @param dish : Dish that couldn't be cooked
+     */
+    public void waitForIngredients(Dish dish) {
+        dishesWaiting.add(dish);
+    }
+
+    /**
+     * Waits for the next job
+     * @param timeout : Maximum time to wait
+     * @param unit : Unit of the timeout
+     * @return : Order or Dish, or null if there was no work before the timeout.
+     * @throws InterruptedException : Thrown if the waiting Staff member is interrupted
+     */
+    public Model take(long timeout, TimeUnit unit) throws InterruptedException {
+        Model job = jobs.poll(timeout, unit);
+        if (job != null) {
+            queued.remove(job);
+        }
+        return job;
+    }
+
+    /**
+     * Adds a job unless it is already waiting in the queue
+     * @param job : Order or Dish
+     */
+    private void add(Model job) {
+        if (queued.add(job)) {
+            jobs.add(job);
+        }
+    }
+
+    /**
+     * Moves every held back job onto the queue
+     * @param waiting : Set of held back jobs
+     */
+    private <T extends Model> void requeue(Set<T> waiting) {
+        for (T job : waiting) {
+            if (waiting.remove(job)) {
+                add(job);
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Configuration file or backup that is memory-mapped rather than read into memory, for files too large to hold as
+ * Strings. The file is scanned once to find where each line starts, keeping only that position, and a line's fields
+ * are only read out of the mapped file when its stage of loading asks for them. The operating system pages the file in
+ * and out as needed, so loading a file of several gigabytes doesn't need a heap of the same size.
+ * Files are mapped in regions of up to 1GB, each starting at the beginning of a line, so no line is split between two.
+ * On Windows, a mapped file can't be deleted until it has been garbage collected, so only large files are mapped.
+ * @author Oscar van Leusen
+ */
+public class MappedConfigurationFile implements Configuration.RecordSource {
+
+    private static final int REGION_SIZE = 1 << 30;
+    private static final byte SEPARATOR = ':';
+    private static final Configuration.RecordType[] TYPES = Configuration.RecordType.values();
+    //Each record type's name as it is written at the start of a line
+    private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+
+    static {
+        for (Configuration.RecordType type : TYPES) {
+            TYPE_NAMES[type.ordinal()] = type.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    //Where each line starts, by record type: the region in the top 32 bits and the offset into the region in the bottom 32
+    private final long[][] lineStarts = new long[TYPES.length][];
+    private final int[] lineCounts = new int[TYPES.length];
+
+    private MappedConfigurationFile() {
+        for (int i=0; i<TYPES.length; i++) {
+            lineStarts[i] = new long[16];
+        }
+    }
+
+    /**
+     * Maps a file and finds where each of its lines starts
+     * @param file : Configuration file or text backup
+     * @return : MappedConfigurationFile
+     * @throws IOException : Thrown if the file can't be read, or has a line longer than a region
+     */
+    public static MappedConfigurationFile open(File file) throws IOException {
+        MappedConfigurationFile mapped = new MappedConfigurationFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(REGION_SIZE, size - position);
+                boolean lastRegion = position + length == size;
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = mapped.indexRegion(region, mapped.regions.size(), lastRegion);
+                if (consumed == 0) {
+                    throw new IOException("Line longer than " + REGION_SIZE + " bytes in " + file.getName());
+                }
+                mapped.regions.add(region);
+                position += consumed;
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Finds where each line in a region starts. A line that runs off the end of the region (unless it is the last one)
+     * is left for the next region, which starts from the beginning of that line.
+     * @param region : Mapped region of the file
+     * @param regionNumber : Number of the region
+     * @param lastRegion : True if the region runs to the end of the file
+     * @return : Number of bytes of the region holding whole lines
+     */
+    private int indexRegion(MappedByteBuffer region, int regionNumber, boolean lastRegion) {
+        int limit = region.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineEnd(region, lineStart);
+            if (lineEnd == limit && !lastRegion) {
+                break;
+            }
+            int type = recordType(region, lineStart, lineEnd);
+            if (type >= 0) {
+                addLine(type, ((long) regionNumber << 32) | lineStart);
+            }
+            //Skips the \n, \r or \r\n ending the line
+            lineStart = lineEnd + 1;
+            if (lineEnd < limit && region.get(lineEnd) == '\r' && lineStart < limit && region.get(lineStart) == '\n') {
+                lineStart++;
+            }
+        }
+        return Math.min(lineStart, limit);
+    }
+
+    /**
+     * Finds the end of a line
+     * @param region : Region holding the line
+     * @param lineStart : Offset of the start of the line
+     * @return : Offset of the line's \n or \r, or the end of the region if it has neither
+     */
+    private static int lineEnd(MappedByteBuffer region, int lineStart) {
+        int limit = region.limit();
+        int position = lineStart;
+        while (position < limit) {
+            byte next = region.get(position);
+            if (next == '\n' || next == '\r') {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Works out the record type of a line from the bytes before its first ':'
+     * @param region : Region holding the line
+     * @param lineStart : Offset of the start of the line
+     * @param lineEnd : Offset of the end of the line
+     * @return : Ordinal of the RecordType, or -1 if the line isn't a record
+     */
+    private static int recordType(MappedByteBuffer region, int lineStart, int lineEnd) {
+        for (int type=0; type<TYPE_NAMES.length; type++) {
+            byte[] name = TYPE_NAMES[type];
+            int separator = lineStart + name.length;
+            if (separator >= lineEnd || region.get(separator) != SEPARATOR) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i=0; i<name.length && matches; i++) {
+                matches = region.get(lineStart + i) == name[i];
+            }
+            if (matches) {
+                return type;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records where a line of a record type starts
+     * @param type : Ordinal of the RecordType
+     * @param lineStart : Region and offset of the start of the line
+     */
+    private void addLine(int type, long lineStart) {
+        if (lineCounts[type] == lineStarts[type].length) {
+            lineStarts[type] = Arrays.copyOf(lineStarts[type], lineStarts[type].length * 2);
+        }
+        lineStarts[type][lineCounts[type]++] = lineStart;
+    }
+
+    @Override
+    public int count(Configuration.RecordType type) {
+        return lineCounts[type.ordinal()];
+    }
+
+    /**
+     * Finds a line's fields in the mapped file. Nothing is copied out of the file until a field is asked for, and then
+     * only that field: names are decoded into Strings, and numbers are read straight from the file's bytes.
+     * Reads don't move the region's position, so lines can be read from several threads at once.
+     * @param type : Type of record
+     * @param index : Index of the line among the lines of its type
+     * @return : Line
+     */
+    @Override
+    public Configuration.Line line(Configuration.RecordType type, int index) {
+        if (index >= lineCounts[type.ordinal()]) {
+            throw new IndexOutOfBoundsException("No " + type + " line " + index);
+        }
+        long lineStart = lineStarts[type.ordinal()][index];
+        MappedByteBuffer region = regions.get((int) (lineStart >>> 32));
+        int start = (int) lineStart;
+        return new MappedLine(region, start, lineEnd(region, start));
+    }
+
+    /**
+     * A line of a mapped file, holding only where each of its fields starts
+     */
+    private static class MappedLine implements Configuration.Line {
+        private final MappedByteBuffer region;
+        //Offset of the start of each field, then of one past the end of the line as if another field followed it
+        private final int[] fieldStarts;
+        private final int size;
+
+        MappedLine(MappedByteBuffer region, int lineStart, int lineEnd) {
+            this.region = region;
+            int[] starts = new int[8];
+            int fields = 0;
+            starts[fields++] = lineStart;
+            for (int i=lineStart; i<lineEnd; i++) {
+                if (region.get(i) == SEPARATOR) {
+                    if (fields + 1 == starts.length) {
+                        starts = Arrays.copyOf(starts, starts.length * 2);
+                    }
+                    starts[fields++] = i + 1;
+                }
+            }
+            starts[fields] = lineEnd + 1;
+            this.fieldStarts = starts;
+            this.size = fields;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String field(int field) {
+            checkField(field);
+            //':' never appears inside a multi-byte UTF-8 character, so a field's bytes can be decoded on their own.
+            //The region is duplicated so reading doesn't move its position, which other threads may be using.
+            byte[] bytes = new byte[fieldStarts[field + 1] - 1 - fieldStarts[field]];
+            ByteBuffer view = region.duplicate();
+            view.position(fieldStarts[field]);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long number(int field) {
+            checkField(field);
+            int position = fieldStarts[field];
+            int end = fieldStarts[field + 1] - 1;
+            boolean negative = false;
+            if (position < end && (region.get(position) == '-' || region.get(position) == '+')) {
+                negative = region.get(position) == '-';
+                position++;
+            }
+            if (position == end) {
+                throw new NumberFormatException("For input string: \"" + field(field) + "\"");
+            }
+            //Counted downwards, as Long.parseLong does, so Long.MIN_VALUE can be read without overflowing
+            long value = 0;
+            for (; position < end; position++) {
+                int digit = region.get(position) - '0';
+                if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+                    throw new NumberFormatException("For input string: \"" + field(field) + "\"");
+                }
+                value = value * 10 - digit;
+            }
+            if (!negative) {
+                if (value == Long.MIN_VALUE) {
+                    throw new NumberFormatException("For input string: \"" + field(field) + "\"");
+                }
+                return -value;
+            }
+            return value;
+        }
+
+        /**
+         * Checks the line has a field, as indexing past the end of a split line would
+         * @param field : Index of the field
+         */
+        private void checkField(int field) {
+            if (field < 0 || field >= size) {
+                throw new ArrayIndexOutOfBoundsException("Index " + field + " out of bounds for length " + size);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package common;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static common.Order.OrderState.*;
 
@@ -12,22 +13,69 @@ import static common.Order.OrderState.*;
  */
 public class Order extends Model implements Serializable {
     public enum OrderState {
-        BASKET, PREPARING, PREPARED, DELIVERING, COMPLETE, CANCELLED
+        BASKET, PREPARING, PREPARED, DELIVERING, COMPLETE, CANCELLED;
+
+        /**
+         * Checks whether an Order can move from this state to another. Orders move forward one step at a time from
+         * BASKET to COMPLETE, and can be cancelled at any point before a Drone takes them out for delivery. An Order on
+         * board a Drone that is stopped mid-trip goes back to PREPARED to wait for another Drone.
+         * @param next : State to move to
+         * @return : True if the move is allowed, False if not.
+         */
+        public boolean canMoveTo(OrderState next) {
+            switch (this) {
+                case BASKET:
+                    return next == PREPARING || next == CANCELLED;
+                case PREPARING:
+                    return next == PREPARED || next == CANCELLED;
+                case PREPARED:
+                    return next == DELIVERING || next == CANCELLED;
+                case DELIVERING:
+                    return next == COMPLETE || next == PREPARED;
+                default:
+                    //COMPLETE and CANCELLED are final
+                    return false;
+            }
+        }
+
+        /**
+         * Gets the status shown to users for an Order in this state, by both the Server and Client
+         * @return : Status of the Order
+         */
+        public String getStatus() {
+            switch (this) {
+                case BASKET:
+                    return "In Basket";
+                case PREPARING:
+                    return "Preparing";
+                case PREPARED:
+                    return "Prepared";
+                case DELIVERING:
+                    return "Delivering";
+                case COMPLETE:
+                    return "Completed";
+                case CANCELLED:
+                    return "Cancelled";
+                default:
+                    return "";
+            }
+        }
     }
 
-    //The price of the current order as an integer (Rather than float to avoid
-    private Double orderPrice;
+    //The price of the current order in pence as an integer (Rather than a double to avoid rounding errors adding up).
+    //Kept up to date as the basket changes, rather than being added up again every time it is read.
+    private volatile long pricePence;
     private HashMap<Dish, Number> basket = new HashMap<>();
     private User user;
     private int orderNumber;
-    private OrderState state;
+    //Staff, Drones and Clients all change the state from different threads, so every change is made with compareAndSet.
+    private final AtomicReference<OrderState> state = new AtomicReference<>(BASKET);
 
     public Order(User user, int orderNumber) {
-        this.orderPrice = 0.00;
+        this.pricePence = 0;
         this.user = user;
         this.name = user.getName() + "'s order.";
         this.orderNumber = orderNumber;
-        this.state = BASKET;
     }
 
     /**
@@ -35,7 +83,7 @@ public class Order extends Model implements Serializable {
      * @param dish : Dish to add to the order
      * @param quantity : Number of dishes to add
      */
-    public void addDish(Dish dish, int quantity) {
+    public synchronized void addDish(Dish dish, int quantity) {
         //If we already had this item in our basket, update the quantity in the basket.
         if (basket.containsKey(dish)) {
             notifyUpdate("dish quantity added", basket.get(dish), basket.get(dish).intValue() + quantity);
@@ -44,16 +92,20 @@ public class Order extends Model implements Serializable {
             notifyUpdate("dish added", 0, quantity);
             basket.put(dish, quantity);
         }
-        calculatePrice();
+        adjustPrice(dish, quantity);
     }
 
     /**
      * Adds multiple dishes an quantities to this this order.
      * @param order : HashMap containing Dishes and number of dishes to add.
      */
-    public void addDishes(HashMap<Dish, Number> order) {
-        basket.putAll(order);
-        calculatePrice();
+    public synchronized void addDishes(HashMap<Dish, Number> order) {
+        for (Map.Entry<Dish, Number> dishQuantity : order.entrySet()) {
+            //Replaces any quantity of the dish already in the basket
+            Number oldQuantity = basket.put(dishQuantity.getKey(), dishQuantity.getValue());
+            int change = dishQuantity.getValue().intValue() - (oldQuantity == null ? 0 : oldQuantity.intValue());
+            adjustPrice(dishQuantity.getKey(), change);
+        }
         notifyUpdate();
     }
 
@@ -62,34 +114,37 @@ public class Order extends Model implements Serializable {
      * @param dish : Dish to update
      * @param newQuantity : New amount of this dish to have in the basket.
      */
-    public void updateDishQuantity(Dish dish, int newQuantity) {
+    public synchronized void updateDishQuantity(Dish dish, int newQuantity) {
+        int oldQuantity = 0;
         if (basket.containsKey(dish)) {
+            oldQuantity = basket.get(dish).intValue();
             notifyUpdate("dish quantity in basket updated", basket.get(dish), newQuantity);
             basket.replace(dish, newQuantity);
         } else {
             notifyUpdate("dish added", 0, newQuantity);
             basket.put(dish, newQuantity);
         }
-        calculatePrice();
+        adjustPrice(dish, newQuantity - oldQuantity);
     }
 
     /**
      * Removes a dish from the basket
      * @param dish : Dish to remove
      */
-    public void removeDish(Dish dish) {
+    public synchronized void removeDish(Dish dish) {
         if (basket.containsKey(dish)) {
             notifyUpdate("removed dish", dish, null);
-            basket.remove(dish);
-            calculatePrice();
+            Number oldQuantity = basket.remove(dish);
+            adjustPrice(dish, -oldQuantity.intValue());
         }
     }
 
     /**
      * Clears the contents of the order/basket.
      */
-    public void clear() {
+    public synchronized void clear() {
         basket.clear();
+        setPricePence(0);
         notifyUpdate();
     }
 
@@ -108,7 +163,7 @@ public class Order extends Model implements Serializable {
      * @param dish : Dish to remove
      * @param quantity : Number to remove
      */
-    public void removeDishQuantity(Dish dish, int quantity) {
+    public synchronized void removeDishQuantity(Dish dish, int quantity) {
         //Make sure that this Dish is already in the basket, otherwise do nothing.
         if (basket.containsKey(dish)) {
             //If the amount we want to remove makes the quantity zero or lower, we remove the dish entirely.
@@ -117,35 +172,82 @@ public class Order extends Model implements Serializable {
             } else {
                 notifyUpdate("dish quantity removed", basket.get(dish), basket.get(dish).intValue() - quantity);
                 basket.put(dish, basket.get(dish).intValue() - quantity);
+                adjustPrice(dish, -quantity);
             }
         }
-        calculatePrice();
     }
 
     /**
      * Gets the total order price
-     * @return long : Total order price for all the items ordered.
+     * @return Double : Total order price for all the items ordered, in pounds.
      */
     public Double orderPrice() {
-        calculatePrice();
-        return this.orderPrice;
+        return this.pricePence / 100.0;
+    }
+
+    /**
+     * Gets the total order price in pence
+     * @return long : Total order price for all the items ordered, in pence.
+     */
+    public long getPricePence() {
+        return this.pricePence;
+    }
+
+    /**
+     * Adds up the price of the whole basket from scratch, used when the basket is replaced all at once.
+     * Dish prices are taken at the time this is called, as they are when each Dish is added.
+     */
+    public synchronized void calculatePrice() {
+        setPricePence(basketPricePence());
+    }
+
+    /**
+     * Checks that the running total matches the price of the basket added up from scratch, correcting it if not.
+     * The running total goes stale if a Dish in the basket changes price, so the Server checks it before quoting a basket.
+     * @return : True if the running total was correct, False if it had to be corrected.
+     */
+    public synchronized boolean reconcilePrice() {
+        long expected = basketPricePence();
+        if (expected == this.pricePence) {
+            return true;
+        }
+        setPricePence(expected);
+        return false;
     }
 
     /**
-     * Calculates/recalculates the price of the basket, called after any modification of the basket.
+     * Adds up the price of every Dish in the basket
+     * @return : Price of the basket in pence
      */
-    public void calculatePrice() {
-        Double oldPrice = this.orderPrice;
-        this.orderPrice = 0.00;
+    private long basketPricePence() {
+        long total = 0;
         for (Map.Entry<Dish, Number> basketEntry : basket.entrySet()) {
-            Dish dish = basketEntry.getKey();
-            Integer quantity = basketEntry.getValue().intValue();
-            this.orderPrice+=dish.dishPrice()*quantity;
+            total += basketEntry.getKey().pricePence() * basketEntry.getValue().intValue();
         }
-        if (!oldPrice.equals(orderPrice)) {
-            notifyUpdate("price", oldPrice, this.orderPrice);
+        return total;
+    }
+
+    /**
+     * Changes the running total by the price of a number of one Dish
+     * @param dish : Dish added or removed
+     * @param quantityChange : Number added (positive) or removed (negative)
+     */
+    private void adjustPrice(Dish dish, int quantityChange) {
+        if (quantityChange != 0) {
+            setPricePence(this.pricePence + dish.pricePence() * quantityChange);
         }
+    }
 
+    /**
+     * Sets the running total, informing listeners if it changed.
+     * @param newPricePence : New price of the order in pence
+     */
+    private void setPricePence(long newPricePence) {
+        long oldPricePence = this.pricePence;
+        this.pricePence = newPricePence;
+        if (oldPricePence != newPricePence) {
+            notifyUpdate("price", oldPricePence / 100.0, newPricePence / 100.0);
+        }
     }
 
     /**
@@ -156,16 +258,26 @@ public class Order extends Model implements Serializable {
         return this.basket;
     }
 
-    public void setBasket(HashMap<Dish, Number> newOrderData) {
+    /**
+     * Copies the user's basket, so it can be read while the basket is still being changed
+     * @return Copy of the basket
+     */
+    public synchronized HashMap<Dish, Number> copyBasket() {
+        return new HashMap<>(this.basket);
+    }
+
+    public synchronized void setBasket(HashMap<Dish, Number> newOrderData) {
         this.basket.clear();
         this.basket = newOrderData;
+        calculatePrice();
     }
 
     /**
      * Updates the order's OrderState to indicate that it has been cancelled.
+     * @return : True if the order was cancelled, False if it was already out for delivery, complete or cancelled.
      */
-    public void cancelOrder() {
-        setOrderState(OrderState.CANCELLED);
+    public boolean cancelOrder() {
+        return moveTo(OrderState.CANCELLED);
     }
 
     /**
@@ -176,7 +288,7 @@ public class Order extends Model implements Serializable {
     public synchronized void deliverOrder(int flyingSpeed) throws InterruptedException {
         float sleepSeconds = ((float) user.getPostcode().getDistance() * 200) / flyingSpeed;
         Thread.sleep((long) (1000*sleepSeconds));
-        setOrderState(OrderState.COMPLETE);
+        compareAndSetOrderState(OrderState.DELIVERING, OrderState.COMPLETE);
         System.out.println("Drone delivered " + user.getName() + "'s order in " + sleepSeconds + " seconds.");
     }
 
@@ -210,13 +322,49 @@ public class Order extends Model implements Serializable {
     }
 
     /**
-     * Sets the state of the Order to an OrderState enum value
+     * Sets the state of the Order to an OrderState enum value without checking the current state.
+     * Only used when restoring an Order (eg: loading it or receiving it from the Server), use moveTo or
+     * compareAndSetOrderState to progress an Order.
      * @param state : New state of the order
      */
     public void setOrderState(OrderState state) {
-        notifyUpdate("state", this.state, state);
-        this.state = state;
+        OrderState oldState = this.state.getAndSet(state);
+        notifyUpdate("state", oldState, state);
+    }
+
+    /**
+     * Moves the Order from one state to another, only if it is still in the expected state.
+     * @param expected : State the Order must currently be in
+     * @param next : New state of the order
+     * @return : True if the state was changed, False if the Order was no longer in the expected state.
+     * @throws IllegalStateException : Thrown if the Order isn't allowed to move from the expected state to the new one
+     */
+    public boolean compareAndSetOrderState(OrderState expected, OrderState next) {
+        if (!expected.canMoveTo(next)) {
+            throw new IllegalStateException("Order cannot move from " + expected + " to " + next);
+        }
+        if (state.compareAndSet(expected, next)) {
+            notifyUpdate("state", expected, next);
+            return true;
+        }
+        return false;
+    }
 
+    /**
+     * Moves the Order to a new state from whatever state it is currently in, if that move is allowed.
+     * @param next : New state of the order
+     * @return : True if the state was changed, False if the Order's current state can't move to the new one.
+     */
+    public boolean moveTo(OrderState next) {
+        while (true) {
+            OrderState current = state.get();
+            if (!current.canMoveTo(next)) {
+                return false;
+            }
+            if (compareAndSetOrderState(current, next)) {
+                return true;
+            }
+        }
     }
 
     /**
@@ -233,7 +381,7 @@ public class Order extends Model implements Serializable {
      * @return : OrderState enum value
      */
     public OrderState getOrderState() {
-        return this.state;
+        return this.state.get();
     }
 
     /**
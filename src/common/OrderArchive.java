@@ -0,0 +1,338 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Completed and cancelled Orders that have been moved out of the OrderRegistry, so the Orders the Server works on stay
+ * few however long it has been running.
+ * Orders are kept for a retention period after they finish so Clients and the ServerWindow can still see them, then are
+ * appended to the archive file. Each User's archived Orders are indexed by their position in the file, so a User's
+ * order history is read back without scanning the whole archive. The index is rebuilt from the file on start-up.
+ * @author Oscar van Leusen
+ */
+public class OrderArchive implements Runnable {
+
+    public static final String ARCHIVE_FILE = "Sushi-Order-Archive.txt";
+    //How often finished Orders are checked to see if they are due to be archived
+    private static final long SWEEP_MILLIS = 5000;
+
+    private final OrderRegistry orders;
+    private final Catalog catalog;
+    private final long retentionMillis;
+    private final RandomAccessFile file;
+    //Position of every archived Order in the file, by username then order number.
+    private final Map<String, ConcurrentSkipListMap<Integer, ArchiveEntry>> index = new ConcurrentHashMap<>();
+    //When each Order still in the registry was first seen to be complete or cancelled
+    private final Map<Order, Long> finishedSince = new HashMap<>();
+    private volatile boolean threadRunning = true;
+
+    /**
+     * Opens the archive file, creating it if it doesn't exist, and indexes the Orders already in it.
+     * @param archiveFile : File the archive is stored in
+     * @param orders : Registry to archive finished Orders from
+     * @param catalog : Catalog to remove archived Orders from, and to find Dishes in when Orders are read back
+     * @param retentionMillis : Time an Order is kept in the registry after it finishes
+     * @throws IOException : Thrown if the archive file can't be opened or read
+     */
+    public OrderArchive(File archiveFile, OrderRegistry orders, Catalog catalog, long retentionMillis) throws IOException {
+        this.orders = orders;
+        this.catalog = catalog;
+        this.retentionMillis = retentionMillis;
+        this.file = new RandomAccessFile(archiveFile, "rw");
+        loadIndex(archiveFile);
+    }
+
+    /**
+     * Thread that periodically archives Orders that finished more than the retention period ago.
+     */
+    @Override
+    public void run() {
+        while (threadRunning) {
+            try {
+                Thread.sleep(Math.min(SWEEP_MILLIS, Math.max(retentionMillis, 1)));
+            } catch (InterruptedException e) {
+                break;
+            }
+            archiveExpired();
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the archive thread, closing the archive file.
+     */
+    public void cancelThread() {
+        threadRunning = false;
+    }
+
+    /**
+     * Moves every Order that has been complete or cancelled for longer than the retention period into the archive.
+     * Only the registry's indexes of finished Orders are looked at, not every Order.
+     * Once an Order leaves the registry it is in no later backup or journal, so it is only removed after the archive
+     * file has been forced to disk.
+     */
+    synchronized void archiveExpired() {
+        long now = System.currentTimeMillis();
+        List<Order> finished = new ArrayList<>(orders.getOrders(Order.OrderState.COMPLETE));
+        finished.addAll(orders.getOrders(Order.OrderState.CANCELLED));
+        //Forget Orders that were removed from the Server by hand.
+        finishedSince.keySet().retainAll(finished);
+
+        List<Order> archived = new ArrayList<>();
+        for (Order order : finished) {
+            long since = finishedSince.computeIfAbsent(order, o -> now);
+            if (now - since >= retentionMillis) {
+                try {
+                    //Another Order may already have this number in the archive, in which case this one stays on the Server.
+                    if (append(order)) {
+                        archived.add(order);
+                    }
+                } catch (IOException e) {
+                    //Leave the Order where it is, it is tried again next time.
+                    e.printStackTrace();
+                    break;
+                }
+            }
+        }
+        if (archived.isEmpty()) {
+            return;
+        }
+
+        try {
+            file.getChannel().force(false);
+        } catch (IOException e) {
+            //The Orders are indexed so they can't be archived twice, and stay on the Server so they are still backed up.
+            e.printStackTrace();
+            return;
+        }
+        for (Order order : archived) {
+            orders.remove(order);
+            catalog.removeOrder(order);
+            finishedSince.remove(order);
+        }
+    }
+
+    /**
+     * Deletes the archive file, so Orders archived under another Configuration aren't read back as the history of
+     * Users that happen to have the same names.
+     * @param archiveFile : File the archive is stored in
+     * @throws IOException : Thrown if the file exists but can't be deleted
+     */
+    public static void clear(File archiveFile) throws IOException {
+        Files.deleteIfExists(archiveFile.toPath());
+    }
+
+    /**
+     * Gets every archived Order made by a User
+     * @param user : User to get the Orders of
+     * @return : List of the User's archived Orders, oldest first.
+     */
+    public List<Order> getOrders(User user) {
+        List<Order> userOrders = new ArrayList<>();
+        ConcurrentSkipListMap<Integer, ArchiveEntry> entries = index.get(user.getName());
+        if (entries != null) {
+            for (ArchiveEntry entry : entries.values()) {
+                Order order = read(user, entry);
+                if (order != null) {
+                    userOrders.add(order);
+                }
+            }
+        }
+        return userOrders;
+    }
+
+    /**
+     * Gets an archived Order
+     * @param user : User who made the Order
+     * @param orderNumber : User's order number of the Order
+     * @return : Archived Order, or null if it isn't in the archive.
+     */
+    public Order getOrder(User user, int orderNumber) {
+        ConcurrentSkipListMap<Integer, ArchiveEntry> entries = index.get(user.getName());
+        ArchiveEntry entry = entries == null ? null : entries.get(orderNumber);
+        return entry == null ? null : read(user, entry);
+    }
+
+    /**
+     * Writes an Order to the end of the archive file and indexes it.
+     * Structure: ARCHIVED:User:OrderNumber:State:Quantity * Dish,Quantity * Dish ...
+     * @param order : Finished Order
+     * @return : False if the User already has an archived Order with the same number, in which case nothing is written
+     * @throws IOException : Thrown if the Order can't be written
+     */
+    private synchronized boolean append(Order order) throws IOException {
+        String username = order.getUser().getName();
+        ConcurrentSkipListMap<Integer, ArchiveEntry> entries = index.get(username);
+        if (entries != null && entries.containsKey(order.getUserOrderNum())) {
+            System.out.println("Not archiving " + username + "'s order " + order.getUserOrderNum()
+                    + ", an archived order already has that number");
+            return false;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("ARCHIVED:");
+        sb.append(order.getUser().getName());
+        sb.append(":");
+        sb.append(order.getUserOrderNum());
+        sb.append(":");
+        sb.append(order.getOrderState().name());
+        sb.append(":");
+        for (Map.Entry<Dish, Number> dishQuantity : order.getBasket().entrySet()) {
+            sb.append(dishQuantity.getValue().intValue()).append(" * ").append(dishQuantity.getKey().getName()).append(",");
+        }
+        //Removes the excess comma at the end of the list of dishes, if there were any.
+        if (sb.charAt(sb.length() - 1) == ',') {
+            sb.setLength(sb.length() - 1);
+        }
+        sb.append("\n");
+
+        byte[] line = sb.toString().getBytes(StandardCharsets.UTF_8);
+        long offset = file.length();
+        file.seek(offset);
+        file.write(line);
+        addToIndex(username, order.getUserOrderNum(), new ArchiveEntry(offset, line.length - 1));
+        return true;
+    }
+
+    /**
+     * Reads an archived Order back from the file
+     * @param user : User who made the Order
+     * @param entry : Position of the Order in the file
+     * @return : Order, or null if it couldn't be read.
+     */
+    private Order read(User user, ArchiveEntry entry) {
+        byte[] line = new byte[entry.length];
+        synchronized (this) {
+            try {
+                file.seek(entry.offset);
+                file.readFully(line);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        //Structure: [0]ARCHIVED:[1]User:[2]OrderNumber:[3]State:[4]Quantity * Dish,Quantity * Dish ...
+        String[] lineParse = new String(line, StandardCharsets.UTF_8).split(":", 5);
+        Order order = new Order(user, Integer.parseInt(lineParse[2]));
+        HashMap<Dish, Number> basket = new HashMap<>();
+        if (lineParse.length > 4 && !lineParse[4].isEmpty()) {
+            for (String orderContent : lineParse[4].split(",")) {
+                String[] orderInfo = orderContent.split("\\s\\*\\s");
+                //Dishes removed from the menu since the Order was made are left out.
+                Dish dish = catalog.getDish(orderInfo[1]);
+                if (dish != null) {
+                    basket.put(dish, Integer.parseInt(orderInfo[0]));
+                }
+            }
+        }
+        order.setBasket(basket);
+        order.setOrderState(Order.OrderState.valueOf(lineParse[3]));
+        return order;
+    }
+
+    /**
+     * Builds the index from the Orders already in the archive file, so history survives a restart.
+     * Archived Orders aren't in any backup, so each User's count of orders made is raised past their highest archived
+     * order number, otherwise new Orders would reuse the numbers of archived ones.
+     * @param archiveFile : File the archive is stored in
+     * @throws IOException : Thrown if the file can't be read
+     */
+    private void loadIndex(File archiveFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(archiveFile))) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            long lineStart = 0;
+            long position = 0;
+            int fields = 0;
+            int read;
+            while ((read = in.read()) != -1) {
+                //Only the username and order number at the start of the line are needed for the index.
+                if (read == '\n') {
+                    addLineToIndex(new String(header.toByteArray(), StandardCharsets.UTF_8), lineStart, (int) (position - lineStart));
+                    header.reset();
+                    fields = 0;
+                    lineStart = position + 1;
+                } else if (fields < 3) {
+                    if (read == ':') {
+                        fields++;
+                    }
+                    header.write(read);
+                }
+                position++;
+            }
+        }
+
+        for (Map.Entry<String, ConcurrentSkipListMap<Integer, ArchiveEntry>> userEntries : index.entrySet()) {
+            User user = catalog.getUser(userEntries.getKey());
+            int highestArchived = userEntries.getValue().lastKey();
+            if (user != null && user.getOrdersMade() <= highestArchived) {
+                user.setOrdersMade(highestArchived + 1);
+            }
+        }
+    }
+
+    /**
+     * Indexes a line read from the archive file
+     * @param header : Start of the line, up to the Order's state
+     * @param offset : Position of the line in the file
+     * @param length : Length of the line in bytes, without the new line
+     */
+    private void addLineToIndex(String header, long offset, int length) {
+        //Structure: [0]ARCHIVED:[1]User:[2]OrderNumber:
+        String[] lineParse = header.split(":");
+        if (lineParse.length < 3 || !lineParse[0].equals("ARCHIVED")) {
+            return;
+        }
+        try {
+            addToIndex(lineParse[1], Integer.parseInt(lineParse[2]), new ArchiveEntry(offset, length));
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds an Order's position to the index. If the User already has an archived Order with the same number, the one
+     * already indexed is kept, so an archived Order is never hidden by a later one.
+     * @param username : Name of the User who made the Order
+     * @param orderNumber : User's order number of the Order
+     * @param entry : Position of the Order in the file
+     */
+    private void addToIndex(String username, int orderNumber, ArchiveEntry entry) {
+        ArchiveEntry existing = index.computeIfAbsent(username, name -> new ConcurrentSkipListMap<>()).putIfAbsent(orderNumber, entry);
+        if (existing != null) {
+            System.out.println("Ignoring archived order " + orderNumber + " of " + username + " at " + entry.offset
+                    + ", an order with that number is already archived");
+        }
+    }
+
+    /**
+     * Where an archived Order's line is in the archive file.
+     */
+    private static class ArchiveEntry {
+        private final long offset;
+        private final int length;
+
+        ArchiveEntry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Every Order on the Server, shared by the ServerWindow, Staff and the Client connections.
+ * Orders are also indexed by their OrderState, so Staff only look through the Orders being prepared rather than
+ * checking the state of every Order ever made. Orders can be read and iterated from any thread without locking,
+ * iterating the full list works on a snapshot, so Orders added part way through are never a problem.
+ * @author Oscar van Leusen
+ */
+public class OrderRegistry implements UpdateListener {
+
+    //Orders are added far less often than they are read, so copying the list on each change keeps reads lock-free.
+    private final CopyOnWriteArrayList<Order> orders = new CopyOnWriteArrayList<>();
+    //Same Orders as the list, for checking whether an Order is still registered without searching the list.
+    private final Set<Order> registered = ConcurrentHashMap.newKeySet();
+    private final Map<Order.OrderState, Set<Order>> ordersByState = new EnumMap<>(Order.OrderState.class);
+    //Journal that every change of state is passed on to, if there is one
+    private volatile StateJournal journal;
+    //Tracker that every change to an Order is passed on to, if there is one
+    private volatile ChangeTracker changes;
+    //Listener that tells Clients about every change of state, if there is one
+    private volatile UpdateListener publisher;
+
+    public OrderRegistry() {
+        for (Order.OrderState state : Order.OrderState.values()) {
+            ordersByState.put(state, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Adds an Order, and listens for its state changing so that it stays in the right index.
+     * An Order's listeners are a plain list, so the registry starts listening before the Order is visible to anyone.
+     * @param order : Order to add
+     */
+    public void add(Order order) {
+        if (registered.add(order)) {
+            order.addUpdateListener(this);
+            orders.add(order);
+            reindex(order);
+            ChangeTracker currentChanges = changes;
+            if (currentChanges != null) {
+                currentChanges.orderChanged(order);
+            }
+        }
+    }
+
+    /**
+     * Adds many Orders at once. The list of Orders is only copied once, rather than once per Order.
+     * @param newOrders : Orders to add
+     */
+    public void addAll(Collection<Order> newOrders) {
+        List<Order> added = new ArrayList<>();
+        for (Order order : newOrders) {
+            if (registered.add(order)) {
+                added.add(order);
+            }
+        }
+        for (Order order : added) {
+            order.addUpdateListener(this);
+        }
+        orders.addAll(added);
+        ChangeTracker currentChanges = changes;
+        for (Order order : added) {
+            reindex(order);
+            if (currentChanges != null) {
+                currentChanges.orderChanged(order);
+            }
+        }
+    }
+
+    /**
+     * Removes an Order
+     * @param order : Order to remove
+     * @return : True if the Order was in the registry
+     */
+    public boolean remove(Order order) {
+        boolean removed = registered.remove(order);
+        orders.remove(order);
+        for (Set<Order> index : ordersByState.values()) {
+            index.remove(order);
+        }
+        ChangeTracker currentChanges = changes;
+        if (removed && currentChanges != null) {
+            currentChanges.orderRemoved(order);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every Order
+     */
+    public void clear() {
+        registered.clear();
+        orders.clear();
+        for (Set<Order> index : ordersByState.values()) {
+            index.clear();
+        }
+    }
+
+    /**
+     * Gets every Order, in the order they were added. Iterating the list works on a snapshot of it.
+     * @return : Unmodifiable List of Orders
+     */
+    public List<Order> getOrders() {
+        return Collections.unmodifiableList(orders);
+    }
+
+    /**
+     * Gets the Orders currently in a state. The index may briefly lag an Order changing state, so callers should still
+     * check the state of each Order before acting on it.
+     * @param state : OrderState to look up
+     * @return : Unmodifiable Collection of Orders in that state
+     */
+    public Collection<Order> getOrders(Order.OrderState state) {
+        return Collections.unmodifiableSet(ordersByState.get(state));
+    }
+
+    /**
+     * Sets the journal to record every Order's changes of state in
+     * @param journal : StateJournal, or null to stop journaling
+     */
+    public void setJournal(StateJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the tracker to record every Order added, changed or removed in
+     * @param changes : ChangeTracker, or null to stop tracking changes
+     */
+    public void setChangeTracker(ChangeTracker changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * Sets the listener to pass every Order's changes of state on to, so the Clients that made them can be told
+     * @param publisher : Listener, or null to stop passing changes on
+     */
+    public void setPublisher(UpdateListener publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Checks whether an Order is still in the registry
+     * @param order : Order to look for
+     * @return : True if the Order hasn't been removed
+     */
+    public boolean contains(Order order) {
+        return registered.contains(order);
+    }
+
+    /**
+     * Gets the number of Orders
+     * @return : Number of Orders
+     */
+    public int size() {
+        return orders.size();
+    }
+
+    /**
+     * Moves an Order to the index for its current state.
+     * State changes can be reported by different threads out of order, so this is based on the Order's state now rather
+     * than the state in the update, and repeats if the state changes again part way through.
+     * @param order : Order whose state changed
+     */
+    private void reindex(Order order) {
+        Order.OrderState state;
+        do {
+            state = order.getOrderState();
+            for (Map.Entry<Order.OrderState, Set<Order>> index : ordersByState.entrySet()) {
+                if (index.getKey() != state) {
+                    index.getValue().remove(order);
+                }
+            }
+            //Only index Orders that haven't been removed
+            if (registered.contains(order)) {
+                ordersByState.get(state).add(order);
+            }
+        } while (order.getOrderState() != state);
+    }
+
+    /**
+     * Keeps the state indexes up to date when an Order changes state, and passes every change on to the journal, tracker
+     * and publisher.
+     * @param updateEvent information on the update
+     */
+    @Override
+    public void updated(UpdateEvent updateEvent) {
+        if (!(updateEvent.model instanceof Order)) {
+            return;
+        }
+        if ("state".equals(updateEvent.property)) {
+            reindex((Order) updateEvent.model);
+            StateJournal currentJournal = journal;
+            if (currentJournal != null) {
+                currentJournal.updated(updateEvent);
+            }
+            UpdateListener currentPublisher = publisher;
+            if (currentPublisher != null) {
+                currentPublisher.updated(updateEvent);
+            }
+        }
+        ChangeTracker currentChanges = changes;
+        if (currentChanges != null) {
+            currentChanges.updated(updateEvent);
+        }
+    }
+}
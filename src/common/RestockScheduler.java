@@ -0,0 +1,128 @@
+package common;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Ingredients waiting for a Drone to restock them, most urgent first.
+ * Ingredients are added by the StockManager as soon as their stock falls to the restock threshold, so the
+ * FleetDispatcher can take the most urgent rather than searching every Ingredient for one that needs restocking.
+ * An Ingredient's place in the queue is updated whenever its stock changes while it waits, so one that keeps running
+ * down overtakes those queued after it.
+ * @author Oscar van Leusen
+ */
+class RestockScheduler implements Serializable {
+
+    //Sorted rather than a heap, so a request can be found and moved when its urgency changes
+    private final TreeSet<RestockRequest> queue = new TreeSet<>();
+    //Request currently queued for each Ingredient
+    private final Map<StockItem, RestockRequest> queued = new HashMap<>();
+    //Used so that requests of equal urgency are restocked in the order they were made
+    private long sequence = 0;
+
+    /**
+     * Adds an Ingredient's StockItem to the queue, prioritised by how far below its threshold it is.
+     * @param item : StockItem of the Ingredient to restock
+     */
+    synchronized void schedule(StockItem item) {
+        RestockRequest request = request(item, sequence++);
+        queue.add(request);
+        queued.put(item, request);
+    }
+
+    /**
+     * Moves an Ingredient that is still waiting to its place for its current stock, called whenever its stock changes.
+     * Does nothing if the Ingredient isn't waiting.
+     * @param item : StockItem of the Ingredient
+     */
+    synchronized void reprioritise(StockItem item) {
+        RestockRequest old = queued.get(item);
+        if (old == null) {
+            return;
+        }
+        //Keeps its original place among requests of equal urgency
+        RestockRequest updated = request(item, old.sequence);
+        queue.remove(old);
+        queue.add(updated);
+        queued.put(item, updated);
+    }
+
+    /**
+     * Takes the most urgent Ingredient without waiting.
+     * @return : StockItem of the Ingredient to restock, or null if nothing needs restocking.
+     */
+    synchronized StockItem poll() {
+        RestockRequest request = queue.pollFirst();
+        if (request == null) {
+            return null;
+        }
+        queued.remove(request.item);
+        return request.item;
+    }
+
+    /**
+     * Takes an Ingredient out of the queue, wherever it is in it.
+     * @param item : StockItem of the Ingredient
+     */
+    synchronized void remove(StockItem item) {
+        RestockRequest request = queued.remove(item);
+        if (request != null) {
+            queue.remove(request);
+        }
+    }
+
+    /**
+     * Gets the most urgent Ingredient, leaving it in the queue.
+     * @return : StockItem of the Ingredient to restock, or null if nothing needs restocking.
+     */
+    synchronized StockItem peek() {
+        return queue.isEmpty() ? null : queue.first().item;
+    }
+
+    /**
+     * Works out how urgently an Ingredient needs restocking from its current stock
+     * @param item : StockItem of the Ingredient
+     * @param sequence : Order the Ingredient was first queued in
+     * @return : Request for the Ingredient
+     */
+    private static RestockRequest request(StockItem item, long sequence) {
+        long threshold = item.getRestockThreshold();
+        long deficit = threshold - item.getStock();
+        //Deficit relative to the threshold, so that an ingredient which has run out entirely comes before one just at its threshold.
+        double urgency = (deficit + 1) / (double) (Math.max(threshold, 0) + 1);
+        Supplier supplier = ((Ingredient) item.getStockedItem()).getSupplier();
+        int distance = supplier == null ? 0 : supplier.getDistance();
+        return new RestockRequest(item, urgency, distance, sequence);
+    }
+
+    /**
+     * An Ingredient waiting to be restocked. Ordered by urgency (highest first), then supplier distance (closest first).
+     */
+    private static class RestockRequest implements Comparable<RestockRequest>, Serializable {
+        private final StockItem item;
+        private final double urgency;
+        private final int distance;
+        private final long sequence;
+
+        RestockRequest(StockItem item, double urgency, int distance, long sequence) {
+            this.item = item;
+            this.urgency = urgency;
+            this.distance = distance;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(RestockRequest other) {
+            int compare = Double.compare(other.urgency, this.urgency);
+            if (compare == 0) {
+                compare = Integer.compare(this.distance, other.distance);
+            }
+            if (compare == 0) {
+                compare = Long.compare(this.sequence, other.sequence);
+            }
+            return compare;
+        }
+    }
+}
@@ -14,12 +14,14 @@ import java.util.Map;
 public class Server implements ServerInterface {
     private ServerInterface server;
     private StockManager stockManager;
-    private ArrayList<User> users;
-    private ArrayList<Order> orders;
+    private Catalog catalog;
+    private List<User> users;
+    private OrderRegistry orders;
 
-    public Server(ServerInterface server, StockManager stockManager, ArrayList<User> users, ArrayList<Order> orders) {
+    public Server(ServerInterface server, StockManager stockManager, Catalog catalog, List<User> users, OrderRegistry orders) {
         this.server = server;
         this.stockManager = stockManager;
+        this.catalog = catalog;
         this.users = users;
         this.orders = orders;
     }
@@ -29,19 +31,74 @@ public class Server implements ServerInterface {
      * @param user : newly created User
      */
     public void addUser(User user) {
-        users.add(user);
+        if (catalog.addUser(user)) {
+            users.add(user);
+        }
         server.notifyUpdate();
     }
 
+    /**
+     * Adds many users to the server at once, copying the list of Users once rather than once per User.
+     * @param newUsers : newly created Users
+     * @return : The Users that were added, leaving out any whose username was already taken
+     */
+    public List<User> addUsers(List<User> newUsers) {
+        List<User> added = new ArrayList<>(newUsers.size());
+        for (User user : newUsers) {
+            if (catalog.addUser(user)) {
+                added.add(user);
+            }
+        }
+        users.addAll(added);
+        server.notifyUpdate();
+        return added;
+    }
+
     /**
      * Adds an order to the server
      * @param order : Order to add to the server
      */
     public void addOrder(Order order) {
+        //The catalog listens to the Order before the registry makes it visible to Staff and Drones
+        catalog.addOrder(order);
         orders.add(order);
+        if (order.getOrderState() == Order.OrderState.PREPARING) {
+            stockManager.getKitchen().orderPlaced(order);
+        }
+        server.notifyUpdate();
+    }
+
+    /**
+     * Adds many orders to the server at once, copying the list of Orders once rather than once per Order.
+     * @param newOrders : Orders to add to the server
+     */
+    public void addOrders(List<Order> newOrders) {
+        for (Order order : newOrders) {
+            catalog.addOrder(order);
+        }
+        orders.addAll(newOrders);
+        for (Order order : newOrders) {
+            if (order.getOrderState() == Order.OrderState.PREPARING) {
+                stockManager.getKitchen().orderPlaced(order);
+            }
+        }
         server.notifyUpdate();
     }
 
+    /**
+     * Sends Orders that were prepared or out for delivery when the Server stopped back to the Drones, as no Drone is
+     * delivering them any more. Called once the Configuration or backup has been loaded.
+     */
+    public void resumeDeliveries() {
+        for (Order order : orders.getOrders()) {
+            Order.OrderState state = order.getOrderState();
+            if (state == Order.OrderState.PREPARED || state == Order.OrderState.DELIVERING) {
+                order.setOrderState(Order.OrderState.PREPARED);
+                stockManager.orderPrepared(order);
+            }
+        }
+    }
+
     /**
      * Gets the StockManager's Dish and Ingredient stock.
      * @return List of StockManager's StockItems
@@ -2,9 +2,8 @@ package common;
 
 import exceptions.InvalidStockItemException;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Oscar van Leusen
@@ -14,14 +13,17 @@ public class Staff extends Model implements Runnable {
         IDLE, COOKING
     }
 
+    //How often every dish and order is checked in case anything was missed, even while there is other work
+    private static final long SWEEP_MILLIS = 10000;
+
     private volatile boolean threadRunning = true;
     private String staffName;
     private StaffState jobState;
     private StockManager stockManager;
-    private ArrayList<Order> orders;
+    private OrderRegistry orders;
     private String currentlyMaking = "";
 
-    public Staff(String staffName, StockManager stockManager, ArrayList<Order> orders) {
+    public Staff(String staffName, StockManager stockManager, OrderRegistry orders) {
         this.staffName = staffName;
         this.stockManager = stockManager;
         this.orders = orders;
@@ -31,51 +33,135 @@ public class Staff extends Model implements Runnable {
      * Performs Thread-based Staff operations including:
      * 1. Finding dishes that fall below the restock threshold and restocking them
      * 2. Checking if there are enough dishes to together complete an order
+     * Work is taken from the kitchen queue as soon as it arrives. Every 10 seconds, every dish and order is checked
+     * anyway in case anything was missed, whether or not the queue has been busy.
      */
     @Override
     public void run() {
-        Dish toRestock;
+        KitchenQueue kitchen = stockManager.getKitchen();
+        long lastSweep = System.currentTimeMillis();
         while(threadRunning) {
-            //Finds any dishes that need to be restocked (returns null if there are none)
-            toRestock = findDishToRestock();
-            if (toRestock != null) {
-                jobState = StaffState.COOKING;
-                //Adds the restock amount to the stock for this dish.
-                currentlyMaking = toRestock.getName();
-                try {
-                    stockManager.restockDish(toRestock);
-                } catch (InterruptedException e) {
-                    break;
-                }
-                currentlyMaking = "";
-                jobState = StaffState.IDLE;
-            }
-
-            checkOrderComplete();
-
-            //Waits another 10 seconds before checking if any more dishes need to be cooked.
             jobState = StaffState.IDLE;
+            Model job;
             try {
-                Thread.sleep(10000);
+                job = kitchen.take(SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (job instanceof Order) {
+                    prepareOrder((Order) job);
+                } else if (job instanceof Dish) {
+                    cookDish((Dish) job);
+                }
+
+                //A kitchen that always has work never times out waiting for it, so the sweep goes by time instead.
+                if (System.currentTimeMillis() - lastSweep >= SWEEP_MILLIS) {
+                    lastSweep = System.currentTimeMillis();
+                    //Finds any dishes that need to be restocked (returns null if there are none)
+                    Dish toRestock = findDishToRestock();
+                    if (toRestock != null) {
+                        cook(toRestock);
+                    }
+                    checkOrderComplete();
+                }
             } catch (InterruptedException e) {
                 break;
             }
         }
     }
 
+    /**
+     * Prepares an Order if there are enough of its Dishes, otherwise cooks one of the Dishes it is short of and holds
+     * the Order back until more Dishes are made.
+     * @param order : Order to prepare
+     * @throws InterruptedException : Thrown if the Staff member is interrupted while cooking
+     */
+    private void prepareOrder(Order order) throws InterruptedException {
+        if (order.getOrderState() != Order.OrderState.PREPARING) {
+            return;
+        }
+        //Held back before checking the stock, so Dishes made after the check still put the order back on the queue.
+        KitchenQueue kitchen = stockManager.getKitchen();
+        kitchen.waitForDishes(order);
+        if (tryCompleteOrder(order)) {
+            kitchen.stopWaiting(order);
+            return;
+        }
+
+        //Dishes below their threshold are already queued, but an order can be for more than the threshold (eg: threshold
+        //is 2 and stock is 3, but we get an order of 5 dishes), so make sure one of the missing dishes is being cooked.
+        for (Map.Entry<Dish, Number> dishOrdered : order.getBasket().entrySet()) {
+            Dish dish = dishOrdered.getKey();
+            StockItem stock = stockManager.getStockItem(dish);
+            if (stock != null && stock.getStock() < dishOrdered.getValue().longValue() && stock.getRestockThreshold() != 0
+                    && stockManager.canMakeMinQuantity(dish) && stock.tryStartRestocking()) {
+                cook(dish);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cooks a Dish if it is below its restock threshold, holding it back until Ingredients arrive if there aren't enough.
+     * @param dish : Dish to cook
+     * @throws InterruptedException : Thrown if the Staff member is interrupted while cooking
+     */
+    private void cookDish(Dish dish) throws InterruptedException {
+        StockItem stock = stockManager.getStockItem(dish);
+        //The dish may have been removed, or cooked by someone else, since it was queued.
+        if (stock == null || stock.getRestockThreshold() < stock.getStock() || stock.getRestockThreshold() == 0) {
+            return;
+        }
+        if (!stockManager.canMakeMinQuantity(dish)) {
+            waitForIngredients(dish);
+        } else if (stock.tryStartRestocking()) {
+            cook(dish);
+        }
+    }
+
+    /**
+     * Cooks the restock amount of a Dish that this Staff member has already claimed.
+     * @param dish : Dish to cook
+     * @throws InterruptedException : Thrown if the Staff member is interrupted while cooking
+     */
+    private void cook(Dish dish) throws InterruptedException {
+        jobState = StaffState.COOKING;
+        //Adds the restock amount to the stock for this dish.
+        currentlyMaking = dish.getName();
+        try {
+            if (!stockManager.restockDish(dish)) {
+                //Another cook used the ingredients first.
+                waitForIngredients(dish);
+            }
+        } finally {
+            currentlyMaking = "";
+            jobState = StaffState.IDLE;
+        }
+    }
+
+    /**
+     * Holds back a Dish until more Ingredients arrive. It is held back before the Ingredients are checked again, so if
+     * they arrived in between, the Dish is put straight back on the queue.
+     * @param dish : Dish that couldn't be cooked
+     */
+    private void waitForIngredients(Dish dish) {
+        KitchenQueue kitchen = stockManager.getKitchen();
+        kitchen.waitForIngredients(dish);
+        if (stockManager.canMakeMinQuantity(dish)) {
+            kitchen.ingredientsArrived();
+        }
+    }
+
     /**
      * Finds any dishes that are below stock levels and returns them
-     * Synchronized so that it is thread safe, that is that multiple Staff won't get the same dish returned and both restock the same dish.
+     * Claiming a dish is atomic, so multiple Staff won't get the same dish returned and both restock the same dish.
      * @return Dish : Dish to restock.
      */
-    private synchronized Dish findDishToRestock() {
+    private Dish findDishToRestock() {
         //Iterate through every dish we need to stock.
-        for (Dish dish : stockManager.getDishStockLevels().keySet()) {
-            StockItem stock = stockManager.getStockItem(dish);
+        for (StockItem stock : stockManager.getDishStock()) {
+            Dish dish = (Dish) stock.getStockedItem();
             //If there are items where the restock threshold exceeds the number of prepared dishes, we need to make more.
             try {
-                if (stock.getRestockThreshold() >= stock.getStock() && stockManager.canMakeMinQuantity(dish) && !stock.beingRestocked() && stockManager.getRestockThreshold(dish) != 0) {
-                    stock.setBeingRestocked(true);
+                if (stock.getRestockThreshold() >= stock.getStock() && stockManager.canMakeMinQuantity(dish) && stockManager.getRestockThreshold(dish) != 0 && stock.tryStartRestocking()) {
                     //If there are sufficient ingredients to make the restock amount
                     //Return the dish (to the staff to be made).
                     return dish;
@@ -87,15 +173,17 @@ public class Staff extends Model implements Runnable {
 
         //Now we make sure that there are not greater orders of a dish than the restock threshold is (eg: If restock threshold
         //is set at 2 and stock falls to 3, but we get an order of 5 dishes this won't get stuck).
-        for (Order order : orders) {
+        for (Order order : orders.getOrders(Order.OrderState.PREPARING)) {
             if (order.getOrderState() == Order.OrderState.PREPARING) {
                 for (Map.Entry<Dish, Number> dishOrdered : order.getBasket().entrySet()) {
                     Dish dish = dishOrdered.getKey();
+                    StockItem stock = stockManager.getStockItem(dish);
                     Integer quantityOrdered = dishOrdered.getValue().intValue();
                     //If the amount we ordered is greater than the restock threshold and also greater than the amount in stock.
                     //We make the restock amount, this may take multiple repeats of this if it's a really big order.
                     try {
-                        if (quantityOrdered > stockManager.getRestockThreshold(dish) && quantityOrdered > stockManager.getStockLevel(dish) && stockManager.getRestockThreshold(dish) != 0) {
+                        if (stock != null && quantityOrdered > stockManager.getRestockThreshold(dish) && quantityOrdered > stockManager.getStockLevel(dish)
+                                && stockManager.getRestockThreshold(dish) != 0 && stock.tryStartRestocking()) {
                             return dish;
                         }
                     } catch (InvalidStockItemException e) {
@@ -112,28 +200,36 @@ public class Staff extends Model implements Runnable {
      */
     private void checkOrderComplete() {
         //Goes through orders, if there are enough of a stocked dish then its state is updated, otherwise it is cooked.
-        for (Order order : orders) {
+        for (Order order : orders.getOrders(Order.OrderState.PREPARING)) {
             if (order.getOrderState() == Order.OrderState.PREPARING) {
-                try {
-                    HashMap<Dish, Number> orderContent = order.getBasket();
-                    boolean orderReady = true;
-                    //Looks at each dish in the order and if there are sufficient in stock.
-                    for (Map.Entry<Dish, Number> orderNumbers : orderContent.entrySet()) {
-                        if (stockManager.getStockLevel(orderNumbers.getKey()) < orderNumbers.getValue().intValue()) {
-                            orderReady = false;
-                        }
-                    }
+                tryCompleteOrder(order);
+            }
+        }
+    }
 
-                    if (orderReady) {
-                        //Update the order status
-                        order.setOrderState(Order.OrderState.PREPARED);
-                        //Subtract the dish stock for the dishes we sold
-                        stockManager.orderComplete(orderContent);
+    /**
+     * Takes the dishes for an order from stock and marks it as prepared, only if there are sufficient of every one of them.
+     * @param order : Order being prepared
+     * @return : True if the order is now prepared, False if there weren't enough dishes.
+     */
+    private boolean tryCompleteOrder(Order order) {
+        //Taking the dishes and marking the order prepared is one change as far as snapshots are concerned.
+        stockManager.getStateLock().readLock().lock();
+        try {
+            //Other Staff check the same orders, so only one of them can take the dishes for this order.
+            synchronized (order) {
+                if (order.getOrderState() == Order.OrderState.PREPARING && stockManager.tryReserveOrder(order.getBasket())) {
+                    //Update the order status, unless the order was cancelled while its dishes were being taken.
+                    if (order.compareAndSetOrderState(Order.OrderState.PREPARING, Order.OrderState.PREPARED)) {
+                        stockManager.orderPrepared(order);
+                        return true;
                     }
-                } catch (InvalidStockItemException e) {
-                    e.printStackTrace();
+                    stockManager.releaseOrder(order.getBasket());
                 }
+                return false;
             }
+        } finally {
+            stockManager.getStateLock().readLock().unlock();
         }
     }
 
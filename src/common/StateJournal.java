@@ -0,0 +1,464 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of changes to the Server's state made between DataPersistence backups, so that a crash loses
+ * nothing that a Client was told had succeeded.
+ * Each change (a User registering, an Order being checked out, stock changing or an Order changing state) is appended
+ * as a small binary record. A single writer thread writes everything that has built up since its last write and syncs
+ * it to disk once for the whole batch, so however many requests arrive together they only wait for one sync.
+ * The journal is split into segments, a new one starting each time a backup is taken. On start-up the Server loads the
+ * latest backup then replays the segments written since it. Replaying sets stock levels and Order states to the
+ * values recorded rather than adjusting them, so a change that is in both the backup and the journal is harmless.
+ * @author Oscar van Leusen
+ */
+public class StateJournal implements Runnable, UpdateListener {
+
+    private static final String SEGMENT_PREFIX = "Sushi-Journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    //Record types
+    private static final byte USER_REGISTERED = 1;
+    private static final byte ORDER_CHECKED_OUT = 2;
+    private static final byte STOCK_CHANGED = 3;
+    private static final byte ORDER_STATE = 4;
+
+    private final File folder;
+    private final Object lock = new Object();
+    //Framed records waiting to be written by the writer thread
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    //Used to build each record before it is framed
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private FileChannel segment;
+    //Sequence number of the last record appended, and of the last one synced to disk.
+    private long appendedSeq = 0;
+    private long durableSeq = 0;
+    private boolean writing = false;
+    private volatile boolean threadRunning = true;
+    private volatile boolean failed = false;
+
+    /**
+     * Creates a journal in a folder. Records are held in memory until the first segment is started by rotate.
+     * @param folder : Folder to keep the journal segments in
+     */
+    public StateJournal(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Writer thread, writes and syncs each batch of records that built up while the previous batch was being written.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            byte[] batch;
+            long batchSeq;
+            FileChannel channel;
+            synchronized (lock) {
+                while ((pending.size() == 0 || segment == null) && threadRunning) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        threadRunning = false;
+                    }
+                }
+                if (pending.size() == 0 || segment == null) {
+                    break;
+                }
+                batch = pending.toByteArray();
+                pending.reset();
+                batchSeq = appendedSeq;
+                channel = segment;
+                writing = true;
+            }
+
+            boolean synced = false;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                synced = true;
+            } catch (IOException e) {
+                failed = true;
+                e.printStackTrace();
+                System.out.println("IOException thrown when writing journal. Disabling further journal writes");
+            }
+
+            synchronized (lock) {
+                //A batch that failed to write isn't durable, so anyone waiting on it is told it failed.
+                if (synced) {
+                    durableSeq = batchSeq;
+                }
+                writing = false;
+                lock.notifyAll();
+            }
+        }
+
+        synchronized (lock) {
+            closeSegment();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops the writer thread once it has written any records still waiting.
+     */
+    public void cancelThread() {
+        synchronized (lock) {
+            threadRunning = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until a record, and every record before it, has been synced to disk.
+     * @param seq : Sequence number returned when the record was appended
+     * @return : True if the record is on disk, False if the journal failed or stopped, or the wait was interrupted, first.
+     */
+    public boolean awaitDurable(long seq) {
+        synchronized (lock) {
+            while (durableSeq < seq && threadRunning && !failed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return durableSeq >= seq;
+        }
+    }
+
+    /**
+     * Starts a new segment. Called just before a backup is taken, so that every record in the new segment and later
+     * ones may be missing from the backup, and every record in older segments is already in it.
+     * @param timestamp : Timestamp of the backup, used to name the segment
+     * @throws IOException : Thrown if the new segment can't be created
+     */
+    public void rotate(String timestamp) throws IOException {
+        synchronized (lock) {
+            //Make sure every record so far is in the old segment before it is closed.
+            while ((pending.size() > 0 || writing) && segment != null && threadRunning && !failed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            closeSegment();
+            segment = FileChannel.open(new File(folder, SEGMENT_PREFIX + timestamp + SEGMENT_SUFFIX).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Deletes segments that are older than a backup, once the backup has been written.
+     * @param timestamp : Timestamp of the backup
+     */
+    public void deleteSegmentsBefore(String timestamp) {
+        for (File oldSegment : segmentFiles(folder)) {
+            if (timestampOf(oldSegment).compareTo(timestamp) < 0 && !oldSegment.delete()) {
+                System.out.println("Unable to delete old journal segment: " + oldSegment.getName());
+            }
+        }
+    }
+
+    /**
+     * Journals a User registering
+     * @param user : New User
+     * @return : Sequence number of the record
+     */
+    public long userRegistered(User user) {
+        synchronized (lock) {
+            try {
+                record.writeByte(USER_REGISTERED);
+                record.writeUTF(user.getName());
+                record.writeUTF(user.getPassword());
+                record.writeUTF(user.getAddress());
+                record.writeUTF(user.getPostcode().getName());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return appendRecord();
+        }
+    }
+
+    /**
+     * Journals an Order being checked out. Must be journaled before the Order is added to the OrderRegistry, so that
+     * its checkout comes before any of its changes of state.
+     * @param order : Order that has just been checked out
+     * @return : Sequence number of the record
+     */
+    public long orderCheckedOut(Order order) {
+        synchronized (lock) {
+            try {
+                record.writeByte(ORDER_CHECKED_OUT);
+                record.writeUTF(order.getUser().getName());
+                record.writeInt(order.getUserOrderNum());
+                Map<Dish, Number> basket = order.getBasket();
+                record.writeInt(basket.size());
+                for (Map.Entry<Dish, Number> dishQuantity : basket.entrySet()) {
+                    record.writeUTF(dishQuantity.getKey().getName());
+                    record.writeInt(dishQuantity.getValue().intValue());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return appendRecord();
+        }
+    }
+
+    /**
+     * Journals the stock level of a Dish or Ingredient. The level is read once the journal is locked, so the last
+     * record for an item always holds its latest level even if changes are journaled out of order.
+     * @param item : StockItem whose stock changed
+     */
+    void stockChanged(StockItem item) {
+        if (failed) {
+            return;
+        }
+        synchronized (lock) {
+            try {
+                record.writeByte(STOCK_CHANGED);
+                record.writeBoolean(item.isIngredient());
+                record.writeUTF(item.getStockedItem().getName());
+                record.writeLong(item.getStock());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            appendRecord();
+        }
+    }
+
+    /**
+     * Journals an Order's state whenever it changes, passed on by the OrderRegistry.
+     * @param updateEvent information on the update
+     */
+    @Override
+    public void updated(UpdateEvent updateEvent) {
+        if (failed || !(updateEvent.model instanceof Order) || !"state".equals(updateEvent.property)) {
+            return;
+        }
+        Order order = (Order) updateEvent.model;
+        synchronized (lock) {
+            try {
+                record.writeByte(ORDER_STATE);
+                record.writeUTF(order.getUser().getName());
+                record.writeInt(order.getUserOrderNum());
+                //Current state rather than the one in the update, for the same reason as stock levels.
+                record.writeByte(order.getOrderState().ordinal());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            appendRecord();
+        }
+    }
+
+    /**
+     * Frames the record that has been built and adds it to the records waiting to be written.
+     * Structure: [Length][CRC32 of record][Record]
+     * Must be called while holding the lock.
+     * @return : Sequence number of the record, or Long.MAX_VALUE if the journal has failed, as the record will never be durable.
+     */
+    private long appendRecord() {
+        byte[] bytes = recordBytes.toByteArray();
+        recordBytes.reset();
+        if (failed) {
+            return Long.MAX_VALUE;
+        }
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        DataOutputStream out = new DataOutputStream(pending);
+        try {
+            out.writeInt(bytes.length);
+            out.writeInt((int) crc.getValue());
+            out.write(bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        appendedSeq++;
+        lock.notifyAll();
+        return appendedSeq;
+    }
+
+    /**
+     * Closes the current segment, if there is one. Must be called while holding the lock.
+     */
+    private void closeSegment() {
+        if (segment != null) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            segment = null;
+        }
+    }
+
+    /**
+     * Replays every journal segment written since a backup was taken, on to the state loaded from that backup.
+     * A record cut off part way through by a crash, or that fails its checksum, ends the replay of that segment.
+     * @param folder : Folder the journal segments are in
+     * @param timestamp : Timestamp of the backup that was loaded
+     * @param server : Server to replay the changes on to
+     * @param catalog : Catalog of the Server's Users, Dishes and Orders
+     * @return : Number of records replayed
+     */
+    public static int replay(File folder, String timestamp, Server server, Catalog catalog) {
+        int replayed = 0;
+        for (File segmentFile : segmentFiles(folder)) {
+            if (timestampOf(segmentFile).compareTo(timestamp) < 0) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)))) {
+                CRC32 checksum = new CRC32();
+                while (true) {
+                    byte[] bytes;
+                    int expectedCrc;
+                    try {
+                        bytes = new byte[in.readInt()];
+                        expectedCrc = in.readInt();
+                        in.readFully(bytes);
+                    } catch (EOFException e) {
+                        //End of the segment, or a record that was only partly written.
+                        break;
+                    }
+                    checksum.reset();
+                    checksum.update(bytes, 0, bytes.length);
+                    if ((int) checksum.getValue() != expectedCrc) {
+                        System.out.println("Corrupt record in journal segment " + segmentFile.getName() + ", ignoring the rest of the segment.");
+                        break;
+                    }
+                    applyRecord(new DataInputStream(new ByteArrayInputStream(bytes)), server, catalog);
+                    replayed++;
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Applies one journal record to the Server
+     * @param in : Record contents
+     * @param server : Server to apply the record to
+     * @param catalog : Catalog of the Server's Users, Dishes and Orders
+     * @throws IOException : Thrown if the record is malformed
+     */
+    private static void applyRecord(DataInputStream in, Server server, Catalog catalog) throws IOException {
+        byte type = in.readByte();
+        if (type == USER_REGISTERED) {
+            String username = in.readUTF();
+            String password = in.readUTF();
+            String address = in.readUTF();
+            String postcodeName = in.readUTF();
+            if (catalog.getUser(username) == null) {
+                for (Postcode postcode : server.getPostcodes()) {
+                    if (postcode.getName().equals(postcodeName)) {
+                        server.addUser(new User(username, password, address, postcode));
+                    }
+                }
+            }
+        } else if (type == ORDER_CHECKED_OUT) {
+            User user = catalog.getUser(in.readUTF());
+            int orderNumber = in.readInt();
+            int dishes = in.readInt();
+            HashMap<Dish, Number> basket = new HashMap<>();
+            for (int i=0; i<dishes; i++) {
+                Dish dish = catalog.getDish(in.readUTF());
+                int quantity = in.readInt();
+                if (dish != null) {
+                    basket.put(dish, quantity);
+                }
+            }
+            if (user != null && catalog.getOrder(user.getName(), orderNumber) == null) {
+                Order order = new Order(user, orderNumber);
+                order.setBasket(basket);
+                order.setOrderState(Order.OrderState.PREPARING);
+                if (user.getOrdersMade() <= orderNumber) {
+                    user.setOrdersMade(orderNumber + 1);
+                }
+                server.addOrder(order);
+            }
+        } else if (type == STOCK_CHANGED) {
+            boolean ingredient = in.readBoolean();
+            String name = in.readUTF();
+            long stock = in.readLong();
+            if (ingredient) {
+                for (Ingredient stocked : server.getIngredients()) {
+                    if (stocked.getName().equals(name)) {
+                        server.setStock(stocked, stock);
+                    }
+                }
+            } else {
+                Dish dish = catalog.getDish(name);
+                if (dish != null) {
+                    server.setStock(dish, stock);
+                }
+            }
+        } else if (type == ORDER_STATE) {
+            Order order = catalog.getOrder(in.readUTF(), in.readInt());
+            int state = in.readUnsignedByte();
+            if (order != null && state < Order.OrderState.values().length) {
+                order.setOrderState(Order.OrderState.values()[state]);
+            }
+        } else {
+            throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+
+    /**
+     * Gets the journal segments in a folder, oldest first
+     * @param folder : Folder to look in
+     * @return : List of segment files
+     */
+    private static List<File> segmentFiles(File folder) {
+        List<File> segments = new ArrayList<>();
+        File[] filesInFolder = folder.listFiles();
+        if (filesInFolder != null) {
+            for (File file : filesInFolder) {
+                if (file.isFile() && file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX)) {
+                    segments.add(file);
+                }
+            }
+        }
+        //Timestamps are written largest unit first, so they sort by name.
+        segments.sort(Comparator.comparing(File::getName));
+        return segments;
+    }
+
+    /**
+     * Gets the timestamp part of a segment's file name
+     * @param segmentFile : Journal segment
+     * @return : Timestamp of the backup the segment follows
+     */
+    private static String timestampOf(File segmentFile) {
+        String name = segmentFile.getName();
+        return name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+    }
+}
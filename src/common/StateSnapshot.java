@@ -0,0 +1,238 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A consistent, unchanging copy of the restaurant's state at one moment, taken so that it can be written to a backup
+ * while the Staff, Drones and Clients carry on changing the live objects.
+ * Only the values that change while the Server runs (stock levels, Order states and baskets, the lists of objects) are
+ * copied. Stock levels and Order states are copied together while holding the StockManager's state lock, so no change
+ * that spans stock and Orders is seen half done. The lock is only held for that copy, never while the snapshot is
+ * written out, and Clients never wait on it.
+ * @author Oscar van Leusen
+ */
+public class StateSnapshot {
+
+    private final List<Supplier> suppliers;
+    private final List<Ingredient> ingredients;
+    private final List<Dish> dishes;
+    private final List<Postcode> postcodes;
+    private final List<User> users;
+    private final List<Staff> staff;
+    private final List<Drone> drones;
+    private final List<OrderRecord> orders;
+    private final List<OrderRecord> removedOrders;
+    private final List<StockRecord> stock;
+    //True if only what changed since the last snapshot is included
+    private final boolean changesOnly;
+    //How long the state lock was held for, in nanoseconds
+    private final long captureNanos;
+
+    private StateSnapshot(Server server, StockManager stockManager, ChangeTracker changes, boolean changesOnly) {
+        //The lists are copy-on-write, so copying them can't fail part way through and needs no lock.
+        this.suppliers = copy(server.getSuppliers());
+        this.ingredients = copy(server.getIngredients());
+        this.dishes = copy(server.getDishes());
+        this.postcodes = copy(server.getPostcodes());
+        this.staff = copy(server.getStaff());
+        this.drones = copy(server.getDrones());
+        this.changesOnly = changesOnly;
+
+        List<Order> liveOrders;
+        List<Order> goneOrders = new ArrayList<>();
+        Order.OrderState[] states;
+        List<StockRecord> stockRecords = new ArrayList<>();
+        Lock lock = stockManager.getStateLock().writeLock();
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            List<StockItem> stockItems;
+            if (changesOnly) {
+                this.users = Collections.unmodifiableList(changes.takeAddedUsers());
+                goneOrders = changes.takeRemovedOrders();
+                liveOrders = changes.takeChangedOrders();
+                stockItems = changes.takeChangedStock();
+            } else {
+                //Everything changed so far is in this snapshot, so the tracker starts again from here.
+                if (changes != null) {
+                    changes.clear();
+                }
+                this.users = copy(server.getUsers());
+                liveOrders = server.getOrders();
+                stockItems = stockManager.getStock();
+            }
+            Order[] orderArray = liveOrders.toArray(new Order[0]);
+            liveOrders = Arrays.asList(orderArray);
+            states = new Order.OrderState[orderArray.length];
+            for (int i=0; i<orderArray.length; i++) {
+                states[i] = orderArray[i].getOrderState();
+            }
+            for (StockItem item : stockItems) {
+                stockRecords.add(new StockRecord(item.getStockedItem().getName(), item.getStock()));
+            }
+        } finally {
+            lock.unlock();
+        }
+        this.captureNanos = System.nanoTime() - start;
+
+        //Baskets only change before checkout, which never touches stock, so they can be copied once the lock is released.
+        List<OrderRecord> orderRecords = new ArrayList<>(liveOrders.size());
+        for (int i=0; i<liveOrders.size(); i++) {
+            orderRecords.add(new OrderRecord(liveOrders.get(i), states[i]));
+        }
+        List<OrderRecord> removedRecords = new ArrayList<>(goneOrders.size());
+        for (Order order : goneOrders) {
+            removedRecords.add(new OrderRecord(order, order.getOrderState()));
+        }
+        this.orders = Collections.unmodifiableList(orderRecords);
+        this.removedOrders = Collections.unmodifiableList(removedRecords);
+        this.stock = Collections.unmodifiableList(stockRecords);
+    }
+
+    /**
+     * Takes a snapshot of the Server's whole current state
+     * @param server : Server to take the snapshot of
+     * @param stockManager : StockManager holding the Server's stock
+     * @param changes : Tracker to clear once the snapshot is taken, or null
+     * @return : StateSnapshot
+     */
+    public static StateSnapshot capture(Server server, StockManager stockManager, ChangeTracker changes) {
+        return new StateSnapshot(server, stockManager, changes, false);
+    }
+
+    /**
+     * Takes a snapshot of only the Users, Orders and stock that have changed since the last snapshot. The lists of
+     * Suppliers, Ingredients, Dishes, Postcodes, Staff and Drones are still copied in full, as they are small.
+     * @param server : Server to take the snapshot of
+     * @param stockManager : StockManager holding the Server's stock
+     * @param changes : Tracker holding what has changed
+     * @return : StateSnapshot of the changes
+     */
+    public static StateSnapshot captureChanges(Server server, StockManager stockManager, ChangeTracker changes) {
+        return new StateSnapshot(server, stockManager, changes, true);
+    }
+
+    /**
+     * Copies a list into an unmodifiable list
+     * @param list : List to copy
+     * @return : Unmodifiable copy of the list
+     */
+    private static <T> List<T> copy(List<T> list) {
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    public List<Supplier> getSuppliers() {
+        return suppliers;
+    }
+
+    public List<Ingredient> getIngredients() {
+        return ingredients;
+    }
+
+    public List<Dish> getDishes() {
+        return dishes;
+    }
+
+    public List<Postcode> getPostcodes() {
+        return postcodes;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public List<Staff> getStaff() {
+        return staff;
+    }
+
+    public List<Drone> getDrones() {
+        return drones;
+    }
+
+    public List<OrderRecord> getOrders() {
+        return orders;
+    }
+
+    public List<OrderRecord> getRemovedOrders() {
+        return removedOrders;
+    }
+
+    public List<StockRecord> getStock() {
+        return stock;
+    }
+
+    /**
+     * Returns whether this snapshot only holds the changes since the last one
+     * @return : True if only Users, Orders and stock that changed are included
+     */
+    public boolean isChangesOnly() {
+        return changesOnly;
+    }
+
+    /**
+     * Gets how long changes to stock and Orders were held up while the snapshot was taken
+     * @return : Time the state lock was held for, in nanoseconds
+     */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * An Order as it was when the snapshot was taken.
+     */
+    public static class OrderRecord {
+        private final User user;
+        private final int orderNumber;
+        private final Order.OrderState state;
+        private final HashMap<Dish, Number> basket;
+
+        OrderRecord(Order order, Order.OrderState state) {
+            this.user = order.getUser();
+            this.orderNumber = order.getUserOrderNum();
+            this.state = state;
+            this.basket = order.copyBasket();
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        public int getOrderNumber() {
+            return orderNumber;
+        }
+
+        public Order.OrderState getState() {
+            return state;
+        }
+
+        public HashMap<Dish, Number> getBasket() {
+            return basket;
+        }
+    }
+
+    /**
+     * A Dish or Ingredient's stock level when the snapshot was taken.
+     */
+    public static class StockRecord {
+        private final String name;
+        private final long stock;
+
+        StockRecord(String name, long stock) {
+            this.name = name;
+            this.stock = stock;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getStock() {
+            return stock;
+        }
+    }
+}
@@ -5,6 +5,9 @@ import exceptions.InvalidStockItemException;
 import java.io.Serializable;
 
 /**
+ * Stock of a single Dish or Ingredient. Staff, Drones and the Server GUI all change stock at the same time, so the
+ * amount stocked is only ever changed atomically and can never fall below zero.
+ * The values themselves are held in the StockManager's StockLedger, this is a view of this item's slot in it.
  * @author Oscar van Leusen
  */
 public class StockItem implements Serializable {
@@ -13,18 +16,20 @@ public class StockItem implements Serializable {
     private boolean isIngredient;
 
     private Model stockedItem;
-    private Long amountStocked;
-    private Long restockThreshold;
-    private Long restockAmount;
-    private boolean beingRestocked = false;
+    private final StockManager stockManager;
+    private final StockLedger ledger;
+    private final int slot;
 
     /**
      * Creates a common.StockItem for a given Model (common.Dish or common.Ingredient), with the current stock and restocking Threshold.
+     * Created by the StockManager, which gives the item a slot in its ledger.
      * @param stockItem : Model object passed in, from which we use instanceof to determine if it is a common.Dish or common.Ingredient.
+     * @param stockManager : StockManager told whenever the stock changes
+     * @param ledger : Ledger the item's stock is held in
      * @param stock : Existing stock, passed as a long incase it is an ingredient (but if it is a dish this is casted to int)
-     * @throws Exception : Exception thrown if Model object is not a common.Dish or common.Ingredient (eg: supplier)
+     * @throws InvalidStockItemException : Exception thrown if Model object is not a common.Dish or common.Ingredient (eg: supplier)
      */
-    public StockItem(Model stockItem, long stock, Number restockThreshold, Number restockAmount) throws InvalidStockItemException {
+    StockItem(Model stockItem, StockManager stockManager, StockLedger ledger, long stock, Number restockThreshold, Number restockAmount) throws InvalidStockItemException {
         this.stockedItem = stockItem;
         if (stockItem instanceof Dish) {
             this.isDish = true;
@@ -35,9 +40,17 @@ public class StockItem implements Serializable {
         } else {
             throw new InvalidStockItemException("Non-valid stock item (not common.Dish or common.Ingredient) was used");
         }
-        this.amountStocked = stock;
-        this.restockThreshold = restockThreshold.longValue();
-        this.restockAmount = restockAmount.longValue();
+        this.stockManager = stockManager;
+        this.ledger = ledger;
+        this.slot = ledger.allocate(this, Math.max(0, stock), restockThreshold.longValue(), restockAmount.longValue());
+    }
+
+    /**
+     * Gets the dense identifier of this item's slot in the StockManager's ledger.
+     * @return : Slot number
+     */
+    public int getSlot() {
+        return slot;
     }
 
     /**
@@ -53,43 +66,100 @@ public class StockItem implements Serializable {
      * @param stockToAdd : Long amount of stock to add.
      */
     public void addStock(long stockToAdd) {
-        amountStocked += stockToAdd;
+        replenish(stockToAdd);
     }
 
     /**
-     * Removes a number of stock for this Dish/Ingredient
+     * Removes a number of stock for this Dish/Ingredient, stopping at zero if there is not enough.
      * @param stockToRemove : Long amount of stock to remove
      */
     public void removeStock(long stockToRemove) {
-        if (isDish) {
-            amountStocked -= (int) stockToRemove;
-        } else {
-            amountStocked -= stockToRemove;
+        consume(stockToRemove);
+    }
+
+    /**
+     * Takes an amount of stock only if all of it is available, so that two threads can't both take the last of the stock.
+     * @param amount : Amount of stock to take
+     * @return : True if the stock was taken, False if there was not enough (in which case nothing is taken).
+     */
+    public boolean tryReserve(long amount) {
+        while (true) {
+            long current = ledger.getStock(slot);
+            if (current < amount) {
+                return false;
+            }
+            if (ledger.compareAndSetStock(slot, current, current - amount)) {
+                stockManager.stockChanged(this, false);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes up to an amount of stock, never taking the stock below zero.
+     * @param amount : Amount of stock to take
+     * @return : Amount of stock actually taken
+     */
+    public long consume(long amount) {
+        while (true) {
+            long current = ledger.getStock(slot);
+            long taken = Math.min(current, amount);
+            if (ledger.compareAndSetStock(slot, current, current - taken)) {
+                if (taken > 0) {
+                    stockManager.stockChanged(this, false);
+                }
+                return taken;
+            }
         }
     }
 
+    /**
+     * Adds stock for this Dish/Ingredient, used when stock is made or delivered, or a reservation is given back.
+     * @param amount : Amount of stock to add
+     */
+    public void replenish(long amount) {
+        ledger.addStock(slot, amount);
+        stockManager.stockChanged(this, true);
+    }
+
+    /**
+     * Raises the stock to a level if it is currently below it, without losing any stock taken in the meantime.
+     * @param level : Level to restock up to
+     */
+    public void replenishTo(long level) {
+        long current;
+        do {
+            current = ledger.getStock(slot);
+            if (current >= level) {
+                return;
+            }
+        } while (!ledger.compareAndSetStock(slot, current, level));
+        stockManager.stockChanged(this, true);
+    }
+
     /**
      * Sets the number of stock to a specific amount for this Dish/Ingredient
      * @param stock : Number of stock to set to (later casted to long)
      */
     public void setStock(Number stock) {
-        amountStocked = stock.longValue();
+        ledger.setStock(slot, Math.max(0, stock.longValue()));
+        stockManager.stockChanged(this, true);
     }
 
     /**
      * Gets the stock for the stocked Dish/Ingredient
-     * @return :
+     * @return : Amount currently in stock
      */
-    public Long getStock() {
-        return amountStocked;
+    public long getStock() {
+        return ledger.getStock(slot);
     }
 
     /**
      * Gets the amount that the Stock must fall below before it is restocked
      * @return : Long amount the stock must fall below before it is restocked
      */
-    public Long getRestockThreshold() {
-        return restockThreshold;
+    public long getRestockThreshold() {
+        return ledger.getRestockThreshold(slot);
     }
 
     /**
@@ -97,15 +167,16 @@ public class StockItem implements Serializable {
      * @param restockThreshold : Amount the stock must fall below before it is restocked.
      */
     public void setRestockThreshold(Number restockThreshold) {
-        this.restockThreshold = restockThreshold.longValue();
+        ledger.setRestockThreshold(slot, restockThreshold.longValue());
+        stockManager.stockChanged(this, false);
     }
 
     /**
      * Gets the amount to restock by when the stock falls below the Restock Threshold
      * @return : Long amount to restock by.
      */
-    public Long getRestockAmount() {
-        return restockAmount;
+    public long getRestockAmount() {
+        return ledger.getRestockAmount(slot);
     }
 
     /**
@@ -113,7 +184,7 @@ public class StockItem implements Serializable {
      * @param restockAmount : Amount to restock by
      */
     public void setRestockAmount(Number restockAmount) {
-        this.restockAmount = restockAmount.longValue();
+        ledger.setRestockAmount(slot, restockAmount.longValue());
     }
 
     /**
@@ -133,11 +204,19 @@ public class StockItem implements Serializable {
     }
 
     /**
-     * Sets whether this Ingredient/Dish is currently being restocked
+     * Sets whether this Ingredient/Dish is currently being restocked (or for an Ingredient, queued to be restocked)
      * @param beingRestocked : New state of whether dish is being restocked
      */
     public void setBeingRestocked(boolean beingRestocked) {
-        this.beingRestocked = beingRestocked;
+        ledger.setBeingRestocked(slot, beingRestocked);
+    }
+
+    /**
+     * Marks this Dish/Ingredient as being restocked, unless someone else is already restocking it.
+     * @return : True if the caller is now responsible for restocking it, False if it was already being restocked.
+     */
+    public boolean tryStartRestocking() {
+        return ledger.tryStartRestocking(slot);
     }
 
     /**
@@ -145,6 +224,6 @@ public class StockItem implements Serializable {
      * @return : True - is being restocked. False - is not being restocked
      */
     public boolean beingRestocked() {
-        return this.beingRestocked;
+        return ledger.isBeingRestocked(slot);
     }
 }
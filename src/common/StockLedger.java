@@ -0,0 +1,146 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Stock levels, restock thresholds and restock amounts for a set of Dishes or Ingredients, stored as columns of
+ * primitive longs indexed by a dense slot number given to each item when it is added.
+ * Columns grow a chunk at a time so existing slots never move, which means reads and writes never need a lock.
+ * Slots of removed items are not reused, so a StockItem still held by another thread can't change a different item's stock.
+ * @author Oscar van Leusen
+ */
+class StockLedger implements Serializable {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicLongArray[] stock = new AtomicLongArray[0];
+    private volatile AtomicLongArray[] restockThreshold = new AtomicLongArray[0];
+    private volatile AtomicLongArray[] restockAmount = new AtomicLongArray[0];
+    private volatile AtomicIntegerArray[] beingRestocked = new AtomicIntegerArray[0];
+    //Java can't make arrays of a generic type, so the chunks of items are held in a List that is replaced, never changed.
+    private volatile List<AtomicReferenceArray<StockItem>> items = new ArrayList<>();
+    //Number of slots handed out so far, published after the slot's values are written.
+    private volatile int size = 0;
+
+    /**
+     * Gives a new item the next slot in the ledger.
+     * @param item : StockItem that will read and write this slot
+     * @param stock : Initial stock
+     * @param threshold : Initial restock threshold
+     * @param amount : Initial restock amount
+     * @return : Slot number for the item
+     */
+    synchronized int allocate(StockItem item, long stock, long threshold, long amount) {
+        int slot = size;
+        if ((slot >>> CHUNK_BITS) == this.stock.length) {
+            grow();
+        }
+        int chunk = slot >>> CHUNK_BITS;
+        int index = slot & CHUNK_MASK;
+        this.stock[chunk].set(index, stock);
+        this.restockThreshold[chunk].set(index, threshold);
+        this.restockAmount[chunk].set(index, amount);
+        this.items.get(chunk).set(index, item);
+        size = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Adds one more chunk to every column.
+     */
+    private void grow() {
+        int chunks = stock.length + 1;
+        AtomicLongArray[] newStock = Arrays.copyOf(stock, chunks);
+        AtomicLongArray[] newThreshold = Arrays.copyOf(restockThreshold, chunks);
+        AtomicLongArray[] newAmount = Arrays.copyOf(restockAmount, chunks);
+        AtomicIntegerArray[] newRestocking = Arrays.copyOf(beingRestocked, chunks);
+        List<AtomicReferenceArray<StockItem>> newItems = new ArrayList<>(items);
+        newStock[chunks - 1] = new AtomicLongArray(CHUNK_SIZE);
+        newThreshold[chunks - 1] = new AtomicLongArray(CHUNK_SIZE);
+        newAmount[chunks - 1] = new AtomicLongArray(CHUNK_SIZE);
+        newRestocking[chunks - 1] = new AtomicIntegerArray(CHUNK_SIZE);
+        newItems.add(new AtomicReferenceArray<>(CHUNK_SIZE));
+        stock = newStock;
+        restockThreshold = newThreshold;
+        restockAmount = newAmount;
+        beingRestocked = newRestocking;
+        items = newItems;
+    }
+
+    /**
+     * Removes the item in a slot, so that scans of the ledger skip it.
+     * @param slot : Slot of the removed item
+     */
+    void free(int slot) {
+        items.get(slot >>> CHUNK_BITS).set(slot & CHUNK_MASK, null);
+    }
+
+    /**
+     * Gets the number of slots handed out, including those of removed items.
+     * @return : Number of slots
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the StockItem in a slot
+     * @param slot : Slot number
+     * @return : StockItem, or null if the item was removed.
+     */
+    StockItem getItem(int slot) {
+        return items.get(slot >>> CHUNK_BITS).get(slot & CHUNK_MASK);
+    }
+
+    long getStock(int slot) {
+        return stock[slot >>> CHUNK_BITS].get(slot & CHUNK_MASK);
+    }
+
+    void setStock(int slot, long value) {
+        stock[slot >>> CHUNK_BITS].set(slot & CHUNK_MASK, value);
+    }
+
+    boolean compareAndSetStock(int slot, long expected, long value) {
+        return stock[slot >>> CHUNK_BITS].compareAndSet(slot & CHUNK_MASK, expected, value);
+    }
+
+    long addStock(int slot, long delta) {
+        return stock[slot >>> CHUNK_BITS].addAndGet(slot & CHUNK_MASK, delta);
+    }
+
+    long getRestockThreshold(int slot) {
+        return restockThreshold[slot >>> CHUNK_BITS].get(slot & CHUNK_MASK);
+    }
+
+    void setRestockThreshold(int slot, long value) {
+        restockThreshold[slot >>> CHUNK_BITS].set(slot & CHUNK_MASK, value);
+    }
+
+    long getRestockAmount(int slot) {
+        return restockAmount[slot >>> CHUNK_BITS].get(slot & CHUNK_MASK);
+    }
+
+    void setRestockAmount(int slot, long value) {
+        restockAmount[slot >>> CHUNK_BITS].set(slot & CHUNK_MASK, value);
+    }
+
+    boolean isBeingRestocked(int slot) {
+        return beingRestocked[slot >>> CHUNK_BITS].get(slot & CHUNK_MASK) != 0;
+    }
+
+    void setBeingRestocked(int slot, boolean restocking) {
+        beingRestocked[slot >>> CHUNK_BITS].set(slot & CHUNK_MASK, restocking ? 1 : 0);
+    }
+
+    boolean tryStartRestocking(int slot) {
+        return beingRestocked[slot >>> CHUNK_BITS].compareAndSet(slot & CHUNK_MASK, 0, 1);
+    }
+}
@@ -4,27 +4,50 @@ import exceptions.*;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Stock of every Dish and Ingredient. Safe to use from the Staff, Drone, dispatcher and GUI threads at once:
+ * the maps are concurrent and each StockItem's stock is only changed atomically.
  * @author Oscar van Leusen
  */
 public class StockManager implements Serializable {
 
     //HashMap linking a dish (key) to stock (Integer).
-    HashMap<Dish, StockItem> dishStock;
+    ConcurrentHashMap<Dish, StockItem> dishStock;
     //HashMap linking an ingredient (key) to stock (value). Float is used for stock as units can have decimals (eg: 1.5 Litres)
-    HashMap<Ingredient, StockItem> ingredientStock;
+    ConcurrentHashMap<Ingredient, StockItem> ingredientStock;
+    //Columns holding the stock numbers themselves, indexed by each StockItem's slot
+    private final StockLedger dishLedger = new StockLedger();
+    private final StockLedger ingredientLedger = new StockLedger();
+    //Ingredients at or below their restock threshold, waiting for a Drone
+    private final RestockScheduler restockScheduler = new RestockScheduler();
+    //Orders and Dishes waiting for the kitchen Staff
+    private final KitchenQueue kitchen = new KitchenQueue();
+    //Prepared Orders waiting for the Drones
+    private final DeliveryPlanner deliveryPlanner = new DeliveryPlanner();
+    //Hands restocking and delivery jobs to the Drones
+    private final FleetDispatcher fleetDispatcher = new FleetDispatcher(this);
+    //Journal that every change of stock level is recorded in, if there is one
+    private transient volatile StateJournal journal;
+    //Tracker that every change of stock level is recorded in for the next backup, if there is one
+    private transient volatile ChangeTracker changes;
+    //Held shared by changes that take stock and move an Order on together, and exclusively while a snapshot is taken.
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
 
     /**
      * Instantiates StockManager without any parameters, stocked dishes and ingredients must be later added.
      */
     public StockManager() {
-        dishStock = new HashMap<>();
-        ingredientStock = new HashMap<>();
+        dishStock = new ConcurrentHashMap<>();
+        ingredientStock = new ConcurrentHashMap<>();
     }
 
     /**
@@ -34,27 +57,38 @@ public class StockManager implements Serializable {
      */
     public void addDish(Dish toAdd, int amountToAdd) {
         //There are already some of this dish prepared, so add to the number in stock
-        if (dishStock.containsKey(toAdd)) {
-            dishStock.get(toAdd).addStock(amountToAdd);
+        StockItem existing = dishStock.get(toAdd);
+        if (existing != null) {
+            existing.replenish(amountToAdd);
         } else {
             //This common.Dish isn't in our common.StockManager yet, so add it to the HashMap.
-            StockItem newDish = null;
             try {
-                newDish = new StockItem(toAdd, amountToAdd, 0, 0);
+                existing = dishStock.putIfAbsent(toAdd, new StockItem(toAdd, this, dishLedger, amountToAdd, 0, 0));
+                if (existing != null) {
+                    existing.replenish(amountToAdd);
+                }
             } catch (InvalidStockItemException e) {
                 e.printStackTrace();
             }
-            dishStock.put(toAdd, newDish);
         }
     }
 
     /**
      * Used for adding a new dish to the prepared dish stock.
      * @param toAdd : Dish to add
-     * @param stockData : StockItem for this dish
+     * @param stock : Amount of the Dish already prepared
+     * @param restockThreshold : Level at which to restock
+     * @param restockAmount : Amount to restock by
+     * @return : StockItem for this dish
+     * @throws InvalidStockItemException : Thrown if the StockItem could not be created
      */
-    public void addDish(Dish toAdd, StockItem stockData) {
-        dishStock.put(toAdd, stockData);
+    public StockItem addDish(Dish toAdd, long stock, Number restockThreshold, Number restockAmount) throws InvalidStockItemException {
+        StockItem stockData = new StockItem(toAdd, this, dishLedger, stock, restockThreshold, restockAmount);
+        StockItem replaced = dishStock.put(toAdd, stockData);
+        if (replaced != null) {
+            dishLedger.free(replaced.getSlot());
+        }
+        return stockData;
     }
 
     /**
@@ -62,15 +96,10 @@ public class StockManager implements Serializable {
      * @param toRemove : Dish to remove
      */
     public void removeDish(Dish toRemove) {
-        dishStock.remove(toRemove);
-    }
-
-    /**
-     * Used to add many dishes and StockItems at once to the prepared dish stock
-     * @param dishesToAdd : Dishes to add to the prepared dish stock.
-     */
-    public void addDishes(HashMap<Dish, StockItem> dishesToAdd) {
-        dishStock.putAll(dishesToAdd);
+        StockItem removed = dishStock.remove(toRemove);
+        if (removed != null) {
+            dishLedger.free(removed.getSlot());
+        }
     }
 
     /**
@@ -79,27 +108,42 @@ public class StockManager implements Serializable {
      * @param unitsToAdd : Units stocked
      */
     public void addIngredient(Ingredient toAdd, long unitsToAdd) {
-        if (ingredientStock.containsKey(toAdd)) {
-            ingredientStock.get(toAdd).addStock(unitsToAdd);
+        StockItem existing = ingredientStock.get(toAdd);
+        if (existing != null) {
+            existing.replenish(unitsToAdd);
         } else {
             //This common.Ingredient isn't in our common.StockManager yet, so add it to the HashMap
-            StockItem newIngredient = null;
             try {
-                newIngredient = new StockItem(toAdd, unitsToAdd, 0, 0);
+                StockItem newIngredient = new StockItem(toAdd, this, ingredientLedger, unitsToAdd, 0, 0);
+                existing = ingredientStock.putIfAbsent(toAdd, newIngredient);
+                if (existing != null) {
+                    existing.replenish(unitsToAdd);
+                } else {
+                    stockChanged(newIngredient, false);
+                }
             } catch (InvalidStockItemException e) {
                 e.printStackTrace();
             }
-            ingredientStock.put(toAdd, newIngredient);
         }
     }
 
     /**
-     * Used to add an ingredient and the StockItem to the ingredient stock manager
+     * Used to add an ingredient to the ingredient stock manager with its restocking levels
      * @param toAdd : Ingredient to add
-     * @param stockData : StockItem for this ingredient
+     * @param stock : Units stocked
+     * @param restockThreshold : Level at which to restock
+     * @param restockAmount : Amount to restock by
+     * @return : StockItem for this ingredient
+     * @throws InvalidStockItemException : Thrown if the StockItem could not be created
      */
-    public void addIngredient(Ingredient toAdd, StockItem stockData) {
-        ingredientStock.put(toAdd, stockData);
+    public StockItem addIngredient(Ingredient toAdd, long stock, Number restockThreshold, Number restockAmount) throws InvalidStockItemException {
+        StockItem stockData = new StockItem(toAdd, this, ingredientLedger, stock, restockThreshold, restockAmount);
+        StockItem replaced = ingredientStock.put(toAdd, stockData);
+        if (replaced != null) {
+            ingredientLedger.free(replaced.getSlot());
+        }
+        stockChanged(stockData, false);
+        return stockData;
     }
 
     /**
@@ -107,24 +151,19 @@ public class StockManager implements Serializable {
      * @param toRemove : Ingredient to remove
      */
     public void removeIngredient(Ingredient toRemove) {
-        ingredientStock.remove(toRemove);
-    }
-
-    /**
-     * Used to add many ingredients at once to the ingredient stock manager
-     * @param ingredientsToAdd : Map containing Ingredient and StockItem to add to the stock manager.
-     */
-    public void addIngredients(HashMap<Ingredient, StockItem> ingredientsToAdd) {
-        ingredientStock.putAll(ingredientsToAdd);
+        StockItem removed = ingredientStock.remove(toRemove);
+        if (removed != null) {
+            ingredientLedger.free(removed.getSlot());
+        }
     }
 
     /**
      * Gets the stock levels for a Dish or Ingredient
      * @param model : Dish or ingredient to check
-     * @return : Long value of stock held on this Dish or Ingredient
+     * @return : Stock held on this Dish or Ingredient
      * @throws InvalidStockItemException : If a model that is not Dish or Ingredient is passed in.
      */
-    public Long getStockLevel(Model model) throws InvalidStockItemException {
+    public long getStockLevel(Model model) throws InvalidStockItemException {
         if (model instanceof Dish) {
             return dishStock.get(model).getStock();
         } else if (model instanceof Ingredient) {
@@ -159,17 +198,85 @@ public class StockManager implements Serializable {
         for (Map.Entry<Dish, Number> orderedItem : order.entrySet()) {
             Dish dish = orderedItem.getKey();
             Integer number = orderedItem.getValue().intValue();
-            dishStock.get(dish).removeStock(number);
+            dishStock.get(dish).consume(number);
+        }
+    }
+
+    /**
+     * Takes the stock of every Dish in an order, but only if there is enough of all of them.
+     * If any Dish is short, the Dishes already taken are put back so the stock is left as it was.
+     * @param order : Map of Dish to quantity ordered
+     * @return : True if all of the order's Dishes were taken from stock, False if not (nothing is taken).
+     */
+    public boolean tryReserveOrder(Map<Dish, Number> order) {
+        List<StockItem> reserved = new ArrayList<>();
+        List<Long> amounts = new ArrayList<>();
+        for (Map.Entry<Dish, Number> orderedItem : order.entrySet()) {
+            StockItem stock = dishStock.get(orderedItem.getKey());
+            long amount = orderedItem.getValue().longValue();
+            if (stock == null || !stock.tryReserve(amount)) {
+                release(reserved, amounts);
+                return false;
+            }
+            reserved.add(stock);
+            amounts.add(amount);
+        }
+        return true;
+    }
+
+    /**
+     * Puts back the Dishes taken for an order that was cancelled before it could be marked as prepared.
+     * @param order : Map of Dish to quantity ordered
+     */
+    public void releaseOrder(Map<Dish, Number> order) {
+        for (Map.Entry<Dish, Number> orderedItem : order.entrySet()) {
+            StockItem stock = dishStock.get(orderedItem.getKey());
+            if (stock != null) {
+                stock.replenish(orderedItem.getValue().longValue());
+            }
+        }
+    }
+
+    /**
+     * Takes the Ingredients needed to make a number of a Dish, but only if there are enough of all of them.
+     * @param dish : Dish to be made
+     * @param quantity : Number of the Dish to be made
+     * @return : True if all of the Ingredients were taken from stock, False if not (nothing is taken).
+     */
+    private boolean tryReserveIngredients(Dish dish, long quantity) {
+        List<StockItem> reserved = new ArrayList<>();
+        List<Long> amounts = new ArrayList<>();
+        for (Ingredient ingredient : dish.getDishIngredients()) {
+            StockItem stock = ingredientStock.get(ingredient);
+            long amount = quantity * dish.getQuantity(ingredient);
+            if (stock == null || !stock.tryReserve(amount)) {
+                release(reserved, amounts);
+                return false;
+            }
+            reserved.add(stock);
+            amounts.add(amount);
+        }
+        return true;
+    }
+
+    /**
+     * Gives back stock taken by a reservation that could not be completed.
+     * @param reserved : StockItems that stock was taken from
+     * @param amounts : Amount taken from each StockItem
+     */
+    private void release(List<StockItem> reserved, List<Long> amounts) {
+        for (int i=0; i<reserved.size(); i++) {
+            reserved.get(i).replenish(amounts.get(i));
         }
     }
 
     /**
      * Gets the threshold that the stock must reach before it is restocked
      * @param model : Dish or Ingredient to check
-     * @return : Long value of the amount of stock
+     * @return : Level at which the Dish or Ingredient is restocked
      * @throws InvalidStockItemException : Thrown if a Model that is not Dish or Ingredient is passed in
      */
-    public Long getRestockThreshold(Model model) throws InvalidStockItemException {
+    public long getRestockThreshold(Model model) throws InvalidStockItemException {
         if (model instanceof Dish) {
             return dishStock.get(model).getRestockThreshold();
         } else if (model instanceof Ingredient) {
@@ -217,7 +324,7 @@ public class StockManager implements Serializable {
      * @return : Amount to restock by
      * @throws InvalidStockItemException : Thrown if a model that is not Dish or Ingredient is passed in
      */
-    public Long getRestockAmount(Model model) throws InvalidStockItemException {
+    public long getRestockAmount(Model model) throws InvalidStockItemException {
         if (model instanceof Dish) {
             return dishStock.get(model).getRestockAmount();
         } else if (model instanceof Ingredient) {
@@ -238,6 +345,14 @@ public class StockManager implements Serializable {
         return allStock;
     }
 
+    /**
+     * Gets the StockItems of every Dish, without copying them.
+     * @return : Collection of Dish StockItems
+     */
+    public Collection<StockItem> getDishStock() {
+        return dishStock.values();
+    }
+
     /**
      * Gets all Ingredient stock levels as a Map
      * @return Map of Ingredient as Key and stock as Value
@@ -263,26 +378,142 @@ public class StockManager implements Serializable {
     }
 
     /**
-     * Finds any ingredients that are below stock levels and returns them
-     * Synchronized so that it is thread safe, that is that multiple Drones won't get the same ingredient returned and both restock the same ingredient.
-     * @return Ingredient : Ingredient to restock.
+     * Called by a StockItem whenever its stock or restock threshold changes.
+     * If an Ingredient has fallen to its restock threshold it is queued for a Drone to restock, unless it already is,
+     * and if a Dish has it is queued for the kitchen Staff to cook. Added stock wakes any work that was waiting on it.
+     * @param item : StockItem that changed
+     * @param stockAdded : True if stock may have been added
      */
-    public synchronized Ingredient findIngredientToRestock() {
-        Ingredient toReturn = null;
-        //Iterate through every Ingredient we need to keep stocked above restock threshold.
-        for (Ingredient ingredient : ingredientStock.keySet()) {
-            StockItem stock = ingredientStock.get(ingredient);
-
-            //If there are items where the restock threshold exceeds the number in stock, we need to get more.
-            if (stock.getRestockThreshold() >= stock.getStock() && !stock.beingRestocked()) {
-                stock.setBeingRestocked(true);
-                toReturn = ingredient;
-                break;
+    void stockChanged(StockItem item, boolean stockAdded) {
+        StateJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.stockChanged(item);
+        }
+        ChangeTracker currentChanges = changes;
+        if (currentChanges != null) {
+            currentChanges.stockChanged(item);
+        }
+        //If there are items where the restock threshold exceeds the number in stock, we need to get more.
+        boolean low = item.getRestockThreshold() >= item.getStock();
+        if (item.isIngredient()) {
+            if (low && item.tryStartRestocking()) {
+                restockScheduler.schedule(item);
+                fleetDispatcher.dispatch();
+            } else {
+                //If it is already waiting for a Drone, it moves up the queue as its stock keeps falling.
+                restockScheduler.reprioritise(item);
+            }
+            if (stockAdded) {
+                kitchen.ingredientsArrived();
+            }
+        } else {
+            if (low && item.getRestockThreshold() != 0 && !item.beingRestocked()) {
+                kitchen.dishLow((Dish) item.getStockedItem());
+            }
+            if (stockAdded) {
+                kitchen.dishesMade();
             }
         }
+    }
+
+    /**
+     * Sets the journal to record every change of stock level in
+     * @param journal : StateJournal, or null to stop journaling
+     */
+    public void setJournal(StateJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the tracker to record every change of stock level in
+     * @param changes : ChangeTracker, or null to stop tracking changes
+     */
+    public void setChangeTracker(ChangeTracker changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * Gets the lock used to keep snapshots consistent. Anything that takes stock and changes an Order's state as one
+     * change holds the read lock while it does, so a StateSnapshot (which holds the write lock) never sees half of it.
+     * The write lock is only held while values are copied, never while a snapshot is written to disk.
+     * @return : ReadWriteLock guarding changes that span stock and Orders
+     */
+    public ReadWriteLock getStateLock() {
+        return stateLock;
+    }
+
+    /**
+     * Gets the queue of work for the kitchen Staff
+     * @return : KitchenQueue
+     */
+    public KitchenQueue getKitchen() {
+        return kitchen;
+    }
+
+    /**
+     * Gets the planner holding prepared Orders waiting for the Drones
+     * @return : DeliveryPlanner
+     */
+    public DeliveryPlanner getDeliveryPlanner() {
+        return deliveryPlanner;
+    }
+
+    /**
+     * Gets the dispatcher that hands jobs to the Drones
+     * @return : FleetDispatcher
+     */
+    public FleetDispatcher getFleetDispatcher() {
+        return fleetDispatcher;
+    }
+
+    /**
+     * Called by the Staff when an Order has been prepared, so that it can be delivered.
+     * @param order : Prepared Order
+     */
+    public void orderPrepared(Order order) {
+        deliveryPlanner.orderPrepared(order);
+        fleetDispatcher.dispatch();
+    }
 
+    /**
+     * Finds the most urgent ingredient that is below stock levels and returns it, without waiting.
+     * Each ingredient is only queued once, so multiple Drones won't get the same ingredient returned and both restock the same ingredient.
+     * @return Ingredient : Ingredient to restock, or null if there are none.
+     */
+    public Ingredient findIngredientToRestock() {
+        StockItem stock;
+        while ((stock = restockScheduler.poll()) != null) {
+            if (isCurrent(stock)) {
+                return (Ingredient) stock.getStockedItem();
+            }
+        }
         //If there are no ingredients to restock, return null.
-        return toReturn;
+        return null;
+    }
+
+    /**
+     * Gets the most urgent ingredient that is below stock levels, leaving it to be taken by findIngredientToRestock.
+     * @return Ingredient : Ingredient to restock, or null if there are none.
+     */
+    public Ingredient peekIngredientToRestock() {
+        StockItem stock;
+        while ((stock = restockScheduler.peek()) != null) {
+            if (isCurrent(stock)) {
+                return (Ingredient) stock.getStockedItem();
+            }
+            //The ingredient was removed while it was waiting, so discard it.
+            restockScheduler.remove(stock);
+        }
+        return null;
+    }
+
+    /**
+     * Checks a queued StockItem is still the one held for its Ingredient, as the Ingredient may have been removed since.
+     * @param stock : StockItem taken from the restock queue
+     * @return : True if the Ingredient is still stocked, False if not.
+     */
+    private boolean isCurrent(StockItem stock) {
+        return ingredientStock.get((Ingredient) stock.getStockedItem()) == stock;
     }
 
     /**
@@ -291,7 +522,7 @@ public class StockManager implements Serializable {
      * @return boolean: True if chef can make the quantity with the ingredients available, False if not.
      */
     public boolean canMakeMinQuantity(Dish dish) {
-        int dishesToMake = dishStock.get(dish).getRestockAmount().intValue();
+        long dishesToMake = dishStock.get(dish).getRestockAmount();
         boolean canMake = true;
         //Iterate through every ingredient required to make the dish
         for (Ingredient ingredient : dish.getDishIngredients()) {
@@ -307,32 +538,48 @@ public class StockManager implements Serializable {
     /**
      * Restocks the dish if it falls below the restock threshold.
      * @param dish : Dish to restock
+     * @return : True if the dishes were made, False if there weren't enough ingredients.
+     * @throws InterruptedException : Thrown if the cook is interrupted
      */
-    public void restockDish(Dish dish) throws InterruptedException {
+    public boolean restockDish(Dish dish) throws InterruptedException {
         if (dish != null) {
             StockItem dishData = dishStock.get(dish);
+            long restockAmount = dishData.getRestockAmount();
 
-            //Waits between 20 and 60 seconds while the cook makes the dishes
-            int randomNum = ThreadLocalRandom.current().nextInt(20, 61);
-            Thread.sleep(1000*randomNum);
+            //Take the ingredients required to make the dish first, so another cook can't use them in the meantime.
+            if (!tryReserveIngredients(dish, restockAmount)) {
+                dishData.setBeingRestocked(false);
+                return false;
+            }
+
+            try {
+                //Waits between 20 and 60 seconds while the cook makes the dishes
+                int randomNum = ThreadLocalRandom.current().nextInt(20, 61);
+                Thread.sleep(1000*randomNum);
+            } catch (InterruptedException e) {
+                //The dishes were never made, so give the ingredients back.
+                for (Ingredient ingredient : dish.getDishIngredients()) {
+                    ingredientStock.get(ingredient).replenish(restockAmount * dish.getQuantity(ingredient));
+                }
+                dishData.setBeingRestocked(false);
+                throw e;
+            }
 
             //If the restock amount is 0, it will be restocked back purely to the threshold.
             //This can cause problems if we get an order that has a quantity greater than the restockThreshold
-            if (dishData.getRestockAmount() == 0) {
-                dishData.setStock(dishData.getRestockThreshold());
+            if (restockAmount == 0) {
+                dishData.replenishTo(dishData.getRestockThreshold());
             } else {
                 //Once the stock of a dish falls below the restock threshold, they are restocked adding the restock amount to existing stock.
-                dishData.setStock(dishData.getStock() + dishData.getRestockAmount());
+                dishData.replenish(restockAmount);
             }
 
-            //Then deduct the ingredients required to make the dish
-            for (Ingredient ingredient : dish.getDishIngredients()) {
-                long amountUsed = dishData.getRestockAmount() * dish.getQuantity(ingredient);
-                ingredientStock.get(ingredient).removeStock(amountUsed);
-            }
-
-            dishStock.get(dish).setBeingRestocked(false);
+            dishData.setBeingRestocked(false);
+            //If the dish is still below its threshold (eg: a small restock amount), it goes back in the queue.
+            stockChanged(dishData, false);
+            return true;
         }
+        return false;
     }
 
     /**
@@ -347,16 +594,21 @@ public class StockManager implements Serializable {
 
             //Waits the time required for the drone to go to the supplier and back (supplier distance * 2) / speed.
             long sleepSeconds = (ingredient.getSupplier().getDistance() * 2) / flyingSpeed;
-            Thread.sleep(1000*sleepSeconds);
+            try {
+                Thread.sleep(1000*sleepSeconds);
+            } catch (InterruptedException e) {
+                ingredientData.setBeingRestocked(false);
+                stockChanged(ingredientData, false);
+                throw e;
+            }
 
             //If the restock amount is 0, it will be restocked back purely to the threshold.
-            if (ingredientData.getRestockAmount() == 0) {
-                ingredientData.setStock(ingredientData.getRestockThreshold());
-            } else {
-                //Once the stock of an ingredient falls below the restock threshold, they are restocked up to restock threshold + restock amount.
-                ingredientData.setStock(ingredientData.getRestockThreshold() + ingredientData.getRestockAmount());
-            }
-            ingredientStock.get(ingredient).setBeingRestocked(false);
+            //Once the stock of an ingredient falls below the restock threshold, they are restocked up to restock threshold + restock amount.
+            //Raised atomically, so any stock the cooks used while the drone was flying isn't lost.
+            ingredientData.replenishTo(ingredientData.getRestockThreshold() + ingredientData.getRestockAmount());
+            ingredientData.setBeingRestocked(false);
+            //If the ingredient is still at its threshold (eg: no restock amount), it goes back in the queue.
+            stockChanged(ingredientData, false);
         }
     }
 
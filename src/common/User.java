@@ -135,6 +135,14 @@ public class User extends Model implements Serializable {
         ordersMade++;
     }
 
+    /**
+     * Sets the number of orders the User has made, used when a User is received from the Server.
+     * @param ordersMade : Number of orders the User has made
+     */
+    public void setOrdersMade(int ordersMade) {
+        this.ordersMade = ordersMade;
+    }
+
     /**
      * Gets the number of orders the User has made.
      * @return Number of orders the User has made.
@@ -0,0 +1,35 @@
+package comms;
+
+import exceptions.InvalidMessageException;
+
+/**
+ * A connection from the CommsServer to a single Client, either served by its own thread or by the CommsServer's Selector.
+ * @author Oscar van Leusen
+ */
+public interface ClientConnection {
+
+    /**
+     * Gets the UID of the client this connection is with.
+     * @return int : Unique Identifier generated from hashCode of ClientInterface connected to.
+     */
+    int getUID();
+
+    /**
+     * Sends a Message to the Client
+     * @param message : Message to send
+     * @return : Boolean, True if sent (or queued to be sent) without errors, False if not.
+     * @throws InvalidMessageException : Thrown if a null message is attempted to be sent.
+     */
+    boolean sendMessage(Message message) throws InvalidMessageException;
+
+    /**
+     * Returns whether the connection is still open.
+     * @return : True if it is, False if it is not.
+     */
+    boolean isRunning();
+
+    /**
+     * Closes the connection, used when a new Configuration is loaded on the Server
+     */
+    void disconnect();
+}
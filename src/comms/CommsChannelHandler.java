@@ -0,0 +1,194 @@
+package comms;
+
+import exceptions.InvalidMessageException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A connection to a single Client served by the CommsServer's Selector thread rather than a thread of its own.
+ * Incoming bytes are buffered until a whole frame has arrived, and outgoing frames are queued until the channel is writable.
+ * @author Oscar van Leusen
+ */
+class CommsChannelHandler implements ClientConnection {
+
+    private final SocketChannel channel;
+    private final CommsServer commsServer;
+    private SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+    //Frames waiting to be written, added to by the dispatcher threads and drained by the Selector thread.
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private int clientUID;
+    private boolean firstPayload = true;
+
+    CommsChannelHandler(SocketChannel channel, CommsServer commsServer) {
+        this.channel = channel;
+        this.commsServer = commsServer;
+    }
+
+    /**
+     * Sets the SelectionKey this channel was registered to the Selector with.
+     * @param key : SelectionKey for this channel
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Called by the Selector thread when the channel is readable. Reads whatever is available and processes every
+     * complete frame, leaving any partial frame in the buffer until the rest of it arrives.
+     * @throws IOException : Thrown if the client has disconnected or sent a corrupt frame.
+     */
+    void readFrames() throws IOException {
+        if (channel.read(readBuffer) == -1) {
+            throw new EOFException("Client " + clientUID + " closed the connection");
+        }
+        readBuffer.flip();
+        int needed = 0;
+        while (readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            MessageCodec.checkLength(length);
+            if (readBuffer.remaining() < 4 + length) {
+                needed = 4 + length;
+                break;
+            }
+            readBuffer.getInt();
+            byte[] frame = new byte[length];
+            readBuffer.get(frame);
+            handleFrame(frame);
+        }
+        readBuffer.compact();
+
+        //If the next frame is bigger than the buffer, the buffer has to grow before the rest of it can be read.
+        if (needed > readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(needed);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    /**
+     * Processes a single complete frame. The first frame is the handshake containing the client's UID, every later one is a Message.
+     * @param frame : Bytes of the frame
+     * @throws IOException : Thrown if the frame is corrupt or isn't what the client should have sent
+     */
+    private void handleFrame(byte[] frame) throws IOException {
+        Object payload = MessageCodec.decode(frame);
+        if (firstPayload) {
+            if (!(payload instanceof Integer)) {
+                throw new ProtocolException("Client handshake did not contain a UID");
+            }
+            clientUID = (Integer) payload;
+            System.out.println("Conncted to Client UID: " + clientUID);
+            firstPayload = false;
+            commsServer.registerClient(this);
+        } else if (payload instanceof Message) {
+            Message received = (Message) payload;
+            received.setConnectionUID(clientUID);
+            commsServer.queueMessage(received);
+        } else {
+            throw new ProtocolException("Client " + clientUID + " sent a frame that is not a Message");
+        }
+    }
+
+    /**
+     * Called by the Selector thread when the channel is writable. Writes as many queued frames as the channel will accept
+     * and stops listening for writability once the queue is empty.
+     * @throws IOException : Thrown if the client has disconnected.
+     */
+    void writeFrames() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = writeQueue.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                //The socket's send buffer is full, so wait until it is writable again.
+                return;
+            }
+            writeQueue.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Returns whether there are frames waiting to be written to the client.
+     * @return True if there are, False if not.
+     */
+    boolean hasPendingWrites() {
+        return !writeQueue.isEmpty();
+    }
+
+    /**
+     * Gets the SelectionKey this channel was registered to the Selector with.
+     * @return SelectionKey for this channel
+     */
+    SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the UID of the client this channel is connected to.
+     * @return int : Unique Identifier generated from hashCode of ClientInterface connected to.
+     */
+    @Override
+    public int getUID() {
+        return clientUID;
+    }
+
+    /**
+     * Queues a Message to be written to the Client by the Selector thread.
+     * @param message : Message to send
+     * @return : Boolean, True if queued without errors, False if not.
+     * @throws InvalidMessageException : Thrown if a null message is attempted to be sent.
+     */
+    @Override
+    public boolean sendMessage(Message message) throws InvalidMessageException {
+        if (message == null) {
+            throw new InvalidMessageException("Attempted to send message to client with null content");
+        }
+        if (!running) {
+            return false;
+        }
+        try {
+            writeQueue.add(MessageCodec.toFrameBuffer(message));
+            commsServer.requestWrite(this);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether the channel is still open.
+     * @return : True if it is, False if it is not.
+     */
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Closes the channel and removes it from the Selector.
+     */
+    @Override
+    public void disconnect() {
+        running = false;
+        writeQueue.clear();
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -17,23 +18,39 @@ import java.util.Queue;
  */
 public class CommsClient extends Thread implements Comms {
 
+    //Messages the Server sends without being asked, which are handed to the PushListener rather than queued
+    private static final EnumSet<MessageType> PUSHED = EnumSet.of(MessageType.DISH_CHANGED, MessageType.DISH_REMOVED,
+            MessageType.ORDER_CHANGED, MessageType.ORDER_REMOVED);
+
     private volatile boolean running = false;
     private boolean newMessage = false;
-    private boolean newUpdateNotify = false;
+    private volatile boolean newUpdateNotify = false;
     private final ClientInterface client;
+    private final PushListener pushListener;
     private Socket socket;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    private DataInputStream in;
+    private DataOutputStream out;
     private Queue<Message> messages = new LinkedList<>();
     private boolean firstMessage = true;
 
     /**
-     * Accepts a new Server Connection, obtains ObjectInputStream and ObjectOutputStream and sends the client UID (hashCode)
+     * Accepts a new Server Connection, obtains the framed input and output streams and sends the client UID (hashCode)
      * @param client ClientInterface instance
      * @param port Port to start the connection on
      */
     public CommsClient(ClientInterface client, int port, InetAddress serverAddress) {
+        this(client, null, port, serverAddress);
+    }
+
+    /**
+     * Accepts a new Server Connection, handing changes pushed by the Server to a PushListener
+     * @param client ClientInterface instance
+     * @param pushListener Receives changes pushed by the Server, or null to ignore them
+     * @param port Port to start the connection on
+     */
+    public CommsClient(ClientInterface client, PushListener pushListener, int port, InetAddress serverAddress) {
         this.client = client;
+        this.pushListener = pushListener;
 
         try {
             //Opens a socket on the specified IP and port
@@ -42,12 +59,11 @@ public class CommsClient extends Thread implements Comms {
                 running = true;
                 System.out.println("Client connected to server!");
 
-                out = new ObjectOutputStream(socket.getOutputStream());
-                in = new ObjectInputStream(socket.getInputStream());
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
                 //Passes the hashCode of the ClientInterface to act as a UID so that the server knows what client it's talking to.
                 if (firstMessage) {
-                    out.writeObject(client.hashCode());
-                    out.flush();
+                    MessageCodec.writeFrame(out, client.hashCode());
                     firstMessage = false;
                 }
 
@@ -70,7 +86,7 @@ public class CommsClient extends Thread implements Comms {
             Message received;
             try {
                 try {
-                    received = (Message) in.readObject();
+                    received = (Message) MessageCodec.readFrame(in);
                 } catch (SocketException | EOFException e) {
                     System.out.println("Server has closed.");
                     out.close();
@@ -82,13 +98,21 @@ public class CommsClient extends Thread implements Comms {
                     System.exit(-1);
                     return;
                 }
+                //Changes pushed by the Server are applied straight away, then the Client is told to update
+                if (received != null && PUSHED.contains(received.getType())) {
+                    if (pushListener != null) {
+                        pushListener.pushed(received);
+                    }
+                    this.newUpdateNotify = true;
+                    continue;
+                }
                 synchronized (messages) {
                     if (received != null) {
                         messages.add(received);
                         this.newMessage = true;
                     }
                 }
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
             }
 
@@ -113,14 +137,13 @@ public class CommsClient extends Thread implements Comms {
     /**
      * Sends a message to the Server
      * @param message : Message object contain the type and payload (if any)
-     * @return : Boolean on whether writeObject could complete without an error.
+     * @return : Boolean on whether the message could be written without an error.
      */
     @Override
     public synchronized boolean sendMessage(Message message) {
         if (initialised()) {
             try {
-                out.writeObject(message);
-                out.flush();
+                MessageCodec.writeFrame(out, message);
                 return true;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -3,42 +3,77 @@ package comms;
 import exceptions.InvalidMessageException;
 
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Tutorial used for implementation of Thread-based socket communication (although most aspects are changed from this):
  * https://www.geeksforgeeks.org/introducing-threads-socket-programming-java/
+ * Can alternatively serve every client from this single thread using a NIO Selector, rather than a thread per client.
  * @author Oscar van Leusen
  */
 public class CommsServer extends Thread implements Comms {
     private boolean running = true;
-    private boolean newMessage = false;
     private ServerSocket serverSocket;
-    private HashMap<Thread, Socket> clientConnection = new HashMap<>();
+    //Only used when serving clients with a Selector
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private final Queue<CommsChannelHandler> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Set<ClientConnection> clientConnection = ConcurrentHashMap.newKeySet();
+    //Index of every connection that has completed its handshake, keyed by the client's UID
+    private final ConcurrentHashMap<Integer, ClientConnection> clientsByUID = new ConcurrentHashMap<>();
+    //Shared inbox that every client connection pushes its received Messages into, drained by the Server's dispatchers.
+    private final BlockingQueue<Message> inbox = new LinkedBlockingQueue<>();
+    //Told when a client disconnects, so it stops sending that client updates
+    private volatile UpdatePublisher publisher;
 
     public CommsServer(int port) throws IOException {
-        serverSocket = new ServerSocket(port);
+        this(port, false);
+    }
+
+    /**
+     * Creates the CommsServer listening on a port
+     * @param port : Port to accept client connections on
+     * @param useSelector : True to serve all clients from one thread using a Selector, False to start a thread per client.
+     * @throws IOException : Thrown if the port cannot be listened on
+     */
+    public CommsServer(int port, boolean useSelector) throws IOException {
+        if (useSelector) {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } else {
+            serverSocket = new ServerSocket(port);
+        }
     }
 
 
     /**
-     * Starts the Thread that accepts any new client connections and and then gives that client connection itself a new thread.
+     * Starts the Thread that accepts any new client connections, then either gives that client connection itself a new
+     * thread or serves it from this thread's Selector.
      */
     @Override
     public void run() {
+        if (selector != null) {
+            runSelector();
+            return;
+        }
         while (running) {
-
-            //Makes sure to clear clientConnections of any closed connections
-            for (Thread thread : clientConnection.keySet()) {
-                CommsClientHandler comms = (CommsClientHandler) thread;
-                if (!comms.isRunning()) {
-                    clientConnection.remove(thread);
-                }
-            }
-
             Socket socket;
             try {
                 //Socket object receives incoming client requests, this is blocked until a client is connected
@@ -47,8 +82,8 @@ public class CommsServer extends Thread implements Comms {
 
                 //Creates new thread for this client connection so that this thread is able to continue accepting
                 //new connections.
-                Thread thread = new CommsClientHandler(socket, this);
-                clientConnection.put(thread, socket);
+                CommsClientHandler thread = new CommsClientHandler(socket, this);
+                clientConnection.add(thread);
                 thread.start();
 
             } catch (Exception e) {
@@ -57,16 +92,135 @@ public class CommsServer extends Thread implements Comms {
         }
     }
 
+    /**
+     * Serves every client connection from this thread. Waits on the Selector until a client connects, sends data or
+     * can be written to, so no thread is left blocked per client.
+     */
+    private void runSelector() {
+        while (serverChannel.isOpen()) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            //Frames queued by other threads since the last select need the channel to be watched for writability.
+            CommsChannelHandler pending;
+            while ((pending = pendingWrites.poll()) != null) {
+                SelectionKey key = pending.getKey();
+                if (key.isValid() && pending.hasPendingWrites()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    acceptChannel();
+                    continue;
+                }
+                CommsChannelHandler client = (CommsChannelHandler) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        client.readFrames();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        client.writeFrames();
+                    }
+                } catch (ProtocolException e) {
+                    e.printStackTrace();
+                    client.disconnect();
+                    removeClient(client);
+                } catch (IOException e) {
+                    System.out.println("Client " + client.getUID() + " has disconnected.");
+                    client.disconnect();
+                    removeClient(client);
+                } catch (RuntimeException e) {
+                    //Every other client is served by this thread, so one bad channel only closes its own connection.
+                    e.printStackTrace();
+                    client.disconnect();
+                    removeClient(client);
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts a waiting client connection and registers it with the Selector.
+     */
+    private void acceptChannel() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            System.out.println("A client has connected");
+            channel.configureBlocking(false);
+            CommsChannelHandler client = new CommsChannelHandler(channel, this);
+            client.setKey(channel.register(selector, SelectionKey.OP_READ, client));
+            clientConnection.add(client);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Called by a client connection once it has received the client's UID, so that Messages can be routed to it.
+     * If the same client UID reconnects, the newer connection replaces the old one.
+     * @param client : Connection that has completed its handshake
+     */
+    void registerClient(ClientConnection client) {
+        clientsByUID.put(client.getUID(), client);
+    }
+
+    /**
+     * Sets the UpdatePublisher to tell when a client disconnects
+     * @param publisher : UpdatePublisher pushing changes to the clients of this CommsServer
+     */
+    public void setPublisher(UpdatePublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Called when a client connection has closed, so that it is no longer sent Messages.
+     * Both the thread per client and the Selector close connections through here.
+     * @param client : Connection that has closed
+     */
+    void removeClient(ClientConnection client) {
+        clientConnection.remove(client);
+        //If the client has already reconnected, the newer connection stays and so do its updates.
+        if (clientsByUID.remove(client.getUID(), client)) {
+            UpdatePublisher currentPublisher = publisher;
+            if (currentPublisher != null) {
+                currentPublisher.disconnected(client.getUID());
+            }
+        }
+    }
+
+    /**
+     * Called when a Message has been queued for a channel, so that the Selector thread starts writing it.
+     * @param client : Channel with frames waiting to be written
+     */
+    void requestWrite(CommsChannelHandler client) {
+        pendingWrites.add(client);
+        selector.wakeup();
+    }
+
     /**
      * Sends message to every single client connected to
      * @param message : Message to send
      * @return boolean : Error sent without exceptions/errors
      */
     @Override
-    public synchronized boolean sendMessage(Message message) {
+    public boolean sendMessage(Message message) {
         boolean success = true;
-        for (Thread thread : clientConnection.keySet()) {
-            CommsClientHandler client = (CommsClientHandler) thread;
+        for (ClientConnection client : clientsByUID.values()) {
             boolean messageSent = false;
             try {
                 messageSent = client.sendMessage(message);
@@ -87,51 +241,36 @@ public class CommsServer extends Thread implements Comms {
      * @return boolean: Error sent without exceptions/errors.
      */
     @Override
-    public synchronized boolean sendMessage(int uid, Message message) {
-        for (Thread thread : clientConnection.keySet()) {
-            CommsClientHandler client = (CommsClientHandler) thread;
-            if (client.getUID() == uid) {
-                try {
-                    return client.sendMessage(message);
-                } catch (InvalidMessageException e) {
-                    e.printStackTrace();
-                }
+    public boolean sendMessage(int uid, Message message) {
+        ClientConnection client = clientsByUID.get(uid);
+        if (client != null) {
+            try {
+                return client.sendMessage(message);
+            } catch (InvalidMessageException e) {
+                e.printStackTrace();
             }
         }
         return false;
     }
 
     /**
-     * Receives a Message from any of the open clients
-     * @return Message : Message read
+     * Receives a Message from any of the open clients, without waiting if none are available.
+     * @return Message : Message read, or null if there are no new messages.
      */
     @Override
-    synchronized public Message receiveMessage() {
-        this.newMessage = false;
-        Message message;
-        for (Thread thread : clientConnection.keySet()) {
-            CommsClientHandler client = (CommsClientHandler) thread;
-            message = client.receiveMessage();
-            if (message != null) {
-                return message;
-            }
-        }
-        return null;
+    public Message receiveMessage() {
+        return inbox.poll();
     }
 
     /**
      * Receives a Message from any of the open clients matching a specific type.
      * @param type : Type of message to return
-     * @return Message : Message returned.
+     * @return Message : Message returned, or null if no message of this type has been received.
      */
     @Override
-    synchronized public Message receiveMessage(MessageType type) {
-        this.newMessage = false;
-        Message message;
-        for (Thread thread : clientConnection.keySet()) {
-            CommsClientHandler client = (CommsClientHandler) thread;
-            message = client.receiveMessage();
-            if (message.getType() == type) {
+    public Message receiveMessage(MessageType type) {
+        for (Message message : inbox) {
+            if (message.getType() == type && inbox.remove(message)) {
                 System.out.println("Received message of type: " + type);
                 return message;
             }
@@ -139,21 +278,31 @@ public class CommsServer extends Thread implements Comms {
         return null;
     }
 
+    /**
+     * Waits until a Message has been received from any of the open clients and returns it.
+     * Used by the Server's dispatcher threads so that they block rather than spin while there is nothing to process.
+     * @return Message : Message read
+     * @throws InterruptedException : Thrown if the waiting thread is interrupted.
+     */
+    public Message takeMessage() throws InterruptedException {
+        return inbox.take();
+    }
+
     /**
      * Returns whether there is a new message.
      * @return true : There is a new message, False : There is no new message
      */
     @Override
     public boolean getMessageStatus() {
-        return newMessage;
+        return !inbox.isEmpty();
     }
 
     /**
-     * Sets whether there is a new message (set to false once the message has been read)
-     * @param newMessage : State of message status.
+     * Called by a client connection when it has received a Message, to queue it for the Server to process.
+     * @param message : Message received from the client
      */
-    public void setMessageStatus(boolean newMessage) {
-        this.newMessage = newMessage;
+    void queueMessage(Message message) {
+        inbox.add(message);
     }
 
     /**
@@ -162,15 +311,13 @@ public class CommsServer extends Thread implements Comms {
      */
     public void dropConnections() {
         this.running = false;
-        try {
-            for (Map.Entry<Thread, Socket> client : clientConnection.entrySet()) {
-                CommsClientHandler clientConnection = (CommsClientHandler) client.getKey();
-                clientConnection.cancelThread();
-                client.getValue().close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        for (ClientConnection client : clientConnection) {
+            client.disconnect();
         }
+        clientConnection.clear();
+        clientsByUID.clear();
+        //Any requests still waiting are from clients that no longer exist
+        inbox.clear();
         try {
             sleep(1000);
         } catch (InterruptedException e) {
@@ -0,0 +1,415 @@
+package comms;
+
+import common.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Converts objects sent between the Client and Server to and from length-prefixed frames.
+ * Every frame is a 4 byte length followed by that many bytes of payload, which allows the Server to read Messages
+ * from non-blocking channels without needing a thread blocked on each client's stream.
+ *
+ * Frames use a compact binary encoding rather than Java serialization. Each frame starts with the protocol version,
+ * then either a Message (type and payload) or a bare value such as the handshake UID. Dish, Order, Postcode and User
+ * only have the fields the other side needs written. A Dish is sent as a lightweight menu entry of its identifier, name,
+ * description and price, so its StockManager and recipe never leave the Server.
+ * A Dish, Postcode or User appearing more than once in a frame is only written the first time, and later
+ * occurrences refer back to it, so a list of orders doesn't repeat the same dish and user over and over.
+ * Only the types above can be sent. Nothing received is ever passed to Java deserialization, so a frame from a Client
+ * can only ever produce these types, however it was crafted.
+ * @author Oscar van Leusen
+ */
+public final class MessageCodec {
+
+    //Largest frame that will be accepted, anything larger is treated as a corrupt stream.
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    //Incremented whenever the encoding changes, so mismatched clients and servers are detected.
+    static final byte VERSION = 3;
+
+    private static final byte KIND_VALUE = 0;
+    private static final byte KIND_MESSAGE = 1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_BOOLEAN = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_LIST = 6;
+    private static final byte TAG_MAP = 7;
+    private static final byte TAG_DISH = 8;
+    private static final byte TAG_ORDER = 9;
+    private static final byte TAG_POSTCODE = 10;
+    private static final byte TAG_USER = 11;
+    private static final byte TAG_REFERENCE = 12;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Encodes an object into the bytes of a single frame (not including the length prefix)
+     * @param object : Message or value to encode
+     * @return byte[] : Encoded object
+     * @throws IOException : Thrown if the object cannot be encoded
+     */
+    public static byte[] encode(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<Object, Integer> references = new IdentityHashMap<>();
+        out.writeByte(VERSION);
+        if (object instanceof Message) {
+            Message message = (Message) object;
+            out.writeByte(KIND_MESSAGE);
+            out.writeByte(message.getType().ordinal());
+            writeValue(out, message.getPayload(), references);
+        } else {
+            out.writeByte(KIND_VALUE);
+            writeValue(out, object, references);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the bytes of a single frame back into the object that was sent
+     * @param frame : Bytes of the frame (not including the length prefix)
+     * @return Object : Decoded Message or value
+     * @throws IOException : Thrown if the frame is corrupt or from a different protocol version
+     */
+    public static Object decode(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        List<Object> references = new ArrayList<>();
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Received frame with unsupported protocol version: " + version);
+        }
+        byte kind = in.readByte();
+        if (kind == KIND_MESSAGE) {
+            int typeIndex = in.readUnsignedByte();
+            MessageType[] types = MessageType.values();
+            if (typeIndex >= types.length) {
+                throw new IOException("Received Message with unknown type: " + typeIndex);
+            }
+            return new Message(types[typeIndex], (Serializable) readValue(in, references));
+        } else if (kind == KIND_VALUE) {
+            return readValue(in, references);
+        } else {
+            throw new IOException("Received frame of unknown kind: " + kind);
+        }
+    }
+
+    /**
+     * Writes a single value, preceded by a tag saying how it was encoded.
+     * @param out : Stream to write to
+     * @param value : Value to write (may be null)
+     * @param references : Dishes, Postcodes and Users already written to this frame, with their reference number
+     * @throws IOException : Thrown if the value cannot be written
+     */
+    private static void writeValue(DataOutputStream out, Object value, Map<Object, Integer> references) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (references.containsKey(value)) {
+            out.writeByte(TAG_REFERENCE);
+            out.writeInt(references.get(value));
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TAG_LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element, references);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TAG_MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey(), references);
+                writeValue(out, entry.getValue(), references);
+            }
+        } else if (value instanceof Dish) {
+            Dish dish = (Dish) value;
+            references.put(dish, references.size());
+            out.writeByte(TAG_DISH);
+            out.writeInt(dish.getID());
+            writeString(out, dish.getName());
+            writeString(out, dish.getDishDescription());
+            out.writeDouble(dish.dishPrice());
+        } else if (value instanceof Postcode) {
+            Postcode postcode = (Postcode) value;
+            references.put(postcode, references.size());
+            out.writeByte(TAG_POSTCODE);
+            writeString(out, postcode.getName());
+            out.writeLong(postcode.getDistance());
+        } else if (value instanceof User) {
+            User user = (User) value;
+            references.put(user, references.size());
+            out.writeByte(TAG_USER);
+            writeString(out, user.getName());
+            writeString(out, user.getPassword());
+            writeString(out, user.getAddress());
+            writeValue(out, user.getPostcode(), references);
+            out.writeInt(user.getOrdersMade());
+            out.writeInt(user.getClientUID());
+        } else if (value instanceof Order) {
+            Order order = (Order) value;
+            out.writeByte(TAG_ORDER);
+            writeValue(out, order.getUser(), references);
+            out.writeInt(order.getUserOrderNum());
+            out.writeByte(order.getOrderState().ordinal());
+            writeValue(out, order.copyBasket(), references);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads a single value written by writeValue
+     * @param in : Stream to read from
+     * @param references : Dishes, Postcodes and Users already read from this frame, in the order they were written
+     * @return Object : Value read (may be null)
+     * @throws IOException : Thrown if the value is corrupt
+     */
+    private static Object readValue(DataInputStream in, List<Object> references) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_REFERENCE:
+                int reference = in.readInt();
+                if (reference < 0 || reference >= references.size() || references.get(reference) == null) {
+                    throw new IOException("Received invalid reference: " + reference);
+                }
+                return references.get(reference);
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_INT:
+                return in.readInt();
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_STRING:
+                return readString(in);
+            case TAG_LIST: {
+                int size = readSize(in);
+                ArrayList<Object> list = new ArrayList<>(size);
+                for (int i=0; i<size; i++) {
+                    list.add(readValue(in, references));
+                }
+                return list;
+            }
+            case TAG_MAP: {
+                int size = readSize(in);
+                HashMap<Object, Object> map = new HashMap<>();
+                for (int i=0; i<size; i++) {
+                    Object key = readValue(in, references);
+                    map.put(key, readValue(in, references));
+                }
+                return map;
+            }
+            case TAG_DISH: {
+                int slot = reserveReference(references);
+                Dish dish = new Dish(in.readInt(), readString(in), readString(in), in.readDouble(), null);
+                references.set(slot, dish);
+                return dish;
+            }
+            case TAG_POSTCODE: {
+                int slot = reserveReference(references);
+                Postcode postcode = new Postcode(readString(in), in.readLong());
+                references.set(slot, postcode);
+                return postcode;
+            }
+            case TAG_USER: {
+                int slot = reserveReference(references);
+                String name = readString(in);
+                String password = readString(in);
+                String address = readString(in);
+                Postcode postcode = readValue(in, references, Postcode.class);
+                User user = new User(name, password, address, postcode);
+                user.setOrdersMade(in.readInt());
+                user.setClientUID(in.readInt());
+                references.set(slot, user);
+                return user;
+            }
+            case TAG_ORDER: {
+                User user = readValue(in, references, User.class);
+                Order order = new Order(user, in.readInt());
+                int stateIndex = in.readUnsignedByte();
+                Order.OrderState[] states = Order.OrderState.values();
+                if (stateIndex >= states.length) {
+                    throw new IOException("Received Order with unknown state: " + stateIndex);
+                }
+                Map<?, ?> received = readValue(in, references, Map.class);
+                if (received == null) {
+                    throw new IOException("Received Order without a basket");
+                }
+                HashMap<Dish, Number> basket = new HashMap<>();
+                for (Map.Entry<?, ?> entry : received.entrySet()) {
+                    if (!(entry.getKey() instanceof Dish) || !(entry.getValue() instanceof Number)) {
+                        throw new IOException("Received Order with an invalid basket entry");
+                    }
+                    basket.put((Dish) entry.getKey(), (Number) entry.getValue());
+                }
+                order.setBasket(basket);
+                order.setOrderState(states[stateIndex]);
+                return order;
+            }
+            default:
+                throw new IOException("Received value with unknown tag: " + tag);
+        }
+    }
+
+    /**
+     * Reads a single value that must be of a certain type, so a crafted frame can't put the wrong type of object into
+     * a User or Order
+     * @param in : Stream to read from
+     * @param references : Dishes, Postcodes and Users already read from this frame, in the order they were written
+     * @param type : Type the value must have
+     * @return T : Value read (may be null)
+     * @throws IOException : Thrown if the value is corrupt or of the wrong type
+     */
+    private static <T> T readValue(DataInputStream in, List<Object> references, Class<T> type) throws IOException {
+        Object value = readValue(in, references);
+        if (value != null && !type.isInstance(value)) {
+            throw new IOException("Received " + value.getClass().getSimpleName() + " where " + type.getSimpleName() + " was expected");
+        }
+        return type.cast(value);
+    }
+
+    /**
+     * Reserves the next reference number before an object's fields are read, so that numbering matches the order
+     * the objects were written in even when they contain other referenced objects.
+     * @param references : References read so far
+     * @return int : Reference number reserved
+     */
+    private static int reserveReference(List<Object> references) {
+        references.add(null);
+        return references.size() - 1;
+    }
+
+    /**
+     * Writes a String as its length in bytes followed by its UTF-8 bytes (null is written as length -1)
+     * @param out : Stream to write to
+     * @param value : String to write
+     * @throws IOException : Thrown if the String cannot be written
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a String written by writeString
+     * @param in : Stream to read from
+     * @return String read (may be null)
+     * @throws IOException : Thrown if the String is corrupt
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[checkSize(length)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the number of elements or bytes that follow, checking it is sensible
+     * @param in : Stream to read from
+     * @return int : Size read
+     * @throws IOException : Thrown if the size could not belong to a valid frame
+     */
+    private static int readSize(DataInputStream in) throws IOException {
+        return checkSize(in.readInt());
+    }
+
+    /**
+     * Checks that a size read from a frame could fit within a frame
+     * @param size : Size read
+     * @return int : The same size, if valid
+     * @throws IOException : Thrown if the size could not belong to a valid frame
+     */
+    private static int checkSize(int size) throws IOException {
+        if (size < 0 || size > MAX_FRAME_LENGTH) {
+            throw new IOException("Received invalid size: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Writes an object as a length-prefixed frame to a stream and flushes it.
+     * @param out : Stream to write to
+     * @param object : Object to send
+     * @throws IOException : Thrown if the stream cannot be written to
+     */
+    public static void writeFrame(DataOutputStream out, Serializable object) throws IOException {
+        byte[] frame = encode(object);
+        out.writeInt(frame.length);
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * Blocks until a whole frame has been read from the stream, then decodes it.
+     * @param in : Stream to read from
+     * @return Object : Decoded object
+     * @throws IOException : Thrown if the stream is closed or the frame is corrupt
+     */
+    public static Object readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return decode(frame);
+    }
+
+    /**
+     * Encodes an object into a buffer containing its length prefix and frame, ready to be written to a channel.
+     * @param object : Object to send
+     * @return ByteBuffer : Buffer positioned at the start of the frame
+     * @throws IOException : Thrown if the object cannot be encoded
+     */
+    public static ByteBuffer toFrameBuffer(Serializable object) throws IOException {
+        byte[] frame = encode(object);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + frame.length);
+        buffer.putInt(frame.length);
+        buffer.put(frame);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Checks that a frame length read from the connection is sensible
+     * @param length : Length read
+     * @throws IOException : Thrown if the length could not belong to a valid frame
+     */
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Received invalid frame length: " + length);
+        }
+    }
+}
@@ -23,5 +23,7 @@ public enum MessageType implements Serializable {
     SEND_CHECKOUT, ORDER,
     SEND_CLEAR,
     SEND_CANCEL,
-    UPDATE
+    UPDATE,
+    //Pushed by the Server to the Clients a change affects, so they can update their copies without fetching everything
+    DISH_CHANGED, DISH_REMOVED, ORDER_CHANGED, ORDER_REMOVED
 }
\ No newline at end of file
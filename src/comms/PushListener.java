@@ -0,0 +1,15 @@
+package comms;
+
+/**
+ * Receives the changes the Server pushes to a Client without being asked, such as a changed Dish or Order.
+ * @author Oscar van Leusen
+ */
+public interface PushListener {
+
+    /**
+     * Called from the Client's receiving thread when the Server pushes a change
+     * @param message : Message holding the change, of type DISH_CHANGED, DISH_REMOVED, ORDER_CHANGED or
+     *                  ORDER_REMOVED
+     */
+    void pushed(Message message);
+}
@@ -0,0 +1,148 @@
+package comms;
+
+import common.Dish;
+import common.Order;
+import common.UpdateEvent;
+import common.UpdateListener;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pushes each change on the Server to the Clients it affects, so Clients update their own copies rather than every
+ * Client being told to fetch everything again.
+ * Every Client shows the menu, so a changed Dish goes to all of them, but a changed Order only goes to the Clients
+ * logged in as the User who made it. Messages are sent from a thread of their own, so Staff and Drones changing an
+ * Order never wait on a slow Client.
+ * @author Oscar van Leusen
+ */
+public class UpdatePublisher implements UpdateListener {
+
+    private final Comms comms;
+    //UIDs of the Clients logged in as each User, and the User each Client is logged in as
+    private final ConcurrentHashMap<String, Set<Integer>> clientsByUser = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> userByClient = new ConcurrentHashMap<>();
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Update publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UpdatePublisher(Comms comms) {
+        this.comms = comms;
+    }
+
+    /**
+     * Records that a Client has logged in or registered as a User, so it is sent changes to that User's Orders.
+     * A Client logging in as someone else stops being sent the previous User's Orders.
+     * @param username : Name of the User
+     * @param uid : UID of the Client
+     */
+    public void loggedIn(String username, int uid) {
+        String previous = userByClient.put(uid, username);
+        if (previous != null && !previous.equals(username)) {
+            Set<Integer> previousClients = clientsByUser.get(previous);
+            if (previousClients != null) {
+                previousClients.remove(uid);
+            }
+        }
+        clientsByUser.computeIfAbsent(username, name -> ConcurrentHashMap.newKeySet()).add(uid);
+    }
+
+    /**
+     * Stops sending a Client changes to its User's Orders, called as soon as its connection closes
+     * @param uid : UID of the Client
+     */
+    void disconnected(int uid) {
+        forget(uid);
+    }
+
+    /**
+     * Forgets every Client, used when every connection is dropped to load a new Configuration
+     */
+    public void clear() {
+        clientsByUser.clear();
+        userByClient.clear();
+    }
+
+    /**
+     * Sends a new or changed Dish to every Client
+     * @param dish : Dish that changed
+     */
+    public void dishChanged(Dish dish) {
+        sender.execute(() -> comms.sendMessage(new Message(MessageType.DISH_CHANGED, dish)));
+    }
+
+    /**
+     * Tells every Client that a Dish has been removed
+     * @param dish : Dish that was removed
+     */
+    public void dishRemoved(Dish dish) {
+        sender.execute(() -> comms.sendMessage(new Message(MessageType.DISH_REMOVED, dish)));
+    }
+
+    /**
+     * Sends a new or changed Order to the Clients logged in as the User who made it. The Order is sent as it is when
+     * the message is written, so several quick changes may arrive as the latest state more than once.
+     * @param order : Order that changed
+     */
+    public void orderChanged(Order order) {
+        sendToUser(order, MessageType.ORDER_CHANGED);
+    }
+
+    /**
+     * Tells the Clients logged in as the User who made an Order that the Order has been removed
+     * @param order : Order that was removed
+     */
+    public void orderRemoved(Order order) {
+        sendToUser(order, MessageType.ORDER_REMOVED);
+    }
+
+    /**
+     * Sends an Order to the Clients logged in as the User who made it
+     * @param order : Order to send
+     * @param type : ORDER_CHANGED or ORDER_REMOVED
+     */
+    private void sendToUser(Order order, MessageType type) {
+        Set<Integer> clients = clientsByUser.get(order.getUser().getName());
+        if (clients == null || clients.isEmpty()) {
+            return;
+        }
+        sender.execute(() -> {
+            Message message = new Message(type, order);
+            for (int uid : clients) {
+                //The Client disconnected after this message was queued
+                if (!comms.sendMessage(uid, message)) {
+                    forget(uid);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops sending anything to a Client
+     * @param uid : UID of the Client
+     */
+    private void forget(int uid) {
+        String username = userByClient.remove(uid);
+        if (username != null) {
+            Set<Integer> clients = clientsByUser.get(username);
+            if (clients != null) {
+                clients.remove(uid);
+            }
+        }
+    }
+
+    /**
+     * Sends an Order to its User's Clients whenever its state changes.
+     * @param updateEvent information on the update
+     */
+    @Override
+    public void updated(UpdateEvent updateEvent) {
+        if (updateEvent.model instanceof Order && "state".equals(updateEvent.property)) {
+            orderChanged((Order) updateEvent.model);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package exceptions;
+
+/**
+ * Thrown if a backup is corrupt or cut short, so that it is rejected rather than partly loaded.
+ * @author Oscar van Leusen
+ */
+public class InvalidBackupException extends Exception {
+    public InvalidBackupException(String errorMessage) {
+        super(errorMessage);
+    }
+}
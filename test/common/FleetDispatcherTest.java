@@ -0,0 +1,129 @@
+package common;
+
+import java.util.List;
+
+/**
+ * Tests how the FleetDispatcher pairs waiting jobs with free Drones. Except where a Drone is stopped mid-trip, the
+ * Drones' threads are never started, so every job handed out stays in the Drone's queue where the test can see it.
+ * Run with: java -cp [classes] common.FleetDispatcherTest
+ * @author Oscar van Leusen
+ */
+public class FleetDispatcherTest {
+
+    public static void main(String[] args) throws Exception {
+        farTripGoesToFastDrone();
+        restocksDontStarveDeliveries();
+        noJobWaitsForBusyDrone();
+        interruptedTripIsHandedBack();
+        System.out.println("FleetDispatcherTest passed");
+    }
+
+    /**
+     * A near trip waiting longer and a far trip waiting behind it: the far one goes to the fast Drone and the near one
+     * to the slow Drone, rather than the fast Drone taking whichever has waited longest.
+     */
+    private static void farTripGoesToFastDrone() {
+        StockManager stockManager = new StockManager();
+        FleetDispatcher fleet = stockManager.getFleetDispatcher();
+        Drone fast = new Drone(10, stockManager, 1);
+        Drone slow = new Drone(1, stockManager, 2);
+        fleet.addDrone(fast);
+        fleet.addDrone(slow);
+
+        Order near = prepared("Near", 1);
+        Order far = prepared("Far", 9);
+        stockManager.getDeliveryPlanner().orderPrepared(near);
+        stockManager.getDeliveryPlanner().orderPrepared(far);
+        fleet.dispatch();
+
+        check(onlyTrip(fast).getOrders().contains(far), "the far Order didn't go to the fast Drone");
+        check(onlyTrip(slow).getOrders().contains(near), "the near Order didn't go to the slow Drone");
+    }
+
+    /**
+     * With one Drone and Ingredients always waiting, a waiting delivery still gets the Drone after the first restock.
+     */
+    private static void restocksDontStarveDeliveries() throws Exception {
+        StockManager stockManager = new StockManager();
+        FleetDispatcher fleet = stockManager.getFleetDispatcher();
+        Supplier supplier = new Supplier("Supplier", 1);
+        for (String name : new String[]{"Rice", "Nori", "Salmon"}) {
+            StockItem stock = stockManager.addIngredient(new Ingredient(name, "kg", supplier, stockManager), 10, 5, 5);
+            stock.setStock(0);
+        }
+        stockManager.getDeliveryPlanner().orderPrepared(prepared("Hungry", 3));
+
+        Drone drone = new Drone(1, stockManager, 1);
+        fleet.addDrone(drone);
+        check(drone.getUnstartedJobs().get(0) instanceof Ingredient, "the first job wasn't a restock");
+        fleet.jobFinished(drone);
+        check(drone.getUnstartedJobs().get(1) instanceof DeliveryTrip, "the delivery waited behind another restock");
+        fleet.jobFinished(drone);
+        check(drone.getUnstartedJobs().get(2) instanceof Ingredient, "restocks stopped after the delivery");
+    }
+
+    /**
+     * With the fast Drone busy, a new trip goes to the slow Drone straight away, and the next one waits for a free Drone.
+     */
+    private static void noJobWaitsForBusyDrone() {
+        StockManager stockManager = new StockManager();
+        FleetDispatcher fleet = stockManager.getFleetDispatcher();
+        Drone fast = new Drone(10, stockManager, 1);
+        Drone slow = new Drone(1, stockManager, 2);
+        fleet.addDrone(fast);
+        fleet.addDrone(slow);
+
+        stockManager.orderPrepared(prepared("First", 9));
+        check(fast.getUnstartedJobs().size() == 1, "the only job didn't go to the fast Drone");
+        stockManager.orderPrepared(prepared("Second", 9));
+        check(slow.getUnstartedJobs().size() == 1, "the job waited for the busy fast Drone");
+        stockManager.orderPrepared(prepared("Third", 9));
+        check(fast.getUnstartedJobs().size() == 1 && slow.getUnstartedJobs().size() == 1, "a busy Drone was given a job");
+        fleet.jobFinished(fast);
+        check(fast.getUnstartedJobs().size() == 2, "the waiting job wasn't given to the Drone that became free");
+    }
+
+    /**
+     * A Drone stopped part way through a trip puts the Orders it still has on board back to PREPARED and hands them
+     * back to the DeliveryPlanner, instead of leaving them DELIVERING for good.
+     */
+    private static void interruptedTripIsHandedBack() throws InterruptedException {
+        StockManager stockManager = new StockManager();
+        Drone drone = new Drone(1, stockManager, 1);
+        Order order = prepared("Remote", 9);
+        stockManager.getDeliveryPlanner().orderPrepared(order);
+        Thread thread = new Thread(drone);
+        thread.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (order.getOrderState() != Order.OrderState.DELIVERING) {
+            check(System.currentTimeMillis() < deadline, "the Drone never set off");
+            Thread.sleep(10);
+        }
+
+        drone.cancelThread();
+        thread.interrupt();
+        thread.join(5000);
+        check(!thread.isAlive(), "the Drone didn't stop");
+        check(order.getOrderState() == Order.OrderState.PREPARED, "the Order was left " + order.getOrderState());
+        DeliveryTrip trip = stockManager.getDeliveryPlanner().nextTrip(Drone.DEFAULT_CAPACITY);
+        check(trip != null && trip.getOrders().contains(order), "the Order wasn't handed back to the DeliveryPlanner");
+    }
+
+    private static Order prepared(String name, int distance) {
+        Order order = new Order(new User(name, "password", "1 University Road", new Postcode(name, distance)), 0);
+        order.setOrderState(Order.OrderState.PREPARED);
+        return order;
+    }
+
+    private static DeliveryTrip onlyTrip(Drone drone) {
+        List<Object> jobs = drone.getUnstartedJobs();
+        check(jobs.size() == 1 && jobs.get(0) instanceof DeliveryTrip, "expected one trip but the Drone has " + jobs);
+        return (DeliveryTrip) jobs.get(0);
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + description);
+        }
+    }
+}
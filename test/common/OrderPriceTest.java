@@ -0,0 +1,176 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests that an Order's running total in pence stays exactly equal to the price of its basket added up from scratch,
+ * however the basket is changed, and that reconcilePrice corrects it once a Dish in the basket changes price.
+ * Run with: java -cp [classes] common.OrderPriceTest
+ * @author Oscar van Leusen
+ */
+public class OrderPriceTest {
+
+    private static final int STEPS = 100000;
+    private static final int THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        User user = new User("Oscar", "password", "1 University Road", new Postcode("PC1", 5));
+        StockManager stockManager = new StockManager();
+        List<Dish> dishes = new ArrayList<>();
+        dishes.add(new Dish(1, "Salmon Nigiri", "Priced in tenths", 0.1, stockManager));
+        dishes.add(new Dish(2, "Tuna Nigiri", "Priced in tenths", 0.2, stockManager));
+        dishes.add(new Dish(3, "Sushi Roll", "Priced in thirds", 3.33, stockManager));
+        dishes.add(new Dish(4, "Sushi Platter", "Whole pounds", 12, stockManager));
+
+        tenthsAddUpExactly(user, dishes);
+        randomChangesStayExact(user, dishes);
+        concurrentChangesStayExact(user, dishes);
+        priceChangeIsReconciled(user, dishes);
+        System.out.println("OrderPriceTest passed");
+    }
+
+    /**
+     * 0.1 + 0.2 is not 0.3 in floating point, but the running total is kept in pence so it must be exactly 0.3
+     */
+    private static void tenthsAddUpExactly(User user, List<Dish> dishes) {
+        Order order = new Order(user, 0);
+        order.addDish(dishes.get(0), 1);
+        order.addDish(dishes.get(1), 1);
+        check(order.getPricePence() == 30, "0.1 + 0.2 came to " + order.getPricePence() + " pence");
+        check(order.orderPrice() == 0.3, "0.1 + 0.2 came to " + order.orderPrice());
+    }
+
+    /**
+     * Changes the basket at random one step at a time, checking the running total against a basket kept alongside it
+     */
+    private static void randomChangesStayExact(User user, List<Dish> dishes) {
+        Random random = new Random(1206);
+        Order order = new Order(user, 1);
+        Map<Dish, Integer> expected = new HashMap<>();
+        for (int step=0; step<STEPS; step++) {
+            Dish dish = dishes.get(random.nextInt(dishes.size()));
+            int quantity = 1 + random.nextInt(5);
+            int held = expected.getOrDefault(dish, 0);
+            switch (random.nextInt(6)) {
+                case 0:
+                    order.addDish(dish, quantity);
+                    expected.put(dish, held + quantity);
+                    break;
+                case 1:
+                    HashMap<Dish, Number> replacing = new HashMap<>();
+                    replacing.put(dish, quantity);
+                    order.addDishes(replacing);
+                    expected.put(dish, quantity);
+                    break;
+                case 2:
+                    order.updateDishQuantity(dish, quantity);
+                    expected.put(dish, quantity);
+                    break;
+                case 3:
+                    order.removeDishQuantity(dish, quantity);
+                    if (held - quantity > 0) {
+                        expected.put(dish, held - quantity);
+                    } else {
+                        expected.remove(dish);
+                    }
+                    break;
+                case 4:
+                    order.removeDish(dish);
+                    expected.remove(dish);
+                    break;
+                default:
+                    //Clearing is rare, so the basket has time to fill up between clears
+                    if (random.nextInt(20) == 0) {
+                        order.clear();
+                        expected.clear();
+                    }
+                    break;
+            }
+            long total = 0;
+            for (Map.Entry<Dish, Integer> dishQuantity : expected.entrySet()) {
+                total += dishQuantity.getKey().pricePence() * dishQuantity.getValue();
+            }
+            check(order.getPricePence() == total, "step " + step + ": running total " + order.getPricePence() + ", expected " + total);
+            check(order.reconcilePrice(), "step " + step + ": reconcilePrice corrected the running total");
+        }
+    }
+
+    /**
+     * Several threads change the same basket at once. Each change is made whole, so the running total must still match.
+     */
+    private static void concurrentChangesStayExact(User user, List<Dish> dishes) throws InterruptedException {
+        Order order = new Order(user, 2);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i=0; i<THREADS; i++) {
+            long seed = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    Random random = new Random(seed);
+                    for (int step=0; step<STEPS / THREADS; step++) {
+                        Dish dish = dishes.get(random.nextInt(dishes.size()));
+                        int quantity = 1 + random.nextInt(5);
+                        switch (random.nextInt(4)) {
+                            case 0:
+                                order.addDish(dish, quantity);
+                                break;
+                            case 1:
+                                order.updateDishQuantity(dish, quantity);
+                                break;
+                            case 2:
+                                order.removeDishQuantity(dish, quantity);
+                                break;
+                            default:
+                                order.removeDish(dish);
+                                break;
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Failed in a thread", failures.get(0));
+        }
+        check(order.reconcilePrice(), "concurrent changes left the running total at " + order.getPricePence() + " pence");
+    }
+
+    /**
+     * A Dish changing price leaves the running total of a basket holding it stale, until reconcilePrice corrects it
+     */
+    private static void priceChangeIsReconciled(User user, List<Dish> dishes) {
+        Order order = new Order(user, 3);
+        Dish dish = new Dish(5, "Miso Soup", "Changes price", 1.5, new StockManager());
+        order.addDish(dish, 2);
+        order.addDish(dishes.get(0), 3);
+        check(order.getPricePence() == 330, "basket came to " + order.getPricePence() + " pence");
+
+        dish.setPrice(1.75);
+        check(order.getPricePence() == 330, "running total changed before being reconciled");
+        check(!order.reconcilePrice(), "stale running total was not noticed");
+        check(order.getPricePence() == 380, "reconciled total " + order.getPricePence() + " pence, expected 380");
+        check(order.reconcilePrice(), "reconciled total was corrected again");
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + description);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Races Staff preparing, Drones delivering and Clients cancelling the same Orders, using the same calls they do
+ * (compareAndSetOrderState, moveTo and cancelOrder). Every Order must follow exactly one path from PREPARING to a final
+ * state, and no Order may ever be seen both COMPLETE and CANCELLED.
+ * Run with: java -cp [classes] common.OrderStateRaceTest
+ * @author Oscar van Leusen
+ */
+public class OrderStateRaceTest {
+
+    private static final int ORDERS = 20000;
+    //Threads playing each role
+    private static final int STAFF = 2;
+    private static final int DRONES = 2;
+    private static final int CANCELLERS = 2;
+    //An Order not finished this long after its race started has been left in a state nothing can move it on from
+    private static final long STUCK_MILLIS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        User user = new User("Oscar", "password", "1 University Road", new Postcode("PC1", 5));
+        List<Order> orders = new ArrayList<>();
+        List<List<UpdateEvent>> transitions = new ArrayList<>();
+        for (int i=0; i<ORDERS; i++) {
+            Order order = new Order(user, i);
+            order.setOrderState(Order.OrderState.PREPARING);
+            List<UpdateEvent> events = new ArrayList<>();
+            order.addUpdateListener(event -> {
+                if ("state".equals(event.property)) {
+                    synchronized (events) {
+                        events.add(event);
+                    }
+                }
+            });
+            orders.add(order);
+            transitions.add(events);
+        }
+        //Successful calls on each Order, by the state they moved it to
+        int[][] wins = new int[ORDERS][Order.OrderState.values().length];
+
+        List<Runnable> roles = new ArrayList<>();
+        for (int i=0; i<STAFF; i++) {
+            boolean useMoveTo = i % 2 == 1;
+            roles.add(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int o=0; o<ORDERS; o++) {
+                    Order order = orders.get(o);
+                    jitter(random);
+                    boolean prepared = useMoveTo ? order.moveTo(Order.OrderState.PREPARED)
+                            : order.compareAndSetOrderState(Order.OrderState.PREPARING, Order.OrderState.PREPARED);
+                    if (prepared) {
+                        win(wins, o, Order.OrderState.PREPARED);
+                    }
+                    awaitFinal(o, order);
+                }
+            });
+        }
+        for (int i=0; i<DRONES; i++) {
+            roles.add(() -> {
+                for (int o=0; o<ORDERS; o++) {
+                    Order order = orders.get(o);
+                    long started = System.currentTimeMillis();
+                    while (!isFinal(order)) {
+                        checkNotStuck(o, order, started);
+                        if (order.compareAndSetOrderState(Order.OrderState.PREPARED, Order.OrderState.DELIVERING)) {
+                            win(wins, o, Order.OrderState.DELIVERING);
+                            //Only the Drone that took the Order out can deliver it, and nothing can cancel it now
+                            check(order.compareAndSetOrderState(Order.OrderState.DELIVERING, Order.OrderState.COMPLETE),
+                                    "order " + o + " taken out for delivery but not completed");
+                            win(wins, o, Order.OrderState.COMPLETE);
+                        }
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+        for (int i=0; i<CANCELLERS; i++) {
+            roles.add(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int o=0; o<ORDERS; o++) {
+                    Order order = orders.get(o);
+                    //Tries to cancel some of the Orders at a random point, some before and some after they are prepared
+                    jitter(random);
+                    if (random.nextInt(3) == 0 && order.cancelOrder()) {
+                        win(wins, o, Order.OrderState.CANCELLED);
+                    }
+                    awaitFinal(o, order);
+                }
+            });
+        }
+        runTogether(roles);
+
+        int completed = 0;
+        int cancelled = 0;
+        for (int o=0; o<ORDERS; o++) {
+            Order order = orders.get(o);
+            int[] orderWins = wins[o];
+            int complete = orderWins[Order.OrderState.COMPLETE.ordinal()];
+            int cancel = orderWins[Order.OrderState.CANCELLED.ordinal()];
+            check(complete + cancel == 1, "order " + o + " completed " + complete + " and cancelled " + cancel + " times");
+            for (Order.OrderState state : Order.OrderState.values()) {
+                check(orderWins[state.ordinal()] <= 1, "order " + o + " moved to " + state + " " + orderWins[state.ordinal()] + " times");
+            }
+            checkSinglePath(o, order, transitions.get(o));
+            if (order.getOrderState() == Order.OrderState.COMPLETE) {
+                completed++;
+            } else {
+                cancelled++;
+            }
+        }
+        //Both outcomes must have been raced for, or the test proves nothing
+        check(completed > 0 && cancelled > 0, completed + " completed and " + cancelled + " cancelled");
+        System.out.println("OrderStateRaceTest passed (" + completed + " completed, " + cancelled + " cancelled)");
+    }
+
+    /**
+     * Checks that the changes of state recorded for an Order form a single path from PREPARING to its final state.
+     * Listeners are told after the state has changed, so the events may arrive out of order, but no two can start
+     * from the same state and together they must link up.
+     * @param number : Number of the Order
+     * @param order : Order to check
+     * @param events : Changes of state recorded for the Order
+     */
+    private static void checkSinglePath(int number, Order order, List<UpdateEvent> events) {
+        Map<Object, Object> next = new HashMap<>();
+        boolean sawComplete = false;
+        boolean sawCancelled = false;
+        for (UpdateEvent event : events) {
+            if (event.oldValue == Order.OrderState.BASKET) {
+                //Set up before the race
+                continue;
+            }
+            check(next.put(event.oldValue, event.newValue) == null, "order " + number + " moved on from " + event.oldValue + " twice");
+            check(((Order.OrderState) event.oldValue).canMoveTo((Order.OrderState) event.newValue),
+                    "order " + number + " moved from " + event.oldValue + " to " + event.newValue);
+            sawComplete |= event.newValue == Order.OrderState.COMPLETE;
+            sawCancelled |= event.newValue == Order.OrderState.CANCELLED;
+        }
+        check(!(sawComplete && sawCancelled), "order " + number + " was both COMPLETE and CANCELLED");
+
+        Object state = Order.OrderState.PREPARING;
+        int steps = 0;
+        while (next.containsKey(state)) {
+            state = next.get(state);
+            steps++;
+        }
+        check(steps == next.size(), "order " + number + " has changes of state off its path: " + next);
+        check(state == order.getOrderState(), "order " + number + " path ends at " + state + " but it is " + order.getOrderState());
+    }
+
+    private static void win(int[][] wins, int order, Order.OrderState state) {
+        synchronized (wins[order]) {
+            wins[order][state.ordinal()]++;
+        }
+    }
+
+    private static boolean isFinal(Order order) {
+        Order.OrderState state = order.getOrderState();
+        return state == Order.OrderState.COMPLETE || state == Order.OrderState.CANCELLED;
+    }
+
+    /**
+     * Gives way to the other threads a random number of times, so each role reaches an Order at a different point
+     * @param random : Random number generator of the thread
+     */
+    private static void jitter(ThreadLocalRandom random) {
+        for (int spin=random.nextInt(4); spin>0; spin--) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Waits for an Order to be completed or cancelled, so every thread is racing on the same Order at once
+     * @param number : Number of the Order
+     * @param order : Order to wait for
+     */
+    private static void awaitFinal(int number, Order order) {
+        long started = System.currentTimeMillis();
+        while (!isFinal(order)) {
+            checkNotStuck(number, order, started);
+            Thread.yield();
+        }
+    }
+
+    private static void checkNotStuck(int number, Order order, long started) {
+        check(System.currentTimeMillis() - started < STUCK_MILLIS, "order " + number + " stuck in " + order.getOrderState());
+    }
+
+    /**
+     * Runs every role on its own thread at once, waiting for them all to finish.
+     * @param roles : Roles to run
+     */
+    private static void runTogether(List<Runnable> roles) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (Runnable role : roles) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    role.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    //Other threads may be waiting on an Order this thread would have finished, so they can't be joined
+                    System.exit(1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + description);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package common;
+
+/**
+ * Tests that Ingredients waiting for a Drone are taken most urgent first, and that an Ingredient's place in the queue
+ * follows its stock as it keeps changing while it waits.
+ * No Drones are added, so nothing is taken from the queue except by the test.
+ * Run with: java -cp [classes] common.RestockSchedulerTest
+ * @author Oscar van Leusen
+ */
+public class RestockSchedulerTest {
+
+    public static void main(String[] args) throws Exception {
+        queuedMostUrgentFirst();
+        fallingStockMovesUp();
+        risingStockMovesDown();
+        System.out.println("RestockSchedulerTest passed");
+    }
+
+    /**
+     * Ingredients queued at different stock levels are taken most urgent first, not in the order they were queued
+     */
+    private static void queuedMostUrgentFirst() throws Exception {
+        StockManager stockManager = new StockManager();
+        StockItem rice = addIngredient(stockManager, "Rice", 10);
+        StockItem nori = addIngredient(stockManager, "Nori", 10);
+        rice.setStock(9);
+        nori.setStock(2);
+
+        check(stockManager.findIngredientToRestock().getName().equals("Nori"), "Nori is further below its threshold");
+        check(stockManager.findIngredientToRestock().getName().equals("Rice"), "Rice was not queued");
+        check(stockManager.findIngredientToRestock() == null, "an Ingredient was queued twice");
+    }
+
+    /**
+     * An Ingredient queued just under its threshold that then runs out overtakes one queued later at a lower stock
+     */
+    private static void fallingStockMovesUp() throws Exception {
+        StockManager stockManager = new StockManager();
+        StockItem rice = addIngredient(stockManager, "Rice", 10);
+        StockItem nori = addIngredient(stockManager, "Nori", 10);
+        rice.setStock(9);
+        nori.setStock(4);
+        check(stockManager.peekIngredientToRestock().getName().equals("Nori"), "Nori is further below its threshold");
+
+        rice.consume(9);
+        check(rice.getStock() == 0, "Rice has " + rice.getStock() + " left");
+        check(stockManager.peekIngredientToRestock().getName().equals("Rice"), "Rice ran out but stayed behind Nori");
+        check(stockManager.findIngredientToRestock().getName().equals("Rice"), "peek and take disagree");
+        check(stockManager.findIngredientToRestock().getName().equals("Nori"), "Nori was lost from the queue");
+        check(stockManager.findIngredientToRestock() == null, "an Ingredient was queued twice");
+    }
+
+    /**
+     * Stock added to an Ingredient while it waits moves it back behind Ingredients that now need it more
+     */
+    private static void risingStockMovesDown() throws Exception {
+        StockManager stockManager = new StockManager();
+        StockItem rice = addIngredient(stockManager, "Rice", 10);
+        StockItem nori = addIngredient(stockManager, "Nori", 10);
+        rice.setStock(0);
+        nori.setStock(5);
+        check(stockManager.peekIngredientToRestock().getName().equals("Rice"), "Rice has run out");
+
+        rice.replenish(8);
+        check(stockManager.peekIngredientToRestock().getName().equals("Nori"), "Rice was topped up but stayed ahead of Nori");
+    }
+
+    private static StockItem addIngredient(StockManager stockManager, String name, long threshold) throws Exception {
+        Ingredient ingredient = new Ingredient(name, "kg", new Supplier("Supplier", 1), stockManager);
+        return stockManager.addIngredient(ingredient, threshold + 1, threshold, 0);
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + description);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress tests for StockItem and StockManager.tryReserveOrder: many threads reserve, consume and replenish the same
+ * stock at once, and the stock must never go negative, never be taken twice, and always end at exactly the starting
+ * stock plus everything added minus everything successfully taken.
+ * Run with: java -cp [classes] common.StockItemStressTest
+ * @author Oscar van Leusen
+ */
+public class StockItemStressTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        mixedOperationsBalance();
+        lastStockIsOnlyTakenOnce();
+        ordersAreReservedWhole();
+        System.out.println("StockItemStressTest passed");
+    }
+
+    /**
+     * Threads randomly reserve, consume and replenish one Dish while another thread watches that the stock never goes
+     * negative. Afterwards the stock must equal the sum of the successful operations.
+     */
+    private static void mixedOperationsBalance() throws InterruptedException {
+        StockManager stockManager = new StockManager();
+        Dish dish = new Dish(1, "Sushi Roll", "Stress tested", 5, stockManager);
+        long initial = 1000;
+        StockItem stock = addDish(stockManager, dish, initial);
+
+        AtomicLong added = new AtomicLong();
+        AtomicLong taken = new AtomicLong();
+        AtomicBoolean negative = new AtomicBoolean();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread watcher = new Thread(() -> {
+            while (running.get()) {
+                if (stock.getStock() < 0) {
+                    negative.set(true);
+                }
+            }
+        });
+        watcher.start();
+
+        runTogether(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i=0; i<OPERATIONS; i++) {
+                long amount = 1 + random.nextInt(10);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        if (stock.tryReserve(amount)) {
+                            taken.addAndGet(amount);
+                        }
+                        break;
+                    case 1:
+                        long consumed = stock.consume(amount);
+                        check(consumed >= 0 && consumed <= amount, "consume took " + consumed + " of " + amount);
+                        taken.addAndGet(consumed);
+                        break;
+                    default:
+                        stock.replenish(amount);
+                        added.addAndGet(amount);
+                        break;
+                }
+            }
+        });
+        running.set(false);
+        watcher.join();
+
+        check(!negative.get(), "stock went negative");
+        long expected = initial + added.get() - taken.get();
+        check(stock.getStock() == expected, "final stock " + stock.getStock() + ", expected " + expected);
+    }
+
+    /**
+     * Threads race to reserve a limited stock one at a time. Exactly as many reservations succeed as there was stock.
+     */
+    private static void lastStockIsOnlyTakenOnce() throws InterruptedException {
+        StockManager stockManager = new StockManager();
+        Dish dish = new Dish(1, "Sushi Roll", "Stress tested", 5, stockManager);
+        long initial = 50000;
+        StockItem stock = addDish(stockManager, dish, initial);
+
+        AtomicLong reservations = new AtomicLong();
+        runTogether(thread -> {
+            while (stock.tryReserve(1)) {
+                reservations.incrementAndGet();
+            }
+        });
+
+        check(reservations.get() == initial, reservations.get() + " reservations of " + initial + " stock");
+        check(stock.getStock() == 0, "stock left over: " + stock.getStock());
+        check(!stock.tryReserve(1), "reserved from empty stock");
+        check(stock.consume(1) == 0, "consumed from empty stock");
+    }
+
+    /**
+     * Threads reserve and release whole Orders of two Dishes. An Order is only ever reserved whole, so the stock of both
+     * Dishes always ends at the starting stock minus the Orders that were reserved and kept.
+     */
+    private static void ordersAreReservedWhole() throws InterruptedException {
+        StockManager stockManager = new StockManager();
+        Dish roll = new Dish(1, "Sushi Roll", "Stress tested", 5, stockManager);
+        Dish nigiri = new Dish(2, "Nigiri", "Stress tested", 3, stockManager);
+        long initialRolls = 3000;
+        long initialNigiri = 5000;
+        StockItem rollStock = addDish(stockManager, roll, initialRolls);
+        StockItem nigiriStock = addDish(stockManager, nigiri, initialNigiri);
+        HashMap<Dish, Number> order = new HashMap<>();
+        order.put(roll, 2);
+        order.put(nigiri, 3);
+
+        AtomicLong kept = new AtomicLong();
+        AtomicBoolean negative = new AtomicBoolean();
+        runTogether(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i=0; i<OPERATIONS / 10; i++) {
+                if (stockManager.tryReserveOrder(order)) {
+                    //Some Orders are cancelled and their Dishes given back
+                    if (random.nextInt(4) == 0) {
+                        stockManager.releaseOrder(order);
+                    } else {
+                        kept.incrementAndGet();
+                    }
+                }
+                if (rollStock.getStock() < 0 || nigiriStock.getStock() < 0) {
+                    negative.set(true);
+                }
+            }
+        });
+
+        check(!negative.get(), "stock went negative");
+        check(rollStock.getStock() == initialRolls - 2 * kept.get(), "rolls left " + rollStock.getStock() + " after " + kept.get() + " orders");
+        check(nigiriStock.getStock() == initialNigiri - 3 * kept.get(), "nigiri left " + nigiriStock.getStock() + " after " + kept.get() + " orders");
+        //The rolls run out first, so no more whole Orders can have been made than there were rolls for
+        check(kept.get() <= initialRolls / 2, kept.get() + " orders from " + initialRolls + " rolls");
+    }
+
+    private static StockItem addDish(StockManager stockManager, Dish dish, long stock) {
+        try {
+            return stockManager.addDish(dish, stock, 0, 0);
+        } catch (exceptions.InvalidStockItemException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Runs a task on every thread at once, waiting for them all to finish. A failure in any thread fails the test.
+     * @param task : Task to run, given the number of the thread
+     */
+    private static void runTogether(Task task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i=0; i<THREADS; i++) {
+            int number = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run(number);
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Failed in a thread", failures.get(0));
+        }
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + description);
+        }
+    }
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+}
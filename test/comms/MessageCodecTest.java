@@ -0,0 +1,363 @@
+package comms;
+
+import common.Dish;
+import common.Order;
+import common.Postcode;
+import common.User;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Round trip tests for MessageCodec: every MessageType is encoded and decoded again, and corrupt, truncated, wrong
+ * version and Java serialized frames are checked to be rejected.
+ * Run with: java -cp [classes] comms.MessageCodecTest
+ * @author Oscar van Leusen
+ */
+public class MessageCodecTest {
+
+    private static final byte KIND_VALUE = 0;
+    private static final byte TAG_REFERENCE = 12;
+    private static final byte TAG_LEGACY_SERIALIZED = 13;
+
+    //Set if a legacy frame ever reaches Java deserialization
+    private static volatile boolean deserialized = false;
+
+    public static void main(String[] args) throws Exception {
+        everyMessageTypeRoundTrips();
+        handshakeRoundTrips();
+        repeatedObjectsAreSentOnce();
+        framesRoundTripThroughStreams();
+        truncatedFramesAreRejected();
+        wrongVersionIsRejected();
+        invalidReferencesAreRejected();
+        legacySerializedValuesAreRejected();
+        wrongTypesAreRejected();
+        unsupportedTypesAreNotEncoded();
+        oversizedFramesAreRejected();
+        System.out.println("MessageCodecTest passed");
+    }
+
+    /**
+     * Every MessageType, with the payload the Client or Server sends with it, decodes to the same type and payload
+     */
+    private static void everyMessageTypeRoundTrips() throws IOException {
+        for (MessageType type : MessageType.values()) {
+            Message sent = new Message(type, payloadFor(type));
+            Message received = (Message) MessageCodec.decode(MessageCodec.encode(sent));
+            check(received.getType() == type, "type of " + type);
+            check(describe(sent.getPayload()).equals(describe(received.getPayload())),
+                    type + " payload: sent " + describe(sent.getPayload()) + " received " + describe(received.getPayload()));
+        }
+        Message loginFailed = (Message) MessageCodec.decode(MessageCodec.encode(new Message(MessageType.LOGIN_SUCCESS, null)));
+        check(loginFailed.getPayload() == null, "null payload");
+    }
+
+    /**
+     * The Client's UID sent on connecting is a bare value rather than a Message
+     */
+    private static void handshakeRoundTrips() throws IOException {
+        check(Integer.valueOf(12345).equals(MessageCodec.decode(MessageCodec.encode(12345))), "handshake UID");
+    }
+
+    /**
+     * A Dish and User shared between Orders are written once, and decode to a single shared instance
+     */
+    private static void repeatedObjectsAreSentOnce() throws IOException {
+        User user = user();
+        Dish dish = dish(1, "Sushi Roll");
+        ArrayList<Order> orders = new ArrayList<>();
+        for (int i=0; i<10; i++) {
+            orders.add(order(user, i, dish));
+        }
+        byte[] shared = MessageCodec.encode(new Message(MessageType.ORDERS, orders));
+        byte[] single = MessageCodec.encode(new Message(MessageType.ORDER, orders.get(0)));
+        check(shared.length < single.length * 3, "shared objects written once (" + shared.length + " bytes for 10 orders, "
+                + single.length + " for one)");
+
+        List<?> received = (List<?>) ((Message) MessageCodec.decode(shared)).getPayload();
+        Order first = (Order) received.get(0);
+        for (Object element : received) {
+            Order order = (Order) element;
+            check(order.getUser() == first.getUser(), "orders share one User");
+            check(order.getBasket().keySet().iterator().next() == first.getBasket().keySet().iterator().next(), "orders share one Dish");
+        }
+        check(describe(orders).equals(describe(received)), "shared orders payload");
+    }
+
+    /**
+     * Frames written to a stream are read back one at a time, in order
+     */
+    private static void framesRoundTripThroughStreams() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        MessageCodec.writeFrame(out, 42);
+        MessageCodec.writeFrame(out, new Message(MessageType.DISHES, new ArrayList<>(Arrays.asList(dish(1, "A"), dish(2, "B")))));
+        MessageCodec.writeFrame(out, new Message(MessageType.GET_DISHES));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        check(Integer.valueOf(42).equals(MessageCodec.readFrame(in)), "first frame");
+        check(((Message) MessageCodec.readFrame(in)).getType() == MessageType.DISHES, "second frame");
+        check(((Message) MessageCodec.readFrame(in)).getType() == MessageType.GET_DISHES, "third frame");
+        expectIOException(() -> MessageCodec.readFrame(in), "read past the last frame");
+    }
+
+    /**
+     * Every prefix of a valid frame is rejected, whether decoded directly or read from a stream
+     */
+    private static void truncatedFramesAreRejected() throws IOException {
+        User user = user();
+        byte[] frame = MessageCodec.encode(new Message(MessageType.ORDER, order(user, 3, dish(1, "Sushi Roll"))));
+        for (int length=0; length<frame.length; length++) {
+            byte[] truncated = Arrays.copyOf(frame, length);
+            expectIOException(() -> MessageCodec.decode(truncated), "frame truncated to " + length + " bytes");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageCodec.writeFrame(new DataOutputStream(bytes), new Message(MessageType.ORDER, order(user, 3, dish(1, "Sushi Roll"))));
+        byte[] stream = bytes.toByteArray();
+        for (int length=0; length<stream.length; length++) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(stream, length)));
+            expectIOException(() -> MessageCodec.readFrame(in), "stream truncated to " + length + " bytes");
+        }
+    }
+
+    /**
+     * Frames from a different protocol version are rejected
+     */
+    private static void wrongVersionIsRejected() throws IOException {
+        byte[] frame = MessageCodec.encode(new Message(MessageType.GET_DISHES));
+        check(frame[0] == MessageCodec.VERSION, "frame starts with the version");
+        for (int version : new int[] {0, MessageCodec.VERSION - 1, MessageCodec.VERSION + 1, 0xFF}) {
+            byte[] other = frame.clone();
+            other[0] = (byte) version;
+            expectIOException(() -> MessageCodec.decode(other), "version " + version);
+        }
+    }
+
+    /**
+     * References to objects that haven't been read yet, or to an object still being read, are rejected
+     */
+    private static void invalidReferencesAreRejected() throws IOException {
+        for (int reference : new int[] {0, 1, -1, Integer.MAX_VALUE}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(MessageCodec.VERSION);
+            out.writeByte(KIND_VALUE);
+            out.writeByte(TAG_REFERENCE);
+            out.writeInt(reference);
+            expectIOException(() -> MessageCodec.decode(bytes.toByteArray()), "reference " + reference + " in an empty frame");
+        }
+
+        //A User whose Postcode is replaced by a reference back to the User itself, which is still being read
+        byte[] frame = MessageCodec.encode(user());
+        int postcodeLength = 1 + 4 + "PC1".length() + 8;
+        int postcodeTag = frame.length - 4 - 4 - postcodeLength;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(frame, 0, postcodeTag);
+        out.writeByte(TAG_REFERENCE);
+        out.writeInt(0);
+        out.write(frame, postcodeTag + postcodeLength, 8);
+        expectIOException(() -> MessageCodec.decode(bytes.toByteArray()), "User referring to itself");
+    }
+
+    /**
+     * Values sent with the old Java serialization tag are rejected without ever being deserialized
+     */
+    private static void legacySerializedValuesAreRejected() throws IOException {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(serialized)) {
+            objectOut.writeObject(new Gadget());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MessageCodec.VERSION);
+        out.writeByte(KIND_VALUE);
+        out.writeByte(TAG_LEGACY_SERIALIZED);
+        out.writeInt(serialized.size());
+        serialized.writeTo(out);
+
+        expectIOException(() -> MessageCodec.decode(bytes.toByteArray()), "Java serialized value");
+        check(!deserialized, "legacy frame was never deserialized");
+    }
+
+    /**
+     * A frame putting the wrong type of value into an Order is rejected rather than producing a broken Order
+     */
+    private static void wrongTypesAreRejected() throws IOException {
+        HashMap<Object, Object> basket = new HashMap<>();
+        basket.put("Not a dish", 1);
+        Order order = order(user(), 0, dish(1, "Sushi Roll"));
+        byte[] valid = MessageCodec.encode(order);
+        //The basket is the last value in an Order frame, so a different map can be swapped in after it
+        byte[] dishMap = MessageCodec.encode(order.getBasket());
+        byte[] stringMap = MessageCodec.encode(basket);
+        byte[] wrong = new byte[valid.length - (dishMap.length - 2) + (stringMap.length - 2)];
+        System.arraycopy(valid, 0, wrong, 0, valid.length - (dishMap.length - 2));
+        System.arraycopy(stringMap, 2, wrong, valid.length - (dishMap.length - 2), stringMap.length - 2);
+        expectIOException(() -> MessageCodec.decode(wrong), "Order with a String in its basket");
+    }
+
+    /**
+     * Types the codec has no encoding for can't be sent
+     */
+    private static void unsupportedTypesAreNotEncoded() {
+        expectIOException(() -> MessageCodec.encode(new Message(MessageType.BASKET, new Gadget())), "unsupported payload");
+        expectIOException(() -> MessageCodec.encode(new Date()), "unsupported value");
+    }
+
+    /**
+     * Negative and oversized frame lengths are rejected before anything is allocated
+     */
+    private static void oversizedFramesAreRejected() throws IOException {
+        for (int length : new int[] {-1, MessageCodec.MAX_FRAME_LENGTH + 1, Integer.MAX_VALUE}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeInt(length);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            expectIOException(() -> MessageCodec.readFrame(in), "frame length " + length);
+        }
+    }
+
+    /**
+     * Gets the payload a MessageType is sent with
+     * @param type : Type of Message
+     * @return : Payload like the one the Client or Server sends
+     */
+    private static Serializable payloadFor(MessageType type) {
+        User user = user();
+        Dish roll = dish(1, "Sushi Roll");
+        Dish nigiri = dish(2, "Nigiri");
+        switch (type) {
+            case REGISTER:
+            case LOGIN_SUCCESS:
+            case GET_ORDERS:
+                return user;
+            case REGISTER_SUCCESS:
+                return true;
+            case LOGIN:
+                return new ArrayList<>(Arrays.asList("Oscar", "password"));
+            case POSTCODES:
+                return new ArrayList<>(Arrays.asList(user.getPostcode(), new Postcode("PC2", 7)));
+            case DISHES:
+                return new ArrayList<>(Arrays.asList(roll, nigiri));
+            case GET_DISH_DESC:
+            case GET_DISH_PRICE:
+            case ADD_DISH:
+            case UPDATE_DISH:
+            case DISH_CHANGED:
+            case DISH_REMOVED:
+                return roll;
+            case DISH_DESC:
+            case STATUS:
+                return "Description: \u00fcn\u00efc\u00f6d\u00e9 \u5bff\u53f8";
+            case DISH_PRICE:
+            case BASKET_COST:
+            case COST:
+                return 12.5;
+            case BASKET:
+                return order(user, 0, roll, nigiri).getBasket();
+            case ORDERS:
+                return new ArrayList<>(Arrays.asList(order(user, 0, roll), order(user, 1, roll, nigiri)));
+            case GET_STATUS:
+            case GET_COST:
+            case SEND_CHECKOUT:
+            case ORDER:
+            case SEND_CANCEL:
+            case ORDER_CHANGED:
+                Order order = order(user, 4, roll, nigiri);
+                order.setOrderState(Order.OrderState.DELIVERING);
+                return order;
+            default:
+                return new Message(type).getPayload();
+        }
+    }
+
+    private static User user() {
+        User user = new User("Oscar", "password", "1 University Road", new Postcode("PC1", 5));
+        user.setOrdersMade(5);
+        user.setClientUID(777);
+        return user;
+    }
+
+    private static Dish dish(int id, String name) {
+        return new Dish(id, name, name + " description", 4, null);
+    }
+
+    private static Order order(User user, int number, Dish... dishes) {
+        Order order = new Order(user, number);
+        for (int i=0; i<dishes.length; i++) {
+            order.addDish(dishes[i], i + 1);
+        }
+        return order;
+    }
+
+    /**
+     * Describes a value by the fields the codec sends, so a sent and received value can be compared
+     * @param value : Value to describe
+     * @return : Description of the value
+     */
+    private static String describe(Object value) {
+        if (value instanceof Dish) {
+            Dish dish = (Dish) value;
+            return "Dish(" + dish.getID() + "," + dish.getName() + "," + dish.getDishDescription() + "," + dish.dishPrice() + ")";
+        } else if (value instanceof Postcode) {
+            Postcode postcode = (Postcode) value;
+            return "Postcode(" + postcode.getName() + "," + postcode.getDistance() + ")";
+        } else if (value instanceof User) {
+            User user = (User) value;
+            return "User(" + user.getName() + "," + user.getPassword() + "," + user.getAddress() + "," + describe(user.getPostcode())
+                    + "," + user.getOrdersMade() + "," + user.getClientUID() + ")";
+        } else if (value instanceof Order) {
+            Order order = (Order) value;
+            return "Order(" + describe(order.getUser()) + "," + order.getUserOrderNum() + "," + order.getOrderState() + ","
+                    + describe(order.getBasket()) + ")";
+        } else if (value instanceof List) {
+            StringBuilder sb = new StringBuilder("[");
+            for (Object element : (List<?>) value) {
+                sb.append(describe(element)).append(";");
+            }
+            return sb.append("]").toString();
+        } else if (value instanceof Map) {
+            //Maps don't keep an order, so their entries are sorted
+            List<String> entries = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                entries.add(describe(entry.getKey()) + "=" + describe(entry.getValue()));
+            }
+            Collections.sort(entries);
+            return "{" + String.join(";", entries) + "}";
+        }
+        return value == null ? "null" : value.getClass().getSimpleName() + "(" + value + ")";
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + description);
+        }
+    }
+
+    private static void expectIOException(Attempt attempt, String description) {
+        try {
+            attempt.run();
+        } catch (IOException e) {
+            return;
+        } catch (RuntimeException e) {
+            throw new AssertionError("Failed: " + description + " threw " + e + " rather than an IOException", e);
+        }
+        throw new AssertionError("Failed: " + description + " was accepted");
+    }
+
+    private interface Attempt {
+        void run() throws IOException;
+    }
+
+    /**
+     * Serializable class that records if it is ever deserialized
+     */
+    private static class Gadget implements Serializable {
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            deserialized = true;
+        }
+    }
+}